@@ -0,0 +1,592 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree secondary index over one field of a heap table.
+ * Its entries map each key of the table to the record id of the tuple
+ * holding it, and are kept in order in the leaves, which are linked from
+ * left to right, so that both equality and range lookups read only the
+ * pages on one root-to-leaf path and the leaves holding matching entries.
+ * <p>
+ * The nodes are {@link BTreePage}s, read and written through the
+ * BufferPool like the pages of any other DbFile, so they are locked,
+ * cached and committed with the transaction that changes them. Page 0 is
+ * always the root: when it splits, its content moves to two new pages and
+ * it becomes their parent. The tree is descended with lock coupling: the
+ * lock on a node is only released once the lock on the next node is held,
+ * and only if the transaction did not hold it before. Lookups lock internal
+ * nodes shared and release them on the way down. Inserts first try to do
+ * the same, locking only the leaf exclusively; if that leaf is full, the
+ * insert starts over and locks the path exclusively, releasing the nodes
+ * above any node that can take one more entry, since a split cannot
+ * propagate past it. Deleted entries are removed from their leaf, but
+ * nodes are never merged.
+ * <p>
+ * An index may also include other fields of the table: their values are
+ * stored with each entry in the leaves, so that an {@link IndexScan} of a
+ * query that only reads the key and included fields can answer it from
+ * the index without reading the table's pages. Each included field makes
+ * the leaves hold fewer entries.
+ * <p>
+ * See {@link IndexFile} for the tuples of the file and how it is kept up
+ * to date.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ * @see Catalog#addIndex
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Percentage of each page that {@link #build} fills. */
+    public static final int BUILD_FILL_PERCENT = 90;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final int[] includedFields;
+    private final Type[] includedTypes;
+    private final int pageSize;
+    private final TupleDesc td;
+    private transient FileChannel channel;
+    private transient int numPages = -1;
+
+    /**
+     * Constructs a B+ tree index stored in the specified file.
+     *
+     * @param f
+     *            the file that stores the index
+     * @param tableId
+     *            the id of the indexed table
+     * @param keyField
+     *            the index of the indexed field in the table's TupleDesc
+     * @param keyType
+     *            the type of the indexed field
+     */
+    public BTreeFile(File f, int tableId, int keyField, Type keyType) {
+        this(f, tableId, keyField, keyType, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a B+ tree index stored in the specified file in pages of
+     * the specified size.
+     *
+     * @param pageSize
+     *            the size of each node of the index in bytes
+     */
+    public BTreeFile(File f, int tableId, int keyField, Type keyType, int pageSize) {
+        this(f, tableId, keyField, keyType, new int[0], new Type[0], pageSize);
+    }
+
+    /**
+     * Constructs a B+ tree index stored in the specified file whose entries
+     * include the values of other fields of the table.
+     *
+     * @param includedFields
+     *            the indexes of the included fields in the table's TupleDesc
+     * @param includedTypes
+     *            the types of the included fields
+     */
+    public BTreeFile(File f, int tableId, int keyField, Type keyType,
+            int[] includedFields, Type[] includedTypes) {
+        this(f, tableId, keyField, keyType, includedFields, includedTypes, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a B+ tree index stored in the specified file in pages of
+     * the specified size, whose entries include the values of other fields
+     * of the table.
+     */
+    public BTreeFile(File f, int tableId, int keyField, Type keyType,
+            int[] includedFields, Type[] includedTypes, int pageSize) {
+        if (includedFields.length != includedTypes.length) {
+            throw new IllegalArgumentException("included fields and types do not match");
+        }
+        this.f = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        this.includedFields = includedFields.clone();
+        this.includedTypes = includedTypes.clone();
+        this.pageSize = pageSize;
+        Type[] types = new Type[3 + includedFields.length];
+        String[] names = new String[3 + includedFields.length];
+        types[0] = keyType;
+        names[0] = "key";
+        types[1] = Type.INT_TYPE;
+        names[1] = "page";
+        types[2] = Type.INT_TYPE;
+        names[2] = "slot";
+        for (int i=0; i<includedFields.length; i++) {
+            types[3 + i] = includedTypes[i];
+            names[3 + i] = "field" + includedFields[i];
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns the file holding the B+ tree index of the given field of a
+     * table stored in dataFile.
+     */
+    public static File indexFileFor(File dataFile, int field) {
+        return new File(dataFile.getPath() + ".btree" + field);
+    }
+
+    /**
+     * Returns the file holding the B+ tree index of the given field of a
+     * table stored in dataFile that includes the given fields. The included
+     * fields are part of the name, since they change the layout of the
+     * leaves.
+     */
+    public static File indexFileFor(File dataFile, int field, int[] includedFields) {
+        StringBuilder name = new StringBuilder(dataFile.getPath() + ".btree" + field);
+        for (int i : includedFields) {
+            name.append('+').append(i);
+        }
+        return new File(name.toString());
+    }
+
+    /**
+     * Returns the File backing this index on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, computed the same
+     * way as for a {@link HeapFile}.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return keyField;
+    }
+
+    // see IndexFile.java for javadocs
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    // see IndexFile.java for javadocs
+    public int[] getIncludedFields() {
+        return includedFields.clone();
+    }
+
+    /**
+     * Returns the types of the included fields.
+     */
+    public Type[] getIncludedTypes() {
+        return includedTypes.clone();
+    }
+
+    // see IndexFile.java for javadocs
+    public int entriesPerPage() {
+        return BTreePage.maxEntries(keyType, includedTypes, pageSize, true);
+    }
+
+    // see IndexFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns true for equality and range predicates.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /**
+     * Returns the height of the tree.
+     */
+    public int lookupCost() {
+        return height();
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index: the key, the page
+     * and slot of the record id, and the included fields.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private BTreePageId rootId() {
+        return new BTreePageId(getId(), 0);
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(pageSize);
+            long offset = (long) pid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    // reading past the end of the file yields an empty leaf
+                    break;
+                }
+            }
+            return new BTreePage((BTreePageId) pid, keyType, includedTypes, buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        FileChannel ch = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) page.getId().pageNumber() * pageSize;
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    // see IndexFile.java for javadocs
+    public synchronized void sync() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the channel backing this file. The file will be transparently
+     * reopened by the next read or write.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the number of pages in this index, including pages allocated
+     * by transactions that have not committed yet.
+     */
+    public synchronized int numPages() {
+        if (numPages < 0) {
+            // page 0 is the root even before it is first written
+            numPages = Math.max(1, (int) (f.length() / pageSize));
+        }
+        return numPages;
+    }
+
+    /**
+     * Returns the number of levels of the tree, i.e. the number of pages a
+     * lookup reads to reach a leaf. The root is read directly from disk,
+     * without locking it.
+     */
+    public int height() {
+        return ((BTreePage) readPage(rootId())).getLevel() + 1;
+    }
+
+    /**
+     * Adds a page to the end of this index and locks it on behalf of tid.
+     * The page is empty until the caller fills it; it reaches the disk
+     * when the transaction commits.
+     */
+    private BTreePage newPage(TransactionId tid) throws DbException, TransactionAbortedException {
+        int pgNo;
+        synchronized (this) {
+            numPages();
+            pgNo = numPages++;
+        }
+        return (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(getId(), pgNo), Permissions.READ_WRITE);
+    }
+
+    private static boolean holds(TransactionId tid, PageId pid) {
+        return tid == null || Database.getBufferPool().holdsLock(tid, pid);
+    }
+
+    /**
+     * Finds the leaf whose range holds the given entry, or the leftmost
+     * leaf if e is null, locking internal nodes shared on the way down and
+     * releasing each one once its child is locked.
+     *
+     * @param perm the permissions to lock the leaf with
+     */
+    BTreePage findLeaf(TransactionId tid, BTreePage.Entry e, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return findLeaf(tid, e, perm, new boolean[1]);
+    }
+
+    /**
+     * Finds the leaf like {@link #findLeaf(TransactionId, BTreePage.Entry,
+     * Permissions)}, also telling whether tid held a lock on it before.
+     *
+     * @param leafHeld set to true in its first element if tid already held
+     *        a lock on the leaf
+     */
+    private BTreePage findLeaf(TransactionId tid, BTreePage.Entry e, Permissions perm,
+                               boolean[] leafHeld) throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId pid = rootId();
+        boolean held = holds(tid, pid);
+        BTreePage p = (BTreePage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        if (p.isLeaf() && perm == Permissions.READ_WRITE) {
+            // the root is the only leaf; nothing can have changed it while
+            // the shared lock was held
+            p = (BTreePage) bp.getPage(tid, pid, perm);
+        }
+        while (!p.isLeaf()) {
+            int child = e == null ? p.getChild(0) : p.getChild(p.findChild(e.key, e.page, e.slot));
+            BTreePageId cid = new BTreePageId(getId(), child);
+            boolean childHeld = holds(tid, cid);
+            Permissions cperm = p.getLevel() == 1 ? perm : Permissions.READ_ONLY;
+            BTreePage c = (BTreePage) bp.getPage(tid, cid, cperm);
+            if (!held) {
+                bp.releasePage(tid, p.getId());
+            }
+            p = c;
+            held = childHeld;
+        }
+        leafHeld[0] = held;
+        return p;
+    }
+
+    private BTreePage.Entry entryFor(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId) {
+            throw new DbException("tuple is not stored in the indexed table");
+        }
+        Field[] included = new Field[includedFields.length];
+        for (int i=0; i<includedFields.length; i++) {
+            included[i] = t.getField(includedFields[i]);
+        }
+        return new BTreePage.Entry(t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno(), included);
+    }
+
+    /**
+     * Adds the entry for a tuple of the indexed table, which must already
+     * have been stored in the table so that its record id is set.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryFor(t);
+        boolean[] held = new boolean[1];
+        BTreePage leaf = findLeaf(tid, e, Permissions.READ_WRITE, held);
+        if (!leaf.isFull()) {
+            leaf.insertEntry(leaf.findEntry(e.key, e.page, e.slot), e, 0);
+            ArrayList<Page> res = new ArrayList<Page>();
+            res.add(leaf);
+            return res;
+        }
+        // insertWithSplits locks the path from the root down; holding the
+        // leaf meanwhile would deadlock with a transaction that holds a
+        // node above it shared and waits for the leaf
+        if (!held[0]) {
+            Database.getBufferPool().releasePage(tid, leaf.getId());
+        }
+        return insertWithSplits(tid, e);
+    }
+
+    /**
+     * Inserts an entry whose leaf is full. The path from the root to the
+     * leaf is locked exclusively; whenever a node on it is found with room
+     * for another entry, the nodes above it are released, since splits
+     * stop there. Then the entry is inserted and overfull nodes are split
+     * from the leaf up.
+     */
+    private ArrayList<Page> insertWithSplits(TransactionId tid, BTreePage.Entry e)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        ArrayList<Boolean> held = new ArrayList<Boolean>();
+        BTreePageId pid = rootId();
+        held.add(holds(tid, pid));
+        path.add((BTreePage) bp.getPage(tid, pid, Permissions.READ_WRITE));
+        BTreePage p = path.get(0);
+        while (!p.isLeaf()) {
+            BTreePageId cid = new BTreePageId(getId(), p.getChild(p.findChild(e.key, e.page, e.slot)));
+            boolean childHeld = holds(tid, cid);
+            BTreePage c = (BTreePage) bp.getPage(tid, cid, Permissions.READ_WRITE);
+            if (!c.isFull()) {
+                for (int i=0; i<path.size(); i++) {
+                    if (!held.get(i)) {
+                        bp.releasePage(tid, path.get(i).getId());
+                    }
+                }
+                path.clear();
+                held.clear();
+            }
+            path.add(c);
+            held.add(childHeld);
+            p = c;
+        }
+
+        ArrayList<Page> res = new ArrayList<Page>();
+        int depth = path.size() - 1;
+        BTreePage node = path.get(depth);
+        node.insertEntry(node.findEntry(e.key, e.page, e.slot), e, 0);
+        res.add(node);
+        while (node.getNumEntries() > node.getMaxEntries()) {
+            if (node.getId().pageNumber() == 0) {
+                // the root keeps page 0: move it down and split the copy
+                BTreePage left = newPage(tid);
+                BTreePage right = newPage(tid);
+                node.pushDown(left);
+                BTreePage.Entry sep = left.splitInto(right);
+                node.insertEntry(0, sep, right.getId().pageNumber());
+                res.add(left);
+                res.add(right);
+                break;
+            }
+            BTreePage right = newPage(tid);
+            BTreePage.Entry sep = node.splitInto(right);
+            res.add(right);
+            BTreePage parent = path.get(--depth);
+            parent.insertEntry(parent.findChild(sep.key, sep.page, sep.slot), sep, right.getId().pageNumber());
+            res.add(parent);
+            node = parent;
+        }
+        return res;
+    }
+
+    /**
+     * Removes the entry for a tuple of the indexed table.
+     *
+     * @return the leaf the entry was removed from
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        BTreePage.Entry e = entryFor(t);
+        BTreePage leaf = findLeaf(tid, e, Permissions.READ_WRITE);
+        int i = leaf.findEntry(e.key, e.page, e.slot);
+        BTreePage.Entry found = i < leaf.getNumEntries() ? leaf.getEntry(i) : null;
+        if (found == null || BTreePage.compare(found.key, found.page, found.slot, e.key, e.page, e.slot) != 0) {
+            throw new DbException("tuple is not in the index");
+        }
+        leaf.deleteEntry(i);
+        return leaf;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator over the entries of this index whose key satisfies
+     * the given predicate, in key order. Equality and range predicates only
+     * read the leaves that may hold matching entries.
+     *
+     * @param ipred the predicate, or null for all entries
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(tid, this, ipred);
+    }
+
+    /**
+     * Replaces the content of this index with the entries of every tuple
+     * currently stored in the indexed table, see {@link IndexFile#build}.
+     * The entries are sorted and written out bottom-up, filling each page
+     * to {@link #BUILD_FILL_PERCENT}.
+     */
+    public synchronized void build(HeapFile table) throws IOException {
+        ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+        for (int pg=0; pg<table.numPages(); pg++) {
+            HeapPage hp = (HeapPage) table.readPage(new HeapPageId(table.getId(), pg));
+            for (int slot=0; slot<hp.getNumSlots(); slot++) {
+                if (hp.isSlotUsed(slot)) {
+                    Field[] included = new Field[includedFields.length];
+                    for (int i=0; i<includedFields.length; i++) {
+                        included[i] = hp.getField(slot, includedFields[i]);
+                    }
+                    entries.add(new BTreePage.Entry(hp.getField(slot, keyField), pg, slot, included));
+                }
+            }
+        }
+        // a stable sort, so entries with equal keys stay in record id order
+        Collections.sort(entries, new Comparator<BTreePage.Entry>() {
+            public int compare(BTreePage.Entry a, BTreePage.Entry b) {
+                return BTreePage.compare(a.key, 0, 0, b.key, 0, 0);
+            }
+        });
+
+        close();
+        if (!f.delete() && f.exists()) {
+            throw new IOException("cannot replace index " + f);
+        }
+        // drop any cached pages of the old index
+        for (int pg=0; pg<numPages(); pg++) {
+            Database.getBufferPool().discardPage(new BTreePageId(getId(), pg));
+        }
+        numPages = 1;
+        int perLeaf = Math.max(1, entriesPerPage() * BUILD_FILL_PERCENT / 100);
+        int nLeaves = Math.max(1, (entries.size() + perLeaf - 1) / perLeaf);
+        // the first entry under each node of the level just written
+        ArrayList<BTreePage.Entry> firsts = new ArrayList<BTreePage.Entry>();
+        ArrayList<Integer> nodes = new ArrayList<Integer>();
+        int first = nLeaves == 1 ? 0 : numPages;
+        numPages += nLeaves == 1 ? 0 : nLeaves;
+        for (int i=0; i<nLeaves; i++) {
+            int pgNo = first + i;
+            BTreePage leaf = emptyPage(pgNo);
+            leaf.init(0, i + 1 < nLeaves ? pgNo + 1 : 0, 0);
+            for (int j=i*perLeaf; j<Math.min(entries.size(), (i+1)*perLeaf); j++) {
+                leaf.insertEntry(leaf.getNumEntries(), entries.get(j), 0);
+            }
+            writePage(leaf);
+            firsts.add(i * perLeaf < entries.size() ? entries.get(i * perLeaf) : null);
+            nodes.add(pgNo);
+        }
+
+        int perNode = Math.max(2, (BTreePage.maxEntries(keyType, includedTypes, pageSize, false) + 1) * BUILD_FILL_PERCENT / 100);
+        int level = 1;
+        while (nodes.size() > 1) {
+            int n = (nodes.size() + perNode - 1) / perNode;
+            first = n == 1 ? 0 : numPages;
+            numPages += n == 1 ? 0 : n;
+            ArrayList<BTreePage.Entry> upperFirsts = new ArrayList<BTreePage.Entry>();
+            ArrayList<Integer> upperNodes = new ArrayList<Integer>();
+            for (int i=0; i<n; i++) {
+                BTreePage node = emptyPage(first + i);
+                int from = i * perNode;
+                node.init(level, 0, nodes.get(from));
+                for (int j=from+1; j<Math.min(nodes.size(), from+perNode); j++) {
+                    node.insertEntry(node.getNumEntries(), firsts.get(j), nodes.get(j));
+                }
+                writePage(node);
+                upperFirsts.add(firsts.get(from));
+                upperNodes.add(first + i);
+            }
+            firsts = upperFirsts;
+            nodes = upperNodes;
+            level++;
+        }
+        sync();
+    }
+
+    private BTreePage emptyPage(int pgNo) throws IOException {
+        return new BTreePage(new BTreePageId(getId(), pgNo), keyType, includedTypes, new byte[pageSize]);
+    }
+}
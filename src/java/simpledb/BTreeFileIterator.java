@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BTreeFileIterator is an implementation of a DbFileIterator that iterates
+ * through the entries of a BTreeFile in key order. For equality and range
+ * predicates it starts at the first leaf that may hold a matching entry and
+ * stops at the first entry past the range; other predicates are checked
+ * against every entry. The leaves it reads stay locked until the
+ * transaction completes.
+ */
+public class BTreeFileIterator implements DbFileIterator {
+    private final TransactionId tid;
+    private final BTreeFile f;
+    private final IndexPredicate ipred;
+    private BTreePage leaf;
+    private int pos;
+    private Tuple next;
+
+    /**
+     *
+     * @param tid The transaction performing the scan
+     * @param f the index iterated
+     * @param ipred the predicate the keys of the returned entries satisfy,
+     *              or null for all entries
+     */
+    public BTreeFileIterator(TransactionId tid, BTreeFile f, IndexPredicate ipred) {
+        this.tid = tid;
+        this.f = f;
+        this.ipred = ipred;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        BTreePage.Entry start = null;
+        if (ipred != null) {
+            Predicate.Op op = ipred.getOp();
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+                start = new BTreePage.Entry(ipred.getField(), Integer.MIN_VALUE, Integer.MIN_VALUE);
+            } else if (op == Predicate.Op.GREATER_THAN) {
+                start = new BTreePage.Entry(ipred.getField(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+            }
+        }
+        leaf = f.findLeaf(tid, start, Permissions.READ_ONLY);
+        pos = start == null ? 0 : leaf.findEntry(start.key, start.page, start.slot);
+        next = null;
+    }
+
+    /**
+     * @return true if no entry at or after the given key can match
+     */
+    private boolean pastRange(Field key) {
+        if (ipred == null) {
+            return false;
+        }
+        switch (ipred.getOp()) {
+        case EQUALS:
+        case LESS_THAN_OR_EQ:
+            return key.compare(Predicate.Op.GREATER_THAN, ipred.getField());
+        case LESS_THAN:
+            return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, ipred.getField());
+        default:
+            return false;
+        }
+    }
+
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (leaf != null) {
+            if (pos >= leaf.getNumEntries()) {
+                int nextLeaf = leaf.getNext();
+                leaf = nextLeaf == 0 ? null : (BTreePage) Database.getBufferPool().getPage(tid,
+                        new BTreePageId(f.getId(), nextLeaf), Permissions.READ_ONLY);
+                pos = 0;
+                continue;
+            }
+            Field key = leaf.getKey(pos);
+            if (pastRange(key)) {
+                leaf = null;
+                break;
+            }
+            BTreePage.Entry e = leaf.getEntry(pos++);
+            if (ipred == null || ipred.matches(key)) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                t.setField(0, key);
+                t.setField(1, new IntField(e.page));
+                t.setField(2, new IntField(e.slot));
+                for (int i=0; i<e.included.length; i++) {
+                    t.setField(3 + i, e.included[i]);
+                }
+                return t;
+            }
+        }
+        return null;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (next == null && leaf != null) {
+            next = fetchNext();
+        }
+        return next != null;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more entries");
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void close() {
+        leaf = null;
+        next = null;
+    }
+}
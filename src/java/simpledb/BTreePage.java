@@ -0,0 +1,471 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Each instance of BTreePage stores one node of a {@link BTreeFile}: either
+ * a leaf holding index entries, or an internal node holding separators and
+ * the page numbers of its children.
+ * <p>
+ * An entry is a key together with the record id of the indexed tuple, and
+ * entries are ordered by key, then by record id. Since the record id makes
+ * every entry unique, separators are whole entries too, and duplicate keys
+ * may span several leaves.
+ * <p>
+ * The format of a page is a header of {@link #HEADER_SIZE} bytes, holding
+ * the level of the node (0 for leaves) as a byte, the number of entries as
+ * an int and, for leaves, the page number of the next leaf as an int (0 if
+ * there is none, since page 0 is always the root). A leaf then holds its
+ * entries; an internal node holds the page number of its first child,
+ * followed by each separator and the page number of the child to its
+ * right. Each entry takes the length of the key type plus two ints for the
+ * page and slot of the record id. In the leaves of an index with included
+ * fields (see {@link BTreeFile}), each entry is followed by the values of
+ * those fields, so leaves hold fewer entries. A page of zeros is an empty
+ * leaf.
+ *
+ * @see BTreeFile
+ * @see BufferPool
+ */
+public class BTreePage implements Page {
+
+    /** Bytes at the start of each page before the entries. */
+    public static final int HEADER_SIZE = 9;
+
+    /**
+     * An index entry or separator: a key and the record id it points to,
+     * and for entries of leaves, the values of the included fields.
+     */
+    static class Entry {
+        final Field key;
+        final int page;
+        final int slot;
+        final Field[] included;
+
+        Entry(Field key, int page, int slot) {
+            this(key, page, slot, null);
+        }
+
+        Entry(Field key, int page, int slot, Field[] included) {
+            this.key = key;
+            this.page = page;
+            this.slot = slot;
+            this.included = included;
+        }
+    }
+
+    private final BTreePageId pid;
+    private final Type keyType;
+    private final Type[] includedTypes;
+    private final int pageSize;
+
+    private int level;
+    private int numEntries;
+    private int next;
+    // one more than fits on the page, so that an overfull node can be split
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+    private final Field[][] included;
+    private final int[] children;
+
+    /** the before image of this page */
+    private byte[] oldData;
+    private TransactionId tid;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk. The
+     * types of the keys and included fields are those of the index, which
+     * is looked up in the catalog.
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this(id, ((BTreeFile) Database.getCatalog().getDbFile(id.getTableId())).getKeyType(),
+                ((BTreeFile) Database.getCatalog().getDbFile(id.getTableId())).getIncludedTypes(), data);
+    }
+
+    BTreePage(BTreePageId id, Type keyType, Type[] includedTypes, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.includedTypes = includedTypes;
+        this.pageSize = data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.level = buf.get(0);
+        this.numEntries = buf.getInt(1);
+        this.next = buf.getInt(5);
+        if (level < 0 || numEntries < 0 || numEntries > getMaxEntries()) {
+            throw new IOException("corrupt index page " + id);
+        }
+        // the root changes from a leaf to an internal node as the tree
+        // grows, so make room for the larger of both
+        int capacity = Math.max(maxEntries(keyType, includedTypes, pageSize, true),
+                maxEntries(keyType, includedTypes, pageSize, false)) + 1;
+        this.keys = new Field[capacity];
+        this.pages = new int[capacity];
+        this.slots = new int[capacity];
+        this.included = new Field[capacity][];
+        this.children = new int[capacity + 1];
+        int offset = HEADER_SIZE;
+        if (level > 0) {
+            children[0] = buf.getInt(offset);
+            offset += 4;
+        }
+        for (int i=0; i<numEntries; i++) {
+            keys[i] = keyType.parse(buf, offset);
+            pages[i] = buf.getInt(offset + keyType.getLen());
+            slots[i] = buf.getInt(offset + keyType.getLen() + 4);
+            offset += entrySize(keyType);
+            if (level == 0) {
+                included[i] = new Field[includedTypes.length];
+                for (int j=0; j<includedTypes.length; j++) {
+                    included[i][j] = includedTypes[j].parse(buf, offset);
+                    offset += includedTypes[j].getLen();
+                }
+            }
+            if (level > 0) {
+                children[i+1] = buf.getInt(offset);
+                offset += 4;
+            }
+        }
+        this.oldData = data;
+    }
+
+    private static int entrySize(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+
+    /**
+     * @return the number of entries of a leaf, or of separators of an
+     *         internal node, that fit on a page of pageSize bytes
+     */
+    public static int maxEntries(Type keyType, int pageSize, boolean leaf) {
+        return maxEntries(keyType, new Type[0], pageSize, leaf);
+    }
+
+    /**
+     * @return the number of entries of a leaf, or of separators of an
+     *         internal node, that fit on a page of pageSize bytes of an
+     *         index with the given included fields
+     */
+    public static int maxEntries(Type keyType, Type[] includedTypes, int pageSize, boolean leaf) {
+        if (leaf) {
+            int size = entrySize(keyType);
+            for (Type t : includedTypes) {
+                size += t.getLen();
+            }
+            return (pageSize - HEADER_SIZE) / size;
+        }
+        return (pageSize - HEADER_SIZE - 4) / (entrySize(keyType) + 4);
+    }
+
+    /**
+     * Orders two entries by key, then by record id.
+     *
+     * @return a negative number, zero or a positive number as the first
+     *         entry is less than, equal to or greater than the second
+     */
+    static int compare(Field k1, int p1, int s1, Field k2, int p2, int s2) {
+        if (!k1.compare(Predicate.Op.EQUALS, k2)) {
+            return k1.compare(Predicate.Op.LESS_THAN, k2) ? -1 : 1;
+        }
+        if (p1 != p2) {
+            return Integer.compare(p1, p2);
+        }
+        return Integer.compare(s1, s2);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the size of this page in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the height of this node above the leaves, 0 for a leaf
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isLeaf() {
+        return level == 0;
+    }
+
+    /**
+     * @return the number of entries of a leaf, or of separators of an
+     *         internal node
+     */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /**
+     * @return the number of entries that fit on this page at its level
+     */
+    public int getMaxEntries() {
+        return maxEntries(keyType, includedTypes, pageSize, level == 0);
+    }
+
+    /**
+     * @return true if inserting another entry would overflow this page
+     */
+    public boolean isFull() {
+        return numEntries >= getMaxEntries();
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the record id of the ith entry, as a tuple of the table with
+     *         the given id
+     */
+    public RecordId getRecordId(int tableId, int i) {
+        return new RecordId(new HeapPageId(tableId, pages[i]), slots[i]);
+    }
+
+    /**
+     * @return the values of the included fields of the ith entry of a leaf
+     */
+    public Field[] getIncluded(int i) {
+        return included[i];
+    }
+
+    Entry getEntry(int i) {
+        return new Entry(keys[i], pages[i], slots[i], included[i]);
+    }
+
+    /**
+     * @return the page number of the ith child of an internal node; child i
+     *         holds the entries between separators i-1 and i
+     */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /**
+     * @return the page number of the leaf after this one, or 0 if this is
+     *         the last leaf
+     */
+    public int getNext() {
+        return next;
+    }
+
+    /**
+     * Returns the position of the first entry of this page that is not
+     * less than the given one, found by binary search.
+     */
+    public int findEntry(Field key, int page, int slot) {
+        int lo = 0;
+        int hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], pages[mid], slots[mid], key, page, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the child of this internal node whose subtree
+     * may hold the given entry: the number of separators not greater than it.
+     */
+    public int findChild(Field key, int page, int slot) {
+        int lo = 0;
+        int hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], pages[mid], slots[mid], key, page, slot) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts an entry at position i of a leaf, or a separator at position
+     * i of an internal node together with the child to its right. The page
+     * may hold one entry too many afterwards, which the caller must resolve
+     * by splitting it.
+     */
+    void insertEntry(int i, Entry e, int rightChild) {
+        if (numEntries > getMaxEntries()) {
+            throw new IllegalStateException("index page " + pid + " is overfull");
+        }
+        System.arraycopy(keys, i, keys, i + 1, numEntries - i);
+        System.arraycopy(pages, i, pages, i + 1, numEntries - i);
+        System.arraycopy(slots, i, slots, i + 1, numEntries - i);
+        System.arraycopy(included, i, included, i + 1, numEntries - i);
+        keys[i] = e.key;
+        pages[i] = e.page;
+        slots[i] = e.slot;
+        // separators do not carry the included fields
+        included[i] = level == 0 ? e.included : null;
+        if (level > 0) {
+            System.arraycopy(children, i + 1, children, i + 2, numEntries - i);
+            children[i+1] = rightChild;
+        }
+        numEntries++;
+    }
+
+    /**
+     * Removes the ith entry of a leaf.
+     */
+    void deleteEntry(int i) {
+        System.arraycopy(keys, i + 1, keys, i, numEntries - i - 1);
+        System.arraycopy(pages, i + 1, pages, i, numEntries - i - 1);
+        System.arraycopy(slots, i + 1, slots, i, numEntries - i - 1);
+        System.arraycopy(included, i + 1, included, i, numEntries - i - 1);
+        numEntries--;
+        keys[numEntries] = null;
+        included[numEntries] = null;
+    }
+
+    /**
+     * Moves the upper half of this node into right, which must be an empty
+     * page of the same index, and links right in after this node if they
+     * are leaves.
+     *
+     * @return the separator to insert into the parent for right: its first
+     *         entry if they are leaves, or the middle separator of this
+     *         node, which is then removed from both, if they are internal
+     */
+    Entry splitInto(BTreePage right) {
+        int mid = numEntries / 2;
+        right.level = level;
+        Entry sep;
+        int from;
+        if (level == 0) {
+            sep = getEntry(mid);
+            from = mid;
+            right.next = next;
+            next = right.pid.pageNumber();
+        } else {
+            sep = getEntry(mid);
+            from = mid + 1;
+            right.children[0] = children[mid + 1];
+            System.arraycopy(children, mid + 2, right.children, 1, numEntries - from);
+        }
+        int n = numEntries - from;
+        System.arraycopy(keys, from, right.keys, 0, n);
+        System.arraycopy(pages, from, right.pages, 0, n);
+        System.arraycopy(slots, from, right.slots, 0, n);
+        System.arraycopy(included, from, right.included, 0, n);
+        right.numEntries = n;
+        Arrays.fill(keys, mid, numEntries, null);
+        Arrays.fill(included, mid, numEntries, null);
+        numEntries = mid;
+        return sep;
+    }
+
+    /**
+     * Moves the whole content of this node into dest, an empty page of the
+     * same index, and turns this node into an internal node one level
+     * higher with dest as its only child.
+     */
+    void pushDown(BTreePage dest) {
+        dest.level = level;
+        dest.next = next;
+        dest.numEntries = numEntries;
+        System.arraycopy(keys, 0, dest.keys, 0, numEntries);
+        System.arraycopy(pages, 0, dest.pages, 0, numEntries);
+        System.arraycopy(slots, 0, dest.slots, 0, numEntries);
+        System.arraycopy(included, 0, dest.included, 0, numEntries);
+        System.arraycopy(children, 0, dest.children, 0, numEntries + 1);
+        Arrays.fill(keys, null);
+        Arrays.fill(included, null);
+        level++;
+        next = 0;
+        numEntries = 0;
+        children[0] = dest.pid.pageNumber();
+    }
+
+    /**
+     * Sets up an empty page as a node at the given level, e.g. while bulk
+     * loading an index.
+     */
+    void init(int level, int next, int firstChild) {
+        this.level = level;
+        this.next = next;
+        this.numEntries = 0;
+        this.children[0] = firstChild;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format read by {@link #BTreePage(BTreePageId, byte[])}.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(level);
+            dos.writeInt(numEntries);
+            dos.writeInt(level == 0 ? next : 0);
+            if (level > 0) {
+                dos.writeInt(children[0]);
+            }
+            for (int i=0; i<numEntries; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(pages[i]);
+                dos.writeInt(slots[i]);
+                if (level == 0) {
+                    for (Field f : included[i]) {
+                        f.serialize(dos);
+                    }
+                }
+                if (level > 0) {
+                    dos.writeInt(children[i+1]);
+                }
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    // see Page.java for javadocs
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    // see Page.java for javadocs
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    // see Page.java for javadocs
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(pid, keyType, includedTypes, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // see Page.java for javadocs
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * BloomFilter records the values of one field of a table in a bit array, so
+ * that an equality lookup of a value the table does not hold can usually be
+ * answered without scanning the table or probing an index: if any of the
+ * bits a value hashes to is clear, no tuple has that value. With
+ * {@link #BITS_PER_KEY} bits per tuple, about one lookup of an absent value
+ * in a hundred still has to look at the table.
+ * <p>
+ * The filter is built by the scan that computes a table's {@link TableStats},
+ * which sizes it to the number of tuples, and the BufferPool adds the values
+ * of inserted tuples to it. Deletes are not reflected, which only makes the
+ * filter answer "maybe" for values that are gone, until the next rebuild.
+ * Tuples written behind the BufferPool's back are not seen, as for indexes.
+ * <p>
+ * The filter is kept in a sidecar file next to the table's data file (see
+ * {@link #sidecarFor}), written when it is rebuilt. Since a filter missing a
+ * value would hide its tuples, the sidecar file is deleted as soon as an
+ * insert sets a bit it does not have, i.e. before the tuple can reach disk;
+ * a filter whose sidecar file is missing, unreadable or was saved when the
+ * data file had a different length is not used until it is rebuilt.
+ *
+ * @see Catalog#addBloomFilter
+ */
+public class BloomFilter {
+
+    /** bits of the filter per tuple of the table when it is built */
+    public static final int BITS_PER_KEY = 10;
+    /** number of bits each value sets, optimal for BITS_PER_KEY */
+    public static final int NUM_HASHES = 7;
+    private static final int MIN_BITS = 1024;
+
+    private final File file;
+    private final File dataFile;
+    private final int field;
+    /** null until the filter is built */
+    private long[] bits;
+    private int numHashes;
+    /** the filter a running rebuild fills in */
+    private long[] building;
+    /** true if the sidecar file holds the filter */
+    private boolean saved;
+
+    /**
+     * Returns the file holding the Bloom filter of the given field of the
+     * table stored in the given data file.
+     */
+    public static File sidecarFor(File dataFile, int field) {
+        return new File(dataFile.getPath() + ".bloom" + field);
+    }
+
+    /**
+     * Opens the Bloom filter of a field of a table, loading it from its
+     * sidecar file if that describes the data file.
+     *
+     * @param dataFile the data file of the table
+     * @param field the index of the field the filter records
+     */
+    public BloomFilter(File dataFile, int field) {
+        this.file = sidecarFor(dataFile, field);
+        this.dataFile = dataFile;
+        this.field = field;
+        if (file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                // an unusable filter only costs a scan
+                e.printStackTrace();
+                bits = null;
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int f = dis.readInt();
+            long length = dis.readLong();
+            int k = dis.readInt();
+            int words = dis.readInt();
+            if (f != field || k <= 0 || words <= 0 || 20 + 8L * words != file.length()) {
+                throw new IOException("corrupt bloom filter " + file);
+            }
+            if (length != dataFile.length()) {
+                return;
+            }
+            long[] b = new long[words];
+            for (int i=0; i<words; i++) {
+                b[i] = dis.readLong();
+            }
+            bits = b;
+            numHashes = k;
+            saved = true;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * @return the index of the field the filter records
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return true if the filter can answer lookups, i.e. it was built or
+     *         loaded
+     */
+    public synchronized boolean isBuilt() {
+        return bits != null;
+    }
+
+    /**
+     * @return false if no tuple of the table has the given value in the
+     *         filter's field; true if one may, or the filter is not built
+     */
+    public synchronized boolean mightContain(Field value) {
+        if (bits == null) {
+            return true;
+        }
+        long h = hash(value);
+        long numBits = (long) bits.length * 64;
+        for (int i=0; i<numHashes; i++) {
+            long bit = bit(h, i, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the filter's field of a tuple inserted into the table. Must be
+     * called after the tuple is stored on a page the inserting transaction
+     * has locked, so that a rebuild whose scan has not reached the page yet
+     * sees the tuple there, and before the tuple can be written to disk.
+     */
+    public synchronized void add(Tuple t) {
+        Field value = t.getField(field);
+        if (bits != null && set(bits, value, numHashes) && saved) {
+            // the sidecar file no longer has every value of the table
+            file.delete();
+            saved = false;
+        }
+        if (building != null) {
+            set(building, value, NUM_HASHES);
+        }
+    }
+
+    /**
+     * Starts rebuilding the filter for a table of about the given number of
+     * tuples. Until {@link #endRebuild}, the old filter keeps answering
+     * lookups, and inserted tuples go to both.
+     */
+    public synchronized void beginRebuild(int numTuples) {
+        long numBits = Math.max(MIN_BITS, (long) numTuples * BITS_PER_KEY);
+        building = new long[(int) Math.min(Integer.MAX_VALUE, (numBits + 63) / 64)];
+    }
+
+    /**
+     * Records a tuple read by the scan of a rebuild.
+     */
+    public synchronized void addScanned(Tuple t) {
+        set(building, t.getField(field), NUM_HASHES);
+    }
+
+    /**
+     * Replaces the filter by the rebuilt one, once the scan has read every
+     * tuple of the table, and writes it to the sidecar file.
+     */
+    public synchronized void endRebuild() throws IOException {
+        bits = building;
+        numHashes = NUM_HASHES;
+        building = null;
+        saved = false;
+        save();
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            dos.writeInt(field);
+            dos.writeLong(dataFile.length());
+            dos.writeInt(numHashes);
+            dos.writeInt(bits.length);
+            for (long w : bits) {
+                dos.writeLong(w);
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saved = true;
+    }
+
+    /**
+     * Sets the bits of a value.
+     *
+     * @return true if any of them was clear
+     */
+    private static boolean set(long[] b, Field value, int k) {
+        long h = hash(value);
+        long numBits = (long) b.length * 64;
+        boolean changed = false;
+        for (int i=0; i<k; i++) {
+            long bit = bit(h, i, numBits);
+            int w = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((b[w] & mask) == 0) {
+                b[w] |= mask;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Spreads the hash code of a value over 64 bits, since the hash code of
+     * an IntField is its value. Equal fields have equal hash codes, whether
+     * they are dictionary-encoded or not.
+     */
+    private static long hash(Field value) {
+        long h = value.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 29;
+        return h;
+    }
+
+    /**
+     * @return the i-th bit of a value with the given hash, by double hashing
+     */
+    private static long bit(long h, int i, long numBits) {
+        long h1 = h & 0xffffffffL;
+        long h2 = (h >>> 32) | 1;
+        return ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+    }
+}
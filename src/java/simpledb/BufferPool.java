@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,13 +13,149 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a concurrent map from page ids to frames, so a page
+ * that is already cached is found without taking the pool's monitor, and
+ * hits from many threads do not serialize. Changes to the set of cached
+ * pages, i.e. reading a page in, evicting and discarding pages, and
+ * flushing them, happen under the monitor.
+ * <p>
+ * The page to evict when the pool is full is chosen by a
+ * {@link ReplacementPolicy}, selected when the pool is created (see
+ * {@link Replacement}). Neither dirty pages nor pages a transaction
+ * fetched for writing and still holds the lock on are evicted, since the
+ * transaction may be about to change them.
+ * <p>
+ * Scans of tables larger than the pool read through a {@link Ring}, a
+ * small private set of frames they reuse over and over, so that they
+ * neither push the working set of other queries out of the pool nor slow
+ * down as the pool fills up.
+ * <p>
+ * A pool created off heap keeps the bytes of the heap pages it caches in
+ * a {@link PageArena}, preallocated direct memory divided into frames of
+ * {@link #PAGE_SIZE} bytes, and decodes tuples from the frame each time
+ * they are asked for instead of keeping them. Large pools then hold few
+ * objects on the Java heap, so garbage collection pauses do not grow with
+ * the pool. A page smaller than a frame still takes a whole one; pages
+ * larger than a frame, and pages of other files, stay on the heap.
  */
 public class BufferPool {
-    private int numPages;
-    private LinkedHashMap<PageId, Page> pageMap;
+    /** capacity of the pool in bytes */
+    private long capacity;
+    /** bytes taken by the pages currently in pageMap */
+    private long usedBytes;
+    private final ConcurrentHashMap<PageId, Frame> pageMap;
+    private final ReplacementPolicy policy;
+    /** the frames holding cached heap pages, or null if they stay on the heap */
+    private final PageArena arena;
+    /** incremented whenever a page on disk may have changed */
+    private long writeCount;
+
+    /** The replacement policies a BufferPool can use. */
+    public enum Replacement {
+        /**
+         * CLOCK, an approximation of LRU whose hits only set a bit, see
+         * {@link ClockPolicy}
+         */
+        CLOCK,
+        /**
+         * 2Q, which keeps pages read once, e.g. by large scans, from
+         * displacing pages that are used again, see {@link TwoQueuePolicy}
+         */
+        TWO_QUEUE
+    }
+
+    /** A page cached in the pool, and its per-frame state. */
+    static class Frame {
+        final PageId pid;
+        /** the cached page; replaced by its before image on abort */
+        volatile Page page;
+        /** the number of bytes of pool capacity the page takes */
+        final int size;
+        /** the frame of the arena holding arenaPage, or -1 */
+        int arenaFrame = -1;
+        /**
+         * the page whose bytes are in arenaFrame; the page read in, even if
+         * an abort replaced it with its before image since
+         */
+        HeapPage arenaPage;
+        /** the last transaction that fetched the page for writing */
+        volatile TransactionId writer;
+
+        // state of the replacement policy
+        /** the slot of the frame on a clock */
+        int slot;
+        /** set by hits, cleared by a clock hand */
+        volatile boolean referenced;
+        /** true if the frame is in the main queue of 2Q */
+        boolean inMain;
+        /**
+         * the ring of the bulk read that read the page in, until a read
+         * through no ring, or another one, uses the page
+         */
+        volatile Ring ring;
+
+        Frame(PageId pid, Page page, int size) {
+            this.pid = pid;
+            this.page = page;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A Ring is the access strategy of a bulk read, after the buffer ring of
+     * PostgreSQL: the pages the read brings into the pool take up the slots
+     * of a small ring, and once the ring is full, each new page replaces
+     * the page read one turn earlier instead of one the replacement policy
+     * chooses. The earlier page is only dropped if it is still the ring's,
+     * i.e. no other read used it in the meantime, and if it may be evicted;
+     * otherwise the pool evicts a page as usual. Pages the read finds in the
+     * pool are not taken into the ring.
+     * <p>
+     * A ring is used by one scan at a time; its state only changes under
+     * the pool's monitor.
+     *
+     * @see #getPage(TransactionId, PageId, Permissions, Ring)
+     */
+    public static class Ring {
+        /** the pages read into each slot of the ring, or null */
+        private final PageId[] pids;
+        /** the next slot to fill */
+        private int next;
+
+        Ring(int size) {
+            this.pids = new PageId[size];
+        }
+
+        /** @return the number of pages of the ring */
+        public int size() {
+            return pids.length;
+        }
+    }
+
+    /** Upper bound on the number of pages of a {@link Ring}. */
+    public static final int MAX_RING_PAGES = 16;
 
     private LockManager lockManager;
 
+    /** reads issued by prefetchPage that have not completed yet */
+    private final ConcurrentHashMap<PageId, Future<?>> pendingReads =
+            new ConcurrentHashMap<PageId, Future<?>>();
+    private volatile boolean readAhead = true;
+
+    /** Upper bound on the number of pages a scan reads ahead. */
+    public static final int MAX_READ_AHEAD = 64;
+
+    /** Threads reading pages in the background, shared by all buffer pools. */
+    private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(2,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BufferPool-io");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
@@ -27,13 +165,45 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of
+     * {@link #PAGE_SIZE} bytes, replaced with CLOCK. Tables with a different
+     * page size take up a proportionally different share of that capacity.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        this.numPages = numPages;
-        this.pageMap = new LinkedHashMap<>();
+        this(numPages, Replacement.CLOCK);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of
+     * {@link #PAGE_SIZE} bytes, replaced with the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacement the policy choosing the pages to evict
+     */
+    public BufferPool(int numPages, Replacement replacement) {
+        this(numPages, replacement, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of
+     * {@link #PAGE_SIZE} bytes, replaced with the given policy, optionally
+     * keeping them off heap. An off-heap pool allocates all of its memory
+     * here, which must fit in the direct memory limit of the JVM
+     * (-XX:MaxDirectMemorySize).
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacement the policy choosing the pages to evict
+     * @param offHeap true to keep the bytes of heap pages in direct memory
+     */
+    public BufferPool(int numPages, Replacement replacement, boolean offHeap) {
+        this.capacity = (long) numPages * PAGE_SIZE;
+        this.usedBytes = 0;
+        this.pageMap = new ConcurrentHashMap<PageId, Frame>();
+        this.policy = replacement == Replacement.TWO_QUEUE
+                ? new TwoQueuePolicy(capacity) : new ClockPolicy();
+        this.arena = offHeap ? new PageArena(numPages, PAGE_SIZE) : null;
 
         lockManager = LockManager.create();
     }
@@ -54,24 +224,308 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, but if the page
+     * is not cached, read it into a slot of the given ring.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the bulk read fetching the page, or null
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, Ring ring)
         throws TransactionAbortedException, DbException {
         lockManager.acquireLock(tid, pid, perm);
 
-        Page res;
-        if (pageMap.containsKey(pid)) {
-            res = pageMap.get(pid);
-            // move the page to the last
-            pageMap.remove(pid);
-            pageMap.put(pid, res);
-        } else {
-            if (pageMap.size() >= numPages) {
-                this.evictPage();
+        // if the page is being read ahead, wait for that read instead of
+        // issuing a second one
+        Future<?> pending = pendingReads.get(pid);
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // read it again below
+            }
+        }
+        return loadPage(pid, false, perm == Permissions.READ_WRITE ? tid : null, ring);
+    }
+
+    /**
+     * Returns the cached copy of a page, reading it into the pool if it is
+     * not cached. The read happens outside the pool's monitor; if a page
+     * may have been written in the meantime, the page is read again so
+     * that a stale copy is never cached.
+     *
+     * @param prefetch true if the page is only read ahead: the read then
+     *        gives up rather than evict a page or read twice, and returns null
+     * @param writer the transaction fetching the page for writing, or null
+     * @param ring the ring to read the page into, or null
+     */
+    private Page loadPage(PageId pid, boolean prefetch, TransactionId writer, Ring ring)
+            throws DbException {
+        DbFile dbf = Database.getCatalog().getDbFile(pid.getTableId());
+        while (true) {
+            // a hit only touches the page's frame
+            Frame frame = pageMap.get(pid);
+            if (frame != null) {
+                if (prefetch) {
+                    return null;
+                }
+                // a bulk read using its own page says nothing about whether
+                // the page is used again; anybody else makes it a page of
+                // the pool
+                Ring owner = frame.ring;
+                if (owner == null || owner != ring) {
+                    if (owner != null) {
+                        frame.ring = null;
+                    }
+                    policy.hit(frame);
+                }
+                if (writer == null) {
+                    return frame.page;
+                }
+                // a writer keeps the page from being evicted, which must
+                // not happen between looking it up and marking it
+                synchronized (this) {
+                    if (pageMap.get(pid) == frame) {
+                        frame.writer = writer;
+                        return frame.page;
+                    }
+                }
+                continue;
             }
-            res = Database.getCatalog()
-                    .getDbFile(pid.getTableId()).readPage(pid);
-            pageMap.put(pid, res);
+            long gen;
+            synchronized (this) {
+                gen = writeCount;
+            }
+            Page res = dbf.readPage(pid);
+            synchronized (this) {
+                Frame cached = pageMap.get(pid);
+                if (cached != null) {
+                    if (writer != null) {
+                        cached.writer = writer;
+                    }
+                    return prefetch ? null : cached.page;
+                }
+                if (gen != writeCount) {
+                    if (prefetch) {
+                        return null;
+                    }
+                    continue;
+                }
+                // make room for the new page; a page larger than the whole
+                // pool is still loaded once everything else is evicted
+                Frame f = new Frame(pid, res, sizeInPool(res));
+                f.writer = writer;
+                if (ring != null) {
+                    reuseSlot(ring);
+                }
+                while (!pageMap.isEmpty() && usedBytes + f.size > capacity) {
+                    if (prefetch && !hasCleanPage()) {
+                        return null;
+                    }
+                    this.evictPage();
+                }
+                if (arena != null) {
+                    moveToArena(f);
+                }
+                policy.admit(f);
+                if (ring != null) {
+                    f.ring = ring;
+                    ring.pids[ring.next] = pid;
+                    ring.next = (ring.next + 1) % ring.pids.length;
+                }
+                pageMap.put(pid, f);
+                usedBytes += f.size;
+                return res;
+            }
+        }
+    }
+
+    /**
+     * Drops the page in the next slot of the ring from the pool, if it is
+     * still the ring's and may be evicted.
+     */
+    private synchronized void reuseSlot(Ring ring) {
+        PageId old = ring.pids[ring.next];
+        if (old == null) {
+            return;
+        }
+        ring.pids[ring.next] = null;
+        Frame f = pageMap.get(old);
+        if (f != null && f.ring == ring && evictable(f)) {
+            discardPage(old);
+        }
+    }
+
+    /**
+     * @return the number of bytes of pool capacity the page takes: a whole
+     *         frame if it is kept in the arena
+     */
+    private int sizeInPool(Page p) {
+        int size = p.getPageSize();
+        if (arena != null && p instanceof HeapPage && size <= arena.frameSize()) {
+            return arena.frameSize();
         }
-        return res;
+        return size;
+    }
+
+    /**
+     * Moves the bytes of a heap page just read in to a frame of the arena.
+     * Every page in a frame takes a frame's worth of capacity, so there is
+     * a free frame once the pool made room for the page.
+     */
+    private void moveToArena(Frame f) {
+        if (!(f.page instanceof HeapPage) || f.size != arena.frameSize()) {
+            return;
+        }
+        int n = arena.allocate();
+        if (n < 0) {
+            return;
+        }
+        HeapPage hp = (HeapPage) f.page;
+        hp.moveData(arena.frame(n, hp.getPageSize()));
+        f.arenaFrame = n;
+        f.arenaPage = hp;
+    }
+
+    private boolean hasCleanPage() {
+        for (Frame f : pageMap.values()) {
+            if (evictable(f)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the frame's page is neither dirty nor locked by a
+     *         transaction that fetched it for writing
+     */
+    boolean evictable(Frame f) {
+        TransactionId w = f.writer;
+        return f.page.isDirty() == null && (w == null || !lockManager.holdsLock(w, f.pid));
+    }
+
+    /**
+     * Starts reading the specified page into the pool in the background,
+     * without locking it, so that a later {@link #getPage} finds it cached.
+     * Does nothing if the page is cached or already being read, or if read
+     * ahead is disabled. The read never evicts dirty pages; if there is no
+     * room for the page, it is dropped.
+     *
+     * @param pid the ID of the page to read
+     */
+    public void prefetchPage(final PageId pid) {
+        prefetchPage(pid, null);
+    }
+
+    /**
+     * Starts reading the specified page into the pool in the background,
+     * like {@link #prefetchPage(PageId)}, into a slot of the given ring.
+     *
+     * @param pid the ID of the page to read
+     * @param ring the ring of the bulk read, or null
+     */
+    public void prefetchPage(final PageId pid, final Ring ring) {
+        if (!readAhead || pageCached(pid) || pendingReads.containsKey(pid)) {
+            return;
+        }
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            public void run() {
+                try {
+                    loadPage(pid, true, null, ring);
+                } catch (DbException e) {
+                    // nothing to evict; the scan will read the page itself
+                } catch (RuntimeException e) {
+                    // e.g. a page past the end of a file; likewise
+                } finally {
+                    pendingReads.remove(pid);
+                }
+            }
+        }, null);
+        if (pendingReads.putIfAbsent(pid, task) == null) {
+            ioExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Turns read ahead by sequential scans on or off.
+     *
+     * @see #prefetchPage
+     */
+    public void setReadAhead(boolean enabled) {
+        this.readAhead = enabled;
+    }
+
+    /**
+     * Returns the largest number of pages of the given size a scan should
+     * read ahead: a quarter of the pool, at most {@link #MAX_READ_AHEAD}, or
+     * 0 if read ahead is disabled.
+     */
+    public int maxReadAhead(int pageSize) {
+        if (!readAhead) {
+            return 0;
+        }
+        return (int) Math.min(MAX_READ_AHEAD, capacity / 4 / pageSize);
+    }
+
+    /**
+     * Returns true if a read of the given number of pages of the given size
+     * is a bulk read, which should go through a {@link Ring}: one of more
+     * pages than the pool holds. A scan of fewer pages leaves them all
+     * cached for the next one, but a larger scan would evict its own pages
+     * before it comes back to them, along with everything else in the pool.
+     *
+     * @param numPages the number of pages the read will fetch
+     * @param pageSize the size of the pages
+     */
+    public boolean isBulkRead(int numPages, int pageSize) {
+        return (long) numPages * pageSize > capacity;
+    }
+
+    /**
+     * Returns a new ring for a bulk read of pages of the given size: an
+     * eighth of the pool, at most {@link #MAX_RING_PAGES} pages and at least
+     * two.
+     *
+     * @param pageSize the size of the pages
+     */
+    public Ring newRing(int pageSize) {
+        long pages = Math.min(MAX_RING_PAGES, capacity / 8 / pageSize);
+        return new Ring((int) Math.max(2, pages));
+    }
+
+    /**
+     * Returns true if the specified page is currently held in the buffer
+     * pool. Does not acquire any locks or change the eviction order.
+     *
+     * @param pid the ID of the page
+     */
+    public boolean pageCached(PageId pid) {
+        return pageMap.containsKey(pid);
+    }
+
+    /**
+     * Acquires a lock on a page without reading it, e.g. for a scan that
+     * decides from a summary of the page that it need not read it, but
+     * must still keep writers away from it until the transaction completes.
+     * May block like {@link #getPage}.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.acquireLock(tid, pid, perm);
     }
 
     /**
@@ -110,14 +564,23 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        for (Map.Entry<PageId, Page> entry: this.pageMap.entrySet()) {
-            PageId pid = entry.getKey();
-            Page page = entry.getValue();
-            if (page.isDirty() != null && page.isDirty().equals(tid)) {
-                if (commit) {
-                    flushPage(pid);
-                } else {
-                    pageMap.replace(pid, page.getBeforeImage());
+        if (commit) {
+            flushPages(tid);
+        } else {
+            synchronized (this) {
+                for (Map.Entry<PageId, Frame> entry: this.pageMap.entrySet()) {
+                    PageId pid = entry.getKey();
+                    Page page = entry.getValue().page;
+                    if (page.isDirty() != null && page.isDirty().equals(tid)) {
+                        Page before = page.getBeforeImage();
+                        entry.getValue().page = before;
+                        DbFile dbf = Database.getCatalog().getDbFile(pid.getTableId());
+                        if (dbf instanceof HeapFile) {
+                            ((HeapFile) dbf).getFreeSpaceMap().setFreeSlots(pid.pageNumber(),
+                                    ((HeapPage) before).getNumEmptySlots());
+                            ((HeapFile) dbf).getZoneMap().pageRestored((HeapPage) before);
+                        }
+                    }
                 }
             }
         }
@@ -141,12 +604,25 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         DbFile dbf = Database.getCatalog().getDbFile(tableId);
-        HeapFile hf = (HeapFile) dbf;
-        ArrayList<Page> affectedPages = hf.insertTuple(tid, t);
+        ArrayList<Page> affectedPages = dbf.insertTuple(tid, t);
         for (Page p: affectedPages) {
             p.markDirty(true, tid);
 //            pageMap.put(p.getId(), p);
         }
+        // the tuple's page is locked now, so a rebuild of a filter either
+        // already scanned the page, and gets the value here, or will see the
+        // tuple; the pool does not steal, so the tuple is not on disk yet
+        for (BloomFilter bloom : Database.getCatalog().getBloomFilters(tableId)) {
+            bloom.add(t);
+        }
+        // the tuple may break the order of a clustered table; its page is
+        // locked by now, so a running Cluster is done with the table
+        Cluster.forget(tableId);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page p : index.insertTuple(tid, t)) {
+                p.markDirty(true, tid);
+            }
+        }
     }
 
     /**
@@ -164,12 +640,13 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
-        DbFile dbf = Database.getCatalog().getDbFile(
-                t.getRecordId().getPageId().getTableId());
-        HeapFile hf = (HeapFile) dbf;
-        Page affectedPage = hf.deleteTuple(tid, t);
-        HeapPage hp = (HeapPage)affectedPage;
-        hp.markDirty(true, tid);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile dbf = Database.getCatalog().getDbFile(tableId);
+        Page affectedPage = dbf.deleteTuple(tid, t);
+        affectedPage.markDirty(true, tid);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            index.deleteTuple(tid, t).markDirty(true, tid);
+        }
     }
 
     /**
@@ -178,9 +655,12 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
+        Set<Integer> tables = new HashSet<>();
         for (PageId pid: this.pageMap.keySet()) {
             flushPage(pid);
+            tables.add(pid.getTableId());
         }
+        syncTables(tables);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -189,7 +669,19 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        this.pageMap.remove(pid);
+        // the caller may have changed the page on disk
+        writeCount++;
+        Frame f = this.pageMap.remove(pid);
+        if (f != null) {
+            usedBytes -= f.size;
+            policy.remove(f);
+            if (f.arenaFrame >= 0) {
+                // the page may still be in use, e.g. by a scan, so it
+                // takes its bytes along before the frame is reused
+                f.arenaPage.moveData(ByteBuffer.allocate(f.arenaPage.getPageSize()));
+                arena.release(f.arenaFrame);
+            }
+        }
     }
 
     /**
@@ -197,43 +689,52 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        Page p = this.pageMap.get(pid);
+        Page p = this.pageMap.get(pid).page;
         int tableid = pid.getTableId();
-        HeapFile hf = (HeapFile)Database.getCatalog().getDbFile(tableid);
-        hf.writePage(p);
+        DbFile dbf = Database.getCatalog().getDbFile(tableid);
+        dbf.writePage(p);
+        writeCount++;
         p.markDirty(false, null);
+        // what is on disk now is what an abort would have to return to
+        p.setBeforeImage();
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        for (Map.Entry<PageId, Page> entry: this.pageMap.entrySet()) {
+        Set<Integer> tables = new HashSet<>();
+        for (Map.Entry<PageId, Frame> entry: this.pageMap.entrySet()) {
             PageId pid = entry.getKey();
-            Page page = entry.getValue();
+            Page page = entry.getValue().page;
             if (page.isDirty() != null && page.isDirty().equals(tid)) {
                 flushPage(pid);
+                tables.add(pid.getTableId());
             }
         }
+        syncTables(tables);
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Forces the files of the specified tables to disk. Page writes are
+     * not synchronous, so this is the point at which flushed pages become
+     * durable.
      */
-    private synchronized  void evictPage() throws DbException {
-        PageId evicted = null;
-        Iterator<PageId> it = this.pageMap.keySet().iterator();
-        boolean isFind = false;
-        while (it.hasNext()) {
-            evicted = it.next();
-            if (pageMap.get(evicted).isDirty() == null) {
-                isFind = true;
-                break;
-            }
+    private void syncTables(Set<Integer> tables) throws IOException {
+        for (int tableid: tables) {
+            Database.getCatalog().getDbFile(tableid).sync();
         }
-        if (!isFind) {
+    }
+
+    /**
+     * Discards the page the replacement policy chooses from the buffer
+     * pool. Dirty pages are never evicted, as the pool does not steal them,
+     * and neither are pages about to be changed.
+     */
+    private synchronized  void evictPage() throws DbException {
+        Frame f = policy.victim(this);
+        if (f == null) {
             throw new DbException("all pages in buffer pool are dirty");
         }
-        discardPage(evicted);
+        discardPage(f.pid);
     }
 }
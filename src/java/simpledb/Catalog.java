@@ -20,6 +20,10 @@ public class Catalog {
         DbFile file;
         String name;
         String pkeyField;
+        ArrayList<IndexFile> indexes = new ArrayList<IndexFile>();
+        ArrayList<BloomFilter> blooms = new ArrayList<BloomFilter>();
+        /** the field the file is sorted on, or -1 */
+        volatile int sortField = -1;
         public Table(DbFile f, String n, String pkey) {
             file = f;
             name = n;
@@ -27,6 +31,7 @@ public class Catalog {
         }
     }
     private HashMap<Integer, Table> tableMap;
+    private HashMap<Integer, IndexFile> indexMap;
 
     /**
      * Constructor.
@@ -34,11 +39,13 @@ public class Catalog {
      */
     public Catalog() {
         tableMap = new HashMap<Integer, Table>();
+        indexMap = new HashMap<Integer, IndexFile>();
     }
 
     /**
      * Add a new table to the catalog.
-     * This table's contents are stored in the specified DbFile.
+     * This table's contents are stored in the specified DbFile. A HeapFile
+     * sorted by {@link Cluster} and not changed since is recorded as sorted.
      * @param file the contents of the table to add;  file.getId() is the identfier of
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
@@ -47,7 +54,15 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         Table tmp = new Table(file, name, pkeyField);
-        tableMap.put(file.getId(), tmp);
+        if (file instanceof HeapFile) {
+            tmp.sortField = Cluster.sortFieldOf(((HeapFile) file).getFile());
+        }
+        Table old = tableMap.put(file.getId(), tmp);
+        if (old != null) {
+            for (IndexFile index : old.indexes) {
+                indexMap.remove(index.getId());
+            }
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -97,14 +112,128 @@ public class Catalog {
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table or index.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or the id of an index passed to addIndex
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         Table tmp = tableMap.get(tableid);
         if (tmp != null) {
             return tmp.file;
+        }
+        IndexFile index = indexMap.get(tableid);
+        if (index != null) {
+            return index;
+        }
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Adds an index over a field of a table that is in the catalog. From
+     * then on, the BufferPool keeps it up to date as tuples are inserted
+     * into and deleted from the table, and its pages can be found by its
+     * id through {@link #getDbFile}, but it is not listed as a table.
+     * @param index the index to add; index.getTableId() must be the id of
+     *    a table in the catalog
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     */
+    public void addIndex(IndexFile index) throws NoSuchElementException {
+        Table tmp = tableMap.get(index.getTableId());
+        if (tmp == null) {
+            throw new NoSuchElementException();
+        }
+        tmp.indexes.add(index);
+        indexMap.put(index.getId(), index);
+    }
+
+    /**
+     * Returns the indexes over fields of the specified table, in the order
+     * they were added.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public List<IndexFile> getIndexes(int tableid) throws NoSuchElementException {
+        Table tmp = tableMap.get(tableid);
+        if (tmp != null) {
+            return Collections.unmodifiableList(tmp.indexes);
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Adds a Bloom filter over a field of a table that is in the catalog.
+     * From then on, the BufferPool records the values of tuples inserted
+     * into the table in it, and scans and index lookups of the table for a
+     * value of the field consult it.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param bloom the filter to add
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void addBloomFilter(int tableid, BloomFilter bloom) throws NoSuchElementException {
+        Table tmp = tableMap.get(tableid);
+        if (tmp == null) {
+            throw new NoSuchElementException();
+        }
+        tmp.blooms.add(bloom);
+    }
+
+    /**
+     * Returns the Bloom filters over fields of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public List<BloomFilter> getBloomFilters(int tableid) throws NoSuchElementException {
+        Table tmp = tableMap.get(tableid);
+        if (tmp != null) {
+            return Collections.unmodifiableList(tmp.blooms);
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Returns the Bloom filter over a field of the specified table, or null
+     * if it has none.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public BloomFilter getBloomFilter(int tableid, int field) throws NoSuchElementException {
+        for (BloomFilter bloom : getBloomFilters(tableid)) {
+            if (bloom.getField() == field) {
+                return bloom;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records that the file of the specified table is sorted on a field,
+     * see {@link Cluster}.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param field the index of the field, or -1 if the file is not sorted
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setSortField(int tableid, int field) throws NoSuchElementException {
+        Table tmp = tableMap.get(tableid);
+        if (tmp == null) {
+            throw new NoSuchElementException();
+        }
+        tmp.sortField = field;
+    }
+
+    /**
+     * Returns the field the file of the specified table is sorted on, or -1
+     * if it is not known to be sorted.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getSortField(int tableid) throws NoSuchElementException {
+        Table tmp = tableMap.get(tableid);
+        if (tmp != null) {
+            return tmp.sortField;
         } else {
             throw new NoSuchElementException();
         }
@@ -119,6 +248,16 @@ public class Catalog {
         }
     }
 
+    /**
+     * Returns the size in bytes of the pages of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDbFile(tableid).getPageSize();
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return tableMap.keySet().iterator();
     }
@@ -136,10 +275,50 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         tableMap.clear();
+        indexMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line of the file describes one table, in the format
+     * <pre>
+     *     name (field type [pk] [dict] [index] [hash] [include] [bloom], ...) [option=value ...]
+     * </pre>
+     * A string field annotated with dict is dictionary-encoded: its values
+     * are stored as codes into a {@link StringDictionary} kept next to the
+     * table's file. This only applies to tables with fixed pages in heap,
+     * mapped or compressed storage.
+     * A field annotated with index gets a {@link BTreeFile} index, stored
+     * next to the table's file (see {@link BTreeFile#indexFileFor}) and
+     * built from the table if that file does not exist yet. A field
+     * annotated with hash likewise gets a {@link HashFile} index, which only
+     * serves equality lookups. Indexes cannot be used with column storage.
+     * The fields annotated with include are included in every B+ tree
+     * index of the table, so that queries reading only them and the key
+     * are answered from the index (see {@link BTreeFile#indexFileFor(File,
+     * int, int[])}).
+     * A field annotated with bloom gets a {@link BloomFilter}, stored next
+     * to the table's file and rebuilt whenever {@link TableStats} are
+     * computed for the table, which lets equality lookups of absent values
+     * skip the table.
+     * The table is stored in name.dat, in the same folder as the catalog file.
+     * The optional trailing options describe how the table is stored:
+     * <ul>
+     * <li>storage=heap (the default) reads pages through a {@link HeapFile}
+     * <li>storage=mapped reads pages through a {@link MappedHeapFile}
+     * <li>storage=compressed stores pages deflated in a
+     * {@link CompressedHeapFile}; name.dat must have been written by
+     * {@link CompressedHeapFile#convert}
+     * <li>storage=column stores each column in its own file through a
+     * {@link ColumnFile}, see {@link HeapFileEncoder#convertColumns};
+     * only pagesize applies to it
+     * <li>format=fixed (the default) lays pages out as {@link HeapPage}s
+     * <li>format=slotted lays pages out as {@link SlottedPage}s, with
+     * variable-length records
+     * <li>pagesize=N uses pages of N bytes instead of
+     * {@link BufferPool#PAGE_SIZE}; the file must have been written with
+     * the same page size
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -157,6 +336,11 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> dictFields = new ArrayList<Integer>();
+                ArrayList<Integer> indexFields = new ArrayList<Integer>();
+                ArrayList<Integer> hashFields = new ArrayList<Integer>();
+                ArrayList<Integer> includeFields = new ArrayList<Integer>();
+                ArrayList<Integer> bloomFields = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -168,20 +352,126 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int k = 2; k < els2.length; k++) {
+                        if (els2[k].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[k].trim().equals("dict")
+                                && types.get(types.size() - 1) == Type.STRING_TYPE)
+                            dictFields.add(names.size() - 1);
+                        else if (els2[k].trim().equals("index"))
+                            indexFields.add(names.size() - 1);
+                        else if (els2[k].trim().equals("hash"))
+                            hashFields.add(names.size() - 1);
+                        else if (els2[k].trim().equals("include"))
+                            includeFields.add(names.size() - 1);
+                        else if (els2[k].trim().equals("bloom"))
+                            bloomFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[k]);
                             System.exit(0);
                         }
                     }
                 }
+                String storage = "heap";
+                String format = "fixed";
+                int pageSize = BufferPool.PAGE_SIZE;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String opt : options.split("\\s+")) {
+                    if (opt.isEmpty())
+                        continue;
+                    String[] kv = opt.split("=");
+                    if (kv.length == 2 && kv[0].trim().toLowerCase().equals("storage"))
+                        storage = kv[1].trim().toLowerCase();
+                    else if (kv.length == 2 && kv[0].trim().toLowerCase().equals("format"))
+                        format = kv[1].trim().toLowerCase();
+                    else if (kv.length == 2 && kv[0].trim().toLowerCase().equals("pagesize")) {
+                        try {
+                            pageSize = Integer.parseInt(kv[1].trim());
+                        } catch (NumberFormatException e) {
+                            pageSize = -1;
+                        }
+                        // a page must at least hold one tuple and its header bit
+                        int tupleSize = 0;
+                        for (Type type : types)
+                            tupleSize += type.getLen();
+                        if (pageSize < tupleSize + 1) {
+                            System.out.println("Invalid page size " + kv[1]);
+                            System.exit(0);
+                        }
+                    }
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                HeapFile.PageFormat pageFormat = null;
+                if (format.equals("fixed"))
+                    pageFormat = HeapFile.PageFormat.FIXED;
+                else if (format.equals("slotted"))
+                    pageFormat = HeapFile.PageFormat.SLOTTED;
+                else {
+                    System.out.println("Unknown page format " + format);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                StringDictionary[] dictAr = new StringDictionary[typeAr.length];
+                for (int i : dictFields)
+                    dictAr[i] = new StringDictionary(StringDictionary.sidecarFor(tabFile, i));
+                if (!dictFields.isEmpty() && (storage.equals("column") || pageFormat != HeapFile.PageFormat.FIXED)) {
+                    System.out.println("Dictionary-encoded fields need fixed pages in heap storage");
+                    System.exit(0);
+                }
+                TupleDesc t = new TupleDesc(typeAr, namesAr, dictAr);
+                DbFile tabHf = null;
+                if (storage.equals("heap"))
+                    tabHf = new HeapFile(tabFile, t, pageFormat, pageSize);
+                else if (storage.equals("mapped"))
+                    tabHf = new MappedHeapFile(tabFile, t, pageFormat, pageSize);
+                else if (storage.equals("compressed"))
+                    tabHf = new CompressedHeapFile(tabFile, t, pageFormat, pageSize);
+                else if (storage.equals("column")) {
+                    if (pageFormat != HeapFile.PageFormat.FIXED) {
+                        System.out.println("Page format " + format + " is not supported by column storage");
+                        System.exit(0);
+                    }
+                    tabHf = new ColumnFile(tabFile, t, pageSize);
+                }
+                else {
+                    System.out.println("Unknown storage type " + storage);
+                    System.exit(0);
+                }
+                if ((!indexFields.isEmpty() || !hashFields.isEmpty()) && !(tabHf instanceof HeapFile)) {
+                    System.out.println("Indexes need heap, mapped or compressed storage");
+                    System.exit(0);
+                }
                 addTable(tabHf,name,primaryKey);
+                for (int i : indexFields) {
+                    ArrayList<Integer> included = new ArrayList<Integer>(includeFields);
+                    included.remove(Integer.valueOf(i));
+                    int[] includedAr = new int[included.size()];
+                    Type[] includedTypes = new Type[included.size()];
+                    for (int j = 0; j < includedAr.length; j++) {
+                        includedAr[j] = included.get(j);
+                        includedTypes[j] = typeAr[includedAr[j]];
+                    }
+                    File indexFile = BTreeFile.indexFileFor(tabFile, i, includedAr);
+                    BTreeFile index = new BTreeFile(indexFile, tabHf.getId(), i, typeAr[i],
+                            includedAr, includedTypes);
+                    if (!indexFile.exists())
+                        index.build((HeapFile) tabHf);
+                    addIndex(index);
+                }
+                for (int i : hashFields) {
+                    File indexFile = HashFile.indexFileFor(tabFile, i);
+                    HashFile index = new HashFile(indexFile, tabHf.getId(), i, typeAr[i]);
+                    if (!indexFile.exists())
+                        index.build((HeapFile) tabHf);
+                    addIndex(index);
+                }
+                for (int i : bloomFields)
+                    addBloomFilter(tabHf.getId(), new BloomFilter(tabFile, i));
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
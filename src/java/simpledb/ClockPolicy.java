@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * ClockPolicy is the CLOCK (second chance) replacement policy: each frame
+ * has a slot on a clock and a reference bit, which a hit sets, so a hit
+ * writes nothing but that bit. To make room, the clock hand sweeps the
+ * slots, clearing set bits, and evicts the first page it may whose bit is
+ * clear. A page read in starts with its bit clear, so a page used only
+ * once is replaced before one used again since it was read.
+ */
+class ClockPolicy implements ReplacementPolicy {
+    /** the frames on the clock, by slot; free slots are null */
+    private final ArrayList<BufferPool.Frame> slots = new ArrayList<BufferPool.Frame>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+    /** the next slot the clock hand looks at */
+    private int hand;
+
+    public void admit(BufferPool.Frame f) {
+        if (freeSlots.isEmpty()) {
+            f.slot = slots.size();
+            slots.add(f);
+        } else {
+            f.slot = freeSlots.pop();
+            slots.set(f.slot, f);
+        }
+    }
+
+    public void hit(BufferPool.Frame f) {
+        // only write the bit if it changes, keeping the frame's cache line
+        // shared between readers
+        if (!f.referenced) {
+            f.referenced = true;
+        }
+    }
+
+    public void remove(BufferPool.Frame f) {
+        slots.set(f.slot, null);
+        freeSlots.push(f.slot);
+    }
+
+    public BufferPool.Frame victim(BufferPool pool) {
+        int n = slots.size();
+        // after one turn every bit is clear, so a second one finds a page
+        // if any may be evicted
+        for (int i = 0; i < 2 * n; i++) {
+            BufferPool.Frame f = slots.get(hand);
+            hand = (hand + 1) % n;
+            if (f == null || !pool.evictable(f)) {
+                continue;
+            }
+            if (f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            return f;
+        }
+        return null;
+    }
+}
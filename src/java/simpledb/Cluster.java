@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Cluster physically reorders the file of a table by one of its fields, so
+ * that queries filtering on that field can find the matching tuples by
+ * binary search over the pages instead of scanning the whole table (see
+ * {@link ClusteredScan}). This suits tables that are loaded once and
+ * queried many times.
+ * <p>
+ * The sort order is recorded in the {@link Catalog}, and in a sidecar file
+ * next to the data file (see {@link #sidecarFor}) from which
+ * {@link Catalog#loadSchema} restores it. Deletes keep the order, but an
+ * insert may go to any free slot, so the first insert into a sorted table
+ * forgets the order, deleting the sidecar file before the tuple can reach
+ * disk; the table has to be clustered again to get it back.
+ */
+public class Cluster {
+
+    /**
+     * Returns the file recording the sort order of the given data file.
+     */
+    public static File sidecarFor(File dataFile) {
+        return new File(dataFile.getPath() + ".sorted");
+    }
+
+    /**
+     * Returns the field the given data file was sorted on by
+     * {@link #cluster}, or -1 if it was not, or has been changed since.
+     */
+    public static int sortFieldOf(File dataFile) {
+        File file = sidecarFor(dataFile);
+        if (!file.exists()) {
+            return -1;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new FileInputStream(file));
+            try {
+                int field = dis.readInt();
+                long length = dis.readLong();
+                return length == dataFile.length() ? field : -1;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // an unknown order only costs a scan
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Rewrites the file of a table with its tuples sorted on a field, and
+     * records the order. The rewrite runs in a transaction of its own that
+     * write-locks every page of the table, so it waits for the transactions
+     * using the table and keeps new ones out until it is done. Indexes of
+     * the table are rebuilt, as every tuple gets a new record id.
+     *
+     * @param tableid the table to sort
+     * @param field the index of the field to sort on
+     * @return false if the table's file cannot be rewritten, e.g. a
+     *         {@link CompressedHeapFile}, or grew meanwhile
+     */
+    public static boolean cluster(int tableid, final int field)
+            throws IOException, DbException, TransactionAbortedException {
+        Catalog catalog = Database.getCatalog();
+        DbFile dbf = catalog.getDbFile(tableid);
+        if (!(dbf instanceof HeapFile)) {
+            return false;
+        }
+        HeapFile f = (HeapFile) dbf;
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        try {
+            int n = f.numPages();
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (int i=0; i<n; i++) {
+                HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(tableid, i), Permissions.READ_WRITE);
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    tuples.add(it.next());
+                }
+            }
+            // a stable sort, so tuples with equal keys keep their order
+            Collections.sort(tuples, new Comparator<Tuple>() {
+                public int compare(Tuple a, Tuple b) {
+                    Field x = a.getField(field);
+                    Field y = b.getField(field);
+                    if (x.compare(Predicate.Op.LESS_THAN, y)) {
+                        return -1;
+                    }
+                    return x.compare(Predicate.Op.GREATER_THAN, y) ? 1 : 0;
+                }
+            });
+
+            forget(tableid);
+            // the pages are rewritten behind the buffer pool's back
+            for (int i=0; i<n; i++) {
+                bp.discardPage(new HeapPageId(tableid, i));
+            }
+            // indexes left over from the old record ids must not survive a
+            // crash
+            for (int i=0; i<f.getTupleDesc().numFields(); i++) {
+                BTreeFile.indexFileFor(f.getFile(), i).delete();
+                HashFile.indexFileFor(f.getFile(), i).delete();
+            }
+            for (IndexFile index : catalog.getIndexes(tableid)) {
+                if (index instanceof BTreeFile) {
+                    // named after the fields it includes
+                    ((BTreeFile) index).getFile().delete();
+                }
+            }
+            boolean rewritten = f.rewrite(n, tuples);
+            for (IndexFile index : catalog.getIndexes(tableid)) {
+                index.build(f);
+            }
+            if (rewritten) {
+                save(f.getFile(), field);
+                catalog.setSortField(tableid, field);
+            }
+            return rewritten;
+        } finally {
+            bp.transactionComplete(tid);
+        }
+    }
+
+    private static void save(File dataFile, int field) throws IOException {
+        File file = sidecarFor(dataFile);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream dos = new DataOutputStream(fos);
+        try {
+            dos.writeInt(field);
+            dos.writeLong(dataFile.length());
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forgets that a table is sorted, e.g. because a tuple was inserted into
+     * it. Must be called before the change can reach disk.
+     */
+    public static void forget(int tableid) {
+        Catalog catalog = Database.getCatalog();
+        if (catalog.getSortField(tableid) < 0) {
+            return;
+        }
+        catalog.setSortField(tableid, -1);
+        DbFile dbf = catalog.getDbFile(tableid);
+        if (dbf instanceof HeapFile) {
+            sidecarFor(((HeapFile) dbf).getFile()).delete();
+        }
+    }
+}
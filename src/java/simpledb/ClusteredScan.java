@@ -0,0 +1,285 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClusteredScan is an access method that reads the tuples of a table
+ * sorted on a field (see {@link Cluster}) which satisfy predicates over
+ * that field. It finds the first page that can hold a matching tuple by
+ * binary search over the pages, reading about log2 of them, then reads the
+ * following pages in order until it passes the largest value the
+ * predicates allow. Empty pages left by deletes are stepped over, which
+ * only costs reading them.
+ * <p>
+ * If the table is not sorted on the field when the scan is opened, e.g.
+ * because a tuple was inserted since the plan was made, the scan reads the
+ * whole table and filters it. The order is checked again each time the
+ * scan locks a page, since another transaction may insert into a page the
+ * scan has not reached yet and commit; from then on, the scan reads the
+ * rest of the table and only filters it.
+ */
+public class ClusteredScan implements DbIterator {
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int field;
+    private final List<Predicate> preds;
+    private boolean sorted;
+    private int numPages;
+    private int startPage;
+    /** the bounds the predicates put on the field, or null if there is none */
+    private Field lower;
+    private boolean lowerInclusive;
+    private Field upper;
+    private boolean upperInclusive;
+    private int pgNo;
+    private Iterator<Tuple> pageIt;
+    private Tuple next;
+    private boolean done;
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a scan over the tuples of the specified table that satisfy
+     * the given predicates, as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see {@link SeqScan#SeqScan}
+     * @param field
+     *            the field the table is sorted on
+     * @param preds
+     *            predicates over that field, all of which the returned
+     *            tuples satisfy
+     */
+    public ClusteredScan(TransactionId tid, int tableid, String tableAlias, int field, List<Predicate> preds) {
+        for (Predicate p : preds) {
+            if (p.getField() != field) {
+                throw new IllegalArgumentException("predicate " + p + " is not over field " + field);
+            }
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.field = field;
+        this.preds = new ArrayList<Predicate>(preds);
+    }
+
+    /**
+     * @return true if a predicate with the given operator bounds the range
+     *         of pages a scan reads
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the field the table is sorted on
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the predicates over the sort field
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(preds);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        numPages = ((HeapFile) Database.getCatalog().getDbFile(tableid)).numPages();
+        sorted = Database.getCatalog().getSortField(tableid) == field;
+        lower = null;
+        upper = null;
+        for (Predicate p : preds) {
+            Field v = p.getOperand();
+            switch (p.getOp()) {
+            case EQUALS:
+                narrowLower(v, true);
+                narrowUpper(v, true);
+                break;
+            case GREATER_THAN:
+                narrowLower(v, false);
+                break;
+            case GREATER_THAN_OR_EQ:
+                narrowLower(v, true);
+                break;
+            case LESS_THAN:
+                narrowUpper(v, false);
+                break;
+            case LESS_THAN_OR_EQ:
+                narrowUpper(v, true);
+                break;
+            default:
+                // only filtered
+            }
+        }
+        startPage = sorted ? firstPage() : 0;
+        rewind();
+    }
+
+    private void narrowLower(Field v, boolean inclusive) {
+        if (lower == null || v.compare(Predicate.Op.GREATER_THAN, lower)) {
+            lower = v;
+            lowerInclusive = inclusive;
+        } else if (v.compare(Predicate.Op.EQUALS, lower)) {
+            lowerInclusive &= inclusive;
+        }
+    }
+
+    private void narrowUpper(Field v, boolean inclusive) {
+        if (upper == null || v.compare(Predicate.Op.LESS_THAN, upper)) {
+            upper = v;
+            upperInclusive = inclusive;
+        } else if (v.compare(Predicate.Op.EQUALS, upper)) {
+            upperInclusive &= inclusive;
+        }
+    }
+
+    private boolean belowRange(Field key) {
+        return lower != null && key.compare(lowerInclusive ? Predicate.Op.LESS_THAN
+                : Predicate.Op.LESS_THAN_OR_EQ, lower);
+    }
+
+    private boolean aboveRange(Field key) {
+        return upper != null && key.compare(upperInclusive ? Predicate.Op.GREATER_THAN
+                : Predicate.Op.GREATER_THAN_OR_EQ, upper);
+    }
+
+    private HeapPage page(int n) throws DbException, TransactionAbortedException {
+        return (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableid, n), Permissions.READ_ONLY);
+    }
+
+    /**
+     * @return the largest key on a page, or null if it is empty
+     */
+    private Field lastKey(int n) throws DbException, TransactionAbortedException {
+        HeapPage p = page(n);
+        for (int slot=p.getNumSlots() - 1; slot>=0; slot--) {
+            if (p.isSlotUsed(slot)) {
+                return p.getField(slot, field);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first page that can hold a tuple within the lower bound
+     */
+    private int firstPage() throws DbException, TransactionAbortedException {
+        if (lower == null) {
+            return 0;
+        }
+        // the pages before lo only hold keys below the range, and page hi
+        // holds one that is not, if it exists
+        int lo = 0;
+        int hi = numPages;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int q = mid;
+            Field last = lastKey(q);
+            while (last == null && q > lo) {
+                last = lastKey(--q);
+            }
+            if (last == null || belowRange(last)) {
+                lo = mid + 1;
+            } else {
+                hi = q;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * tableAlias string from the constructor, as for a {@link SeqScan}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc oldtd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[oldtd.numFields()];
+        String[] names = new String[oldtd.numFields()];
+        for (int i=0; i<oldtd.numFields(); i++) {
+            types[i] = oldtd.getFieldType(i);
+            names[i] = tableAlias + "." + oldtd.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : preds) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        while (next == null && !done) {
+            if (pageIt != null && pageIt.hasNext()) {
+                Tuple t = pageIt.next();
+                if (sorted && aboveRange(t.getField(field))) {
+                    done = true;
+                } else if (matches(t)) {
+                    next = t;
+                }
+            } else if (pgNo < numPages) {
+                HeapPage p = page(pgNo++);
+                // an insert forgets the order while it holds the lock on
+                // its page, so the order of a page just locked is known
+                if (sorted && Database.getCatalog().getSortField(tableid) != field) {
+                    sorted = false;
+                }
+                pageIt = p.iterator();
+            } else {
+                done = true;
+            }
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        pageIt = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // pages before the first one may hold matches once the order is gone
+        pgNo = sorted ? startPage : 0;
+        pageIt = null;
+        next = null;
+        done = false;
+    }
+}
@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table separately, so that scans which reference only a few columns of a
+ * wide table read only the pages of those columns.
+ * <p>
+ * Column i is stored in its own file (see {@link #columnFileFor}) as a
+ * sequence of {@link ColumnPage}s. Rows are numbered from 0 and row r of
+ * column i lives in slot r % n of page r / n of that column, where n is
+ * the number of values of the column's type that fit on a page. Every
+ * column page keeps its own bitmap of live rows; inserts and deletes
+ * update the page of every column.
+ * <p>
+ * New rows are appended after the last row; the slots of deleted rows are
+ * not reused.
+ *
+ * @see ColumnPage
+ * @see ColumnFileIterator
+ */
+public class ColumnFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int pageSize;
+    private transient FileChannel[] channels;
+    private transient int nextRow = -1;
+
+    /**
+     * Constructs a column file whose columns are stored next to the
+     * specified file.
+     *
+     * @param f
+     *            the file whose name the column files are derived from
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a column file whose columns are stored next to the
+     * specified file in pages of the specified size.
+     *
+     * @param f
+     *            the file whose name the column files are derived from
+     * @param pageSize
+     *            the size of each column page in bytes
+     */
+    public ColumnFile(File f, TupleDesc td, int pageSize) {
+        this.f = f;
+        this.td = td;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the file holding the given column of a table stored in
+     * dataFile.
+     */
+    public static File columnFileFor(File dataFile, int column) {
+        return new File(dataFile.getPath() + ".col" + column);
+    }
+
+    /**
+     * Returns the file whose name the column files are derived from.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns the size in bytes of the pages of this file.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, computed the same
+     * way as for a {@link HeapFile}.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of values of the given column per page.
+     */
+    public int rowsPerPage(int column) {
+        return ColumnPage.getNumSlots(td.getFieldType(column), pageSize);
+    }
+
+    /**
+     * Returns the id of the page holding the given row of the given column.
+     */
+    public ColumnPageId pageIdFor(int column, int row) {
+        return new ColumnPageId(getId(), column, row / rowsPerPage(column));
+    }
+
+    private synchronized FileChannel getChannel(int column) throws IOException {
+        if (channels == null) {
+            channels = new FileChannel[td.numFields()];
+        }
+        if (channels[column] == null || !channels[column].isOpen()) {
+            channels[column] = new RandomAccessFile(columnFileFor(f, column), "rw").getChannel();
+        }
+        return channels[column];
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            ColumnPageId cpid = (ColumnPageId) pid;
+            FileChannel ch = getChannel(cpid.getColumn());
+            ByteBuffer buf = ByteBuffer.allocate(pageSize);
+            long offset = (long) cpid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    // reading past the end of the file yields an empty page
+                    break;
+                }
+            }
+            return new ColumnPage(cpid, td.getFieldType(cpid.getColumn()), buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        FileChannel ch = getChannel(cpid.getColumn());
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) cpid.pageNumber() * pageSize;
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Forces all pages written by {@link #writePage} to the storage device.
+     */
+    public synchronized void sync() throws IOException {
+        if (channels == null) {
+            return;
+        }
+        for (FileChannel ch : channels) {
+            if (ch != null && ch.isOpen()) {
+                ch.force(false);
+            }
+        }
+    }
+
+    /**
+     * Closes the channels backing this file. They will be transparently
+     * reopened by the next read or write.
+     */
+    public synchronized void close() throws IOException {
+        if (channels == null) {
+            return;
+        }
+        for (int i=0; i<channels.length; i++) {
+            if (channels[i] != null) {
+                channels[i].close();
+                channels[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pages in the given column.
+     */
+    public int numPages(int column) {
+        return (int) (columnFileFor(f, column).length() / pageSize);
+    }
+
+    /**
+     * Returns the total number of pages of all columns, i.e. the number of
+     * pages a scan of every column reads.
+     */
+    public int numPages() {
+        int n = 0;
+        for (int i=0; i<td.numFields(); i++) {
+            n += numPages(i);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of row slots in this file, live or deleted,
+     * including rows inserted by transactions that have not committed yet.
+     */
+    public synchronized int numRows() {
+        if (nextRow < 0) {
+            // rows end after the last used slot on the last page of column 0
+            nextRow = 0;
+            int n = numPages(0);
+            if (n > 0) {
+                ColumnPage last = (ColumnPage) readPage(new ColumnPageId(getId(), 0, n - 1));
+                for (int i=last.getNumSlots()-1; i>=0; i--) {
+                    if (last.isSlotUsed(i)) {
+                        nextRow = (n - 1) * last.getNumSlots() + i + 1;
+                        break;
+                    }
+                }
+                if (nextRow == 0) {
+                    nextRow = (n - 1) * last.getNumSlots();
+                }
+            }
+        }
+        return nextRow;
+    }
+
+    private synchronized int allocateRow() {
+        numRows();
+        return nextRow++;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tuple does not match the schema of the table");
+        }
+        int row = allocateRow();
+        ArrayList<Page> res = new ArrayList<Page>();
+        for (int i=0; i<td.numFields(); i++) {
+            ColumnPageId pid = pageIdFor(i, row);
+            ColumnPage p = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            p.setValue(row % rowsPerPage(i), t.getField(i));
+            res.add(p);
+        }
+        t.setRecordId(new RecordId(pageIdFor(0, row), row % rowsPerPage(0)));
+        return res;
+    }
+
+    /**
+     * Removes the tuple from the page of every column. The pages of the
+     * columns other than the first are marked dirty here; the page of the
+     * first column is returned for the caller to mark.
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        int row = rid.getPageId().pageNumber() * rowsPerPage(0) + rid.tupleno();
+        Page first = null;
+        for (int i=0; i<td.numFields(); i++) {
+            ColumnPageId pid = pageIdFor(i, row);
+            ColumnPage p = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            p.clearValue(row % rowsPerPage(i));
+            if (i == 0) {
+                first = p;
+            } else {
+                p.markDirty(true, tid);
+            }
+        }
+        return first;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new ColumnFileIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads only the
+     * given columns. The returned tuples have the full TupleDesc of the
+     * table, but only the requested fields are set; the others are null.
+     *
+     * @param columns the indexes of the columns to read, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, Collection<Integer> columns) {
+        return new ColumnFileIterator(tid, this, columns);
+    }
+}
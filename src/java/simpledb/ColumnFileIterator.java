@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnFileIterator is an implementation of a DbFileIterator that iterates
+ * through the rows of a ColumnFile, reading only the pages of the columns it
+ * was asked for. Fields of the returned tuples that belong to other columns
+ * are left null.
+ */
+public class ColumnFileIterator implements DbFileIterator {
+    private final TransactionId tid;
+    private final ColumnFile f;
+    private final int[] columns;
+    private final int[] rowsPerPage;
+    private ColumnPage[] pages;
+    private int row;
+    private int end;
+    private Tuple next;
+
+    /**
+     *
+     * @param tid The transaction performing the scan
+     * @param f the column file iterated
+     * @param columns the indexes of the columns to read, or null (or empty)
+     *                for all of them
+     */
+    public ColumnFileIterator(TransactionId tid, ColumnFile f, Collection<Integer> columns) {
+        this.tid = tid;
+        this.f = f;
+        int n = f.getTupleDesc().numFields();
+        if (columns == null || columns.isEmpty()) {
+            this.columns = new int[n];
+            for (int i=0; i<n; i++) {
+                this.columns[i] = i;
+            }
+        } else {
+            this.columns = new int[columns.size()];
+            int i = 0;
+            for (int c : columns) {
+                if (c < 0 || c >= n) {
+                    throw new IllegalArgumentException("no column " + c);
+                }
+                this.columns[i++] = c;
+            }
+        }
+        this.rowsPerPage = new int[this.columns.length];
+        for (int i=0; i<this.columns.length; i++) {
+            rowsPerPage[i] = f.rowsPerPage(this.columns[i]);
+        }
+    }
+
+    /**
+     * Returns the page of the k-th scanned column holding the current row,
+     * fetching it from the buffer pool if the row is on a new page.
+     */
+    private ColumnPage pageFor(int k) throws TransactionAbortedException, DbException {
+        int pgNo = row / rowsPerPage[k];
+        if (pages[k] == null || pages[k].getId().pageNumber() != pgNo) {
+            PageId pid = new ColumnPageId(f.getId(), columns[k], pgNo);
+            pages[k] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        return pages[k];
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        pages = new ColumnPage[columns.length];
+        row = 0;
+        end = f.numRows();
+        next = null;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (pages == null) {
+            return false;
+        }
+        while (next == null && row < end) {
+            // every column page records which rows are live, so the first
+            // scanned column is enough to skip deleted rows
+            if (pageFor(0).isSlotUsed(row % rowsPerPage[0])) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                for (int k=0; k<columns.length; k++) {
+                    t.setField(columns[k], pageFor(k).getValue(row % rowsPerPage[k]));
+                }
+                t.setRecordId(new RecordId(f.pageIdFor(0, row), row % f.rowsPerPage(0)));
+                next = t;
+            }
+            row++;
+        }
+        return next != null;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more tuples");
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void close() {
+        pages = null;
+        next = null;
+    }
+}
@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Each instance of ColumnPage stores the values of a single column for a
+ * range of consecutive rows of a {@link ColumnFile}.
+ * <p>
+ * The layout mirrors that of a {@link HeapPage} whose tuples have a single
+ * field: a header bitmap of the slots in use followed by the fixed-size
+ * values. Every column page records which of its rows are live, so a scan
+ * can find the live rows from whichever columns it reads.
+ *
+ * @see ColumnFile
+ * @see BufferPool
+ */
+public class ColumnPage implements Page {
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final int numSlots;
+    private final byte[] header;
+    /** values set or decoded so far, null for slots not yet read */
+    private final Field[] values;
+
+    /** the page as read from disk; never modified */
+    private final ByteBuffer data;
+
+    /** the before image of this page; null if it is the page as read */
+    private byte[] oldData;
+    private TransactionId tid;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * type of the values is that of the page's column in the catalog's
+     * TupleDesc for the table.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn()), data);
+    }
+
+    ColumnPage(ColumnPageId id, Type type, byte[] data) {
+        this.pid = id;
+        this.type = type;
+        this.data = ByteBuffer.wrap(data);
+        this.numSlots = getNumSlots(type, data.length);
+        this.header = new byte[headerSize(numSlots)];
+        System.arraycopy(data, 0, header, 0, header.length);
+        this.values = new Field[numSlots];
+        this.oldData = data;
+    }
+
+    /**
+     * @return the number of values of the given type that fit on a page of
+     *         pageSize bytes, accounting for one header bit per value
+     */
+    public static int getNumSlots(Type type, int pageSize) {
+        return (pageSize * 8) / (type.getLen() * 8 + 1);
+    }
+
+    private static int headerSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /**
+     * @return the number of values this page can hold
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns true if the given slot holds a value of a live row.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((header[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            header[i / 8] |= (1 << (i % 8));
+        } else {
+            header[i / 8] &= ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * Returns the value in the given slot, decoding it from the page data
+     * if it has not been read yet.
+     *
+     * @throws java.util.NoSuchElementException if the slot is empty
+     */
+    public Field getValue(int slot) {
+        if (!isSlotUsed(slot)) {
+            throw new java.util.NoSuchElementException("slot " + slot + " is empty");
+        }
+        Field f = values[slot];
+        if (f == null) {
+            f = type.parse(data, header.length + slot * type.getLen());
+            values[slot] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Stores a value in the given slot and marks it used.
+     *
+     * @throws DbException if the slot is in use or the value has the wrong type
+     */
+    public void setValue(int slot, Field f) throws DbException {
+        if (isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " is already used");
+        }
+        if (f == null || f.getType() != type) {
+            throw new DbException("value does not match the column type " + type);
+        }
+        values[slot] = f;
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Clears the given slot.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    public void clearValue(int slot) throws DbException {
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " is already empty");
+        }
+        values[slot] = null;
+        markSlotUsed(slot, false);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format read by {@link #ColumnPage(ColumnPageId, byte[])}.
+     */
+    public byte[] getPageData() {
+        byte[] out = new byte[data.limit()];
+        System.arraycopy(header, 0, out, 0, header.length);
+        ByteBuffer src = data.duplicate();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            int offset = header.length + i * type.getLen();
+            if (values[i] == null) {
+                // never decoded: copy it as is
+                src.position(offset);
+                src.get(out, offset, type.getLen());
+                continue;
+            }
+            baos.reset();
+            try {
+                values[i].serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, out, offset, type.getLen());
+        }
+        return out;
+    }
+
+    /**
+     * Generates the data of a page holding the given values in its first
+     * slots. Used by {@link HeapFileEncoder} to write column files.
+     */
+    public static byte[] createPageData(Type type, List<Field> fields, int pageSize) throws IOException {
+        if (fields.size() > getNumSlots(type, pageSize)) {
+            throw new IOException("too many values for one column page");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] header = new byte[headerSize(getNumSlots(type, pageSize))];
+        for (int i=0; i<fields.size(); i++) {
+            header[i / 8] |= (1 << (i % 8));
+        }
+        dos.write(header);
+        for (Field f : fields) {
+            f.serialize(dos);
+        }
+        dos.write(new byte[pageSize - dos.size()]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the size of this page in bytes
+     */
+    public int getPageSize() {
+        return data.limit();
+    }
+
+    // see Page.java for javadocs
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            this.tid = tid;
+        } else {
+            this.tid = null;
+        }
+    }
+
+    // see Page.java for javadocs
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    // see Page.java for javadocs
+    public ColumnPage getBeforeImage() {
+        return new ColumnPage(pid, type, oldData);
+    }
+
+    // see Page.java for javadocs
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
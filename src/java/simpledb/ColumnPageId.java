@@ -0,0 +1,78 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects. */
+public class ColumnPageId implements PageId {
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of one
+     * column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The index of the column in the table's TupleDesc
+     * @param pgNo The page number within that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table this page stores */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column getColumn() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, combining the table, column and
+     *   page numbers
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., table ids, columns and
+     *   page numbers are the same)
+     */
+    public boolean equals(Object o) {
+        if (o instanceof ColumnPageId) {
+            ColumnPageId tmp = (ColumnPageId) o;
+            return tableId == tmp.tableId && column == tmp.column && pgNo == tmp.pgNo;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,520 @@
+package simpledb;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored deflated on disk.
+ * Pages are compressed with zlib when they are written and inflated again
+ * when the BufferPool reads them, so scans of tables with highly redundant
+ * pages (such as the zero-padded strings of fixed-size slots) read only a
+ * fraction of the bytes a plain HeapFile would.
+ * <p>
+ * Since compressed pages have different sizes, the data file is a sequence
+ * of compressed pages in no particular order, and a page-offset index
+ * records where the current version of each page starts and how long it
+ * is. The index lives in a sidecar file (see {@link #indexFileFor}) and is
+ * replaced atomically by {@link #sync}, after the data it points to has
+ * been forced to disk.
+ * <p>
+ * A rewritten page is never written over the version the index on disk
+ * points at, so that index never points at partially written data. Once
+ * {@link #sync} has saved an index, the space of the versions it no longer
+ * points at is free: later writes go to the first free extent they fit in,
+ * and free space at the end of the data file is cut off. When more than
+ * half of the file is free, sync also moves the last pages into the free
+ * space before them, so the file stays within about twice the size of its
+ * live pages however often they are rewritten.
+ * <p>
+ * Use {@link #convert} to build a compressed table from a file written by
+ * {@link HeapFileEncoder}.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** zlib level used for pages; favours fast reads and writes */
+    public static final int COMPRESSION_LEVEL = JZlib.Z_BEST_SPEED;
+
+    private final File indexFile;
+    private transient long[] offsets;
+    private transient int[] lengths;
+    private transient int numPages = -1;
+    private transient long end;
+    private transient boolean indexDirty;
+    /** the extents no index points at, by offset */
+    private transient TreeMap<Long, Integer> free;
+    /** the extents being written, which no index points at yet */
+    private transient TreeMap<Long, Integer> writing;
+    /** counts the times free was recomputed, so readers can tell */
+    private transient long reclaims;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the compressed pages of this heap file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified file whose
+     * pages, once decompressed, use the specified layout and size.
+     *
+     * @param f
+     *            the file that stores the compressed pages of this heap file.
+     * @param format
+     *            the layout of the pages in f
+     * @param pageSize
+     *            the size of each uncompressed page in bytes
+     */
+    public CompressedHeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
+        super(f, td, format, pageSize);
+        this.indexFile = indexFileFor(f);
+    }
+
+    /**
+     * Returns the file holding the page-offset index of the given data file.
+     */
+    public static File indexFileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".idx");
+    }
+
+    /**
+     * Loads the page-offset index on first use. A data file without an
+     * index is only accepted if it is empty.
+     */
+    private synchronized void loadIndex() throws IOException {
+        if (numPages >= 0) {
+            return;
+        }
+        offsets = new long[16];
+        lengths = new int[16];
+        numPages = 0;
+        end = getFile().length();
+        free = new TreeMap<Long, Integer>();
+        writing = new TreeMap<Long, Integer>();
+        if (!indexFile.exists()) {
+            if (end > 0) {
+                throw new IOException("missing page index " + indexFile);
+            }
+            return;
+        }
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            int n = dis.readInt();
+            offsets = new long[Math.max(n, 16)];
+            lengths = new int[Math.max(n, 16)];
+            for (int i=0; i<n; i++) {
+                offsets[i] = dis.readLong();
+                lengths[i] = dis.readInt();
+                if (offsets[i] + lengths[i] > end) {
+                    throw new IOException("page index " + indexFile + " points past the end of the file");
+                }
+            }
+            numPages = n;
+        } finally {
+            dis.close();
+        }
+        // the space of the versions written after the index was saved is
+        // free again
+        reclaimSpace();
+    }
+
+    private synchronized void saveIndex() throws IOException {
+        if (!indexDirty) {
+            return;
+        }
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            dos.writeInt(numPages);
+            for (int i=0; i<numPages; i++) {
+                dos.writeLong(offsets[i]);
+                dos.writeInt(lengths[i]);
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexDirty = false;
+        reclaimSpace();
+    }
+
+    /**
+     * Frees every extent of the data file that neither the index, which
+     * must be the one on disk, nor a write in progress points at, and cuts
+     * the free space at the end off the file.
+     */
+    private synchronized void reclaimSpace() throws IOException {
+        TreeMap<Long, Integer> used = new TreeMap<Long, Integer>(writing);
+        for (int i=0; i<numPages; i++) {
+            used.put(offsets[i], lengths[i]);
+        }
+        free.clear();
+        long pos = 0;
+        for (Map.Entry<Long, Integer> e : used.entrySet()) {
+            if (e.getKey() > pos) {
+                free.put(pos, (int) (e.getKey() - pos));
+            }
+            pos = Math.max(pos, e.getKey() + e.getValue());
+        }
+        if (pos < end) {
+            getChannel().truncate(pos);
+            end = pos;
+        }
+        reclaims++;
+    }
+
+    /**
+     * Takes len bytes from the first free extent they fit in, if it ends at
+     * or before the given offset.
+     *
+     * @return the offset of the space, or -1 if no such extent is free
+     */
+    private synchronized long takeFree(int len, long before) {
+        for (Map.Entry<Long, Integer> e : free.entrySet()) {
+            long offset = e.getKey();
+            if (offset + len > before) {
+                break;
+            }
+            if (e.getValue() >= len) {
+                free.remove(offset);
+                if (e.getValue() > len) {
+                    free.put(offset + len, e.getValue() - len);
+                }
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the pages at the end of the data file into free extents before
+     * them, if more of the file is free than is used, so that the next
+     * {@link #saveIndex} can cut the file short. The compressed pages are
+     * copied as they are; the index on disk still points at the old
+     * copies until then.
+     *
+     * @return true if a page was moved
+     */
+    private synchronized boolean compact() throws IOException {
+        long live = 0;
+        for (int i=0; i<numPages; i++) {
+            live += lengths[i];
+        }
+        if (end - live <= live) {
+            return false;
+        }
+        Integer[] pages = new Integer[numPages];
+        for (int i=0; i<numPages; i++) {
+            pages[i] = i;
+        }
+        // the last pages first
+        Arrays.sort(pages, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(offsets[b], offsets[a]);
+            }
+        });
+        FileChannel ch = getChannel();
+        boolean moved = false;
+        for (int pgNo : pages) {
+            long to = takeFree(lengths[pgNo], offsets[pgNo]);
+            if (to < 0) {
+                continue;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(lengths[pgNo]);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offsets[pgNo] + buf.position()) < 0) {
+                    throw new IOException("compressed page " + pgNo + " is truncated");
+                }
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf, to + buf.position());
+            }
+            offsets[pgNo] = to;
+            moved = true;
+        }
+        indexDirty |= moved;
+        return moved;
+    }
+
+    /**
+     * Compresses len bytes of data with zlib.
+     */
+    static byte[] deflate(byte[] data, int len) throws IOException {
+        ZStream z = new ZStream();
+        if (z.deflateInit(COMPRESSION_LEVEL) != JZlib.Z_OK) {
+            throw new IOException("deflateInit failed: " + z.msg);
+        }
+        // zlib's worst case expansion is well below 1% plus a few bytes
+        byte[] out = new byte[len + len / 100 + 64];
+        z.next_in = data;
+        z.next_in_index = 0;
+        z.avail_in = len;
+        z.next_out = out;
+        z.next_out_index = 0;
+        z.avail_out = out.length;
+        int err = z.deflate(JZlib.Z_FINISH);
+        z.deflateEnd();
+        if (err != JZlib.Z_STREAM_END) {
+            throw new IOException("deflate failed: " + err);
+        }
+        return Arrays.copyOf(out, (int) z.total_out);
+    }
+
+    /**
+     * Decompresses data into a new array of exactly outLen bytes.
+     */
+    static byte[] inflate(byte[] data, int outLen) throws IOException {
+        ZStream z = new ZStream();
+        if (z.inflateInit() != JZlib.Z_OK) {
+            throw new IOException("inflateInit failed: " + z.msg);
+        }
+        byte[] out = new byte[outLen];
+        z.next_in = data;
+        z.next_in_index = 0;
+        z.avail_in = data.length;
+        z.next_out = out;
+        z.next_out_index = 0;
+        z.avail_out = outLen;
+        int err;
+        do {
+            err = z.inflate(JZlib.Z_NO_FLUSH);
+        } while (err == JZlib.Z_OK);
+        z.inflateEnd();
+        if (err != JZlib.Z_STREAM_END || z.total_out != outLen) {
+            throw new IOException("corrupt compressed page: " + err);
+        }
+        return out;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        try {
+            while (true) {
+                long offset;
+                int len;
+                long reclaimed;
+                synchronized (this) {
+                    loadIndex();
+                    if (pid.pageNumber() >= numPages) {
+                        offset = -1;
+                        len = 0;
+                    } else {
+                        offset = offsets[pid.pageNumber()];
+                        len = lengths[pid.pageNumber()];
+                    }
+                    reclaimed = reclaims;
+                }
+                if (offset < 0) {
+                    // a page that is not in the file yet is empty
+                    return newPage((HeapPageId) pid, ByteBuffer.wrap(new byte[getPageSize()]));
+                }
+                ByteBuffer buf = ByteBuffer.allocate(len);
+                FileChannel ch = getChannel();
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, offset + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                synchronized (this) {
+                    // the version read may have been freed meanwhile and
+                    // its space taken by another page
+                    if (reclaims != reclaimed) {
+                        continue;
+                    }
+                }
+                if (buf.hasRemaining()) {
+                    throw new IOException("compressed page " + pid + " is truncated");
+                }
+                byte[] page = inflate(buf.array(), getPageSize());
+                return newPage((HeapPageId) pid, ByteBuffer.wrap(page));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        byte[] data = deflate(page.getPageData(), getPageSize());
+        saveDictionaries();
+        int pgNo = page.getId().pageNumber();
+        long offset;
+        synchronized (this) {
+            loadIndex();
+            if (pgNo > numPages) {
+                throw new IOException("cannot write page " + pgNo + " past the end of a " + numPages + " page file");
+            }
+            offset = takeFree(data.length, end);
+            if (offset < 0) {
+                offset = end;
+                end += data.length;
+            }
+            writing.put(offset, data.length);
+        }
+        FileChannel ch = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        ZoneMap zones = getZoneMap();
+        zones.beginWrite();
+        try {
+            while (buf.hasRemaining()) {
+                ch.write(buf, offset + buf.position());
+            }
+        } finally {
+            zones.pageWritten((HeapPage) page);
+        }
+        synchronized (this) {
+            writing.remove(offset);
+            if (pgNo == numPages) {
+                if (numPages == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, numPages * 2);
+                    lengths = Arrays.copyOf(lengths, numPages * 2);
+                }
+                numPages++;
+            }
+            offsets[pgNo] = offset;
+            lengths[pgNo] = data.length;
+            indexDirty = true;
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file, according to its index.
+     */
+    @Override
+    public synchronized int numPages() {
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IllegalStateException(e);
+        }
+        return numPages;
+    }
+
+    /**
+     * Appends an empty page to this file. Compressed pages are appended to
+     * the data file as they are written, so there is no space to preallocate;
+     * the empty page is written right away so that it is in the index.
+     */
+    @Override
+    protected synchronized int allocatePage() throws IOException {
+        int pgNo = numPages();
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        writePage(newPage(pid, ByteBuffer.wrap(new byte[getPageSize()])));
+        return pgNo;
+    }
+
+    /**
+     * Drops the pages at and after newNumPages from the index. The pages are
+     * not stored in page number order, so their space is only freed, like
+     * that of any old page version, once {@link #sync} has saved the index.
+     */
+    @Override
+    protected synchronized boolean truncate(int expectedNumPages, int newNumPages) throws IOException {
+        loadIndex();
+        if (numPages != expectedNumPages || newNumPages >= numPages) {
+            return false;
+        }
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        for (int i=newNumPages; i<numPages; i++) {
+            fsm.setFreeSlots(i, FreeSpaceMap.UNKNOWN);
+        }
+        getZoneMap().truncate(newNumPages);
+        numPages = newNumPages;
+        indexDirty = true;
+        return true;
+    }
+
+    /**
+     * Compressed files are not rewritten in place, as their pages are laid
+     * out by {@link #convert}; convert a sorted heap file instead.
+     */
+    @Override
+    protected boolean rewrite(int expectedNumPages, List<Tuple> tuples) {
+        return false;
+    }
+
+    /**
+     * Forces the compressed pages to disk, then replaces the page-offset
+     * index with one that points at them. If most of the data file is then
+     * free, the last pages are moved into the free space and forced and
+     * indexed in the same way.
+     */
+    @Override
+    protected synchronized void syncData() throws IOException {
+        super.syncData();
+        saveIndex();
+        if (compact()) {
+            super.syncData();
+            saveIndex();
+        }
+    }
+
+    // see HeapFile.java for javadocs
+    @Override
+    public synchronized void close() throws IOException {
+        if (indexDirty) {
+            sync();
+        }
+        super.close();
+    }
+
+    /**
+     * Converts a file of uncompressed pages, as written by
+     * {@link HeapFileEncoder}, into a compressed heap file and its index.
+     *
+     * @param inFile the uncompressed heap file
+     * @param outFile the compressed data file to write
+     * @param pageSize the size of the pages in inFile
+     * @throws IOException if either file cannot be read or written
+     */
+    public static void convert(File inFile, File outFile, int pageSize) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile));
+        DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFileFor(outFile))));
+        try {
+            int n = (int) (inFile.length() / pageSize);
+            byte[] page = new byte[pageSize];
+            long offset = 0;
+            index.writeInt(n);
+            for (int i=0; i<n; i++) {
+                in.readFully(page);
+                byte[] data = deflate(page, pageSize);
+                out.write(data);
+                index.writeLong(offset);
+                index.writeInt(data.length);
+                offset += data.length;
+            }
+        } finally {
+            in.close();
+            out.close();
+            index.close();
+        }
+    }
+}
@@ -54,6 +54,24 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, BufferPool.Replacement replacement) {
+        _instance._bufferpool = new BufferPool(pages, replacement);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy, keeping pages off
+        heap if offHeap is set, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, BufferPool.Replacement replacement,
+                                             boolean offHeap) {
+        _instance._bufferpool = new BufferPool(pages, replacement, offHeap);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
     	_instance = new Database();
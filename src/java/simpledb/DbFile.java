@@ -28,6 +28,16 @@ public interface DbFile extends Serializable {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Forces all pages written by {@link #writePage} to the storage device.
+     * Writes need not be synchronous on their own, so callers that need
+     * durability (e.g. a committing transaction) must call this once after
+     * writing out their pages.
+     *
+     * @throws IOException if the file cannot be forced
+     */
+    public void sync() throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -84,4 +94,11 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile.
+     * @return the page size of this DbFile, {@link BufferPool#PAGE_SIZE}
+     *     unless it was created with another
+     */
+    public int getPageSize();
 }
@@ -0,0 +1,80 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded column. It carries the code
+ * of its value, so that tests for equality against other values of the
+ * same {@link StringDictionary} compare two ints instead of two strings.
+ * Against any other StringField it behaves like a plain StringField.
+ */
+public class DictStringField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	private final StringDictionary dict;
+	private final int code;
+
+	/**
+	 * Constructor; instances are created by the dictionary itself.
+	 *
+	 * @param dict
+	 *            The dictionary the value belongs to
+	 * @param code
+	 *            The code of the value in dict
+	 * @param s
+	 *            The value of this field
+	 */
+	DictStringField(StringDictionary dict, int code, String s) {
+		super(s, Type.STRING_LEN);
+		this.dict = dict;
+		this.code = code;
+	}
+
+	/**
+	 * @return the code of this value in its dictionary
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * @return the dictionary this value belongs to
+	 */
+	public StringDictionary getDictionary() {
+		return dict;
+	}
+
+	private boolean sameDictionary(Object field) {
+		return field instanceof DictStringField && ((DictStringField) field).dict == dict;
+	}
+
+	/**
+	 * Compares by code against values of the same dictionary. The hash code
+	 * stays that of the string, so that this equals a StringField with the
+	 * same value and hashes alike; the string is shared by all fields of a
+	 * code, so its hash is only computed once.
+	 */
+	public boolean equals(Object field) {
+		if (sameDictionary(field)) {
+			return ((DictStringField) field).code == code;
+		}
+		return super.equals(field);
+	}
+
+	/**
+	 * Compare the specified field to the value of this Field, by code if
+	 * both are equality tests on values of the same dictionary.
+	 *
+	 * @see StringField#compare
+	 */
+	public boolean compare(Predicate.Op op, Field val) {
+		if (sameDictionary(val)) {
+			if (op == Predicate.Op.EQUALS) {
+				return ((DictStringField) val).code == code;
+			}
+			if (op == Predicate.Op.NOT_EQUALS) {
+				return ((DictStringField) val).code != code;
+			}
+		}
+		return super.compare(op, val);
+	}
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records the number of free tuple slots on each page of a
+ * HeapFile, so that inserts can go straight to a page with room instead of
+ * locking and reading every page of the file in turn.
+ * <p>
+ * The counts are hints: they are updated whenever a transaction inserts
+ * into or deletes from a page, but a caller must still check the page
+ * itself once it holds a lock on it. Pages the map knows nothing about
+ * (e.g. pages written before the map existed) are reported as
+ * {@link #UNKNOWN} and treated as possible candidates.
+ * <p>
+ * The map is kept in a sidecar file next to the table's data file
+ * (see {@link #sidecarFor}), which is rewritten by {@link #save} only if
+ * a count changed since it was last loaded or saved.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** free slot count of a page that has not been recorded yet */
+    public static final int UNKNOWN = -1;
+
+    private final File file;
+    private int[] free;
+    private boolean dirty;
+
+    /**
+     * Returns the file holding the free-space map of the given data file.
+     */
+    public static File sidecarFor(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Opens the free-space map stored in the specified file. If the file
+     * does not exist or cannot be read, the map starts out empty, i.e.
+     * every page is {@link #UNKNOWN}.
+     *
+     * @param file the sidecar file storing the map
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+        this.free = new int[0];
+        if (file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                // the map is only a hint; rebuild it as pages are used
+                e.printStackTrace();
+                this.free = new int[0];
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int n = dis.readInt();
+            if (n < 0 || (long) n * 4 + 4 != file.length()) {
+                throw new IOException("corrupt free-space map " + file);
+            }
+            int[] counts = new int[n];
+            for (int i=0; i<n; i++) {
+                counts[i] = dis.readInt();
+            }
+            this.free = counts;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Returns the recorded number of free slots on the given page, or
+     * {@link #UNKNOWN} if the page has not been recorded.
+     */
+    public synchronized int getFreeSlots(int pgNo) {
+        if (pgNo < free.length) {
+            return free[pgNo];
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Records the number of free slots on the given page.
+     */
+    public synchronized void setFreeSlots(int pgNo, int count) {
+        if (pgNo >= free.length) {
+            int oldLen = free.length;
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, oldLen * 2));
+            Arrays.fill(free, oldLen, free.length, UNKNOWN);
+        }
+        if (free[pgNo] != count) {
+            free[pgNo] = count;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Finds a page that may have room for another tuple.
+     *
+     * @param numPages the number of pages currently in the file
+     * @param from the first page number to consider
+     * @return the lowest page number in [from, numPages) that is recorded as
+     *         having free slots, or failing that the lowest one that is
+     *         {@link #UNKNOWN}, or -1 if every page is known to be full
+     */
+    public synchronized int findPage(int numPages, int from) {
+        int unknown = -1;
+        for (int i=from; i<numPages; i++) {
+            int n = i < free.length ? free[i] : UNKNOWN;
+            if (n > 0) {
+                return i;
+            }
+            if (n == UNKNOWN && unknown < 0) {
+                unknown = i;
+            }
+        }
+        return unknown;
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        // trailing unknown entries carry no information
+        int n = free.length;
+        while (n > 0 && free[n-1] == UNKNOWN) {
+            n--;
+        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(n);
+            for (int i=0; i<n; i++) {
+                dos.writeInt(free[i]);
+            }
+        } finally {
+            dos.close();
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Each instance of HashBucketPage stores one page of a bucket of a
+ * {@link HashFile}: the entries whose key hashes to the bucket, in no
+ * particular order. An entry is a key together with the record id of the
+ * indexed tuple. A bucket whose entries do not fit on one page continues
+ * on a chain of overflow pages.
+ * <p>
+ * The format of a page is a header of {@link #HEADER_SIZE} bytes, holding
+ * the local depth of the bucket as a byte, the number of entries as an
+ * int, and the page number of the next overflow page as an int (0 if there
+ * is none, since page 0 is the directory), followed by the entries. Each
+ * entry takes the length of the key type plus two ints for the page and
+ * slot of the record id. A page of zeros is an empty bucket.
+ *
+ * @see HashDirectoryPage
+ */
+public class HashBucketPage implements Page {
+
+    /** Bytes at the start of each page before the entries. */
+    public static final int HEADER_SIZE = 9;
+
+    private final HashPageId pid;
+    private final Type keyType;
+    private final int pageSize;
+
+    private int localDepth;
+    private int numEntries;
+    private int next;
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+
+    /** the before image of this page */
+    private byte[] oldData;
+    private TransactionId tid;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The type of the keys is that of the index's key field, which is
+     * looked up in the catalog.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this(id, ((HashFile) Database.getCatalog().getDbFile(id.getTableId())).getKeyType(), data);
+    }
+
+    HashBucketPage(HashPageId id, Type keyType, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.pageSize = data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.localDepth = buf.get(0);
+        this.numEntries = buf.getInt(1);
+        this.next = buf.getInt(5);
+        int capacity = maxEntries(keyType, pageSize);
+        if (localDepth < 0 || numEntries < 0 || numEntries > capacity) {
+            throw new IOException("corrupt hash bucket " + id);
+        }
+        this.keys = new Field[capacity];
+        this.pages = new int[capacity];
+        this.slots = new int[capacity];
+        int offset = HEADER_SIZE;
+        for (int i=0; i<numEntries; i++) {
+            keys[i] = keyType.parse(buf, offset);
+            pages[i] = buf.getInt(offset + keyType.getLen());
+            slots[i] = buf.getInt(offset + keyType.getLen() + 4);
+            offset += keyType.getLen() + 8;
+        }
+        this.oldData = data;
+    }
+
+    /**
+     * @return the number of entries that fit on a page of pageSize bytes
+     */
+    public static int maxEntries(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the size of this page in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of low bits of the hash that all keys of this
+     *         bucket share
+     */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public boolean isFull() {
+        return numEntries >= keys.length;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the page number of the record id of the ith entry
+     */
+    public int getPageNo(int i) {
+        return pages[i];
+    }
+
+    /**
+     * @return the slot of the record id of the ith entry
+     */
+    public int getSlot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * @return the page number of the next overflow page of this bucket, or
+     *         0 if this is the last one
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the position of the given entry on this page, or -1 if it is
+     *         not on this page
+     */
+    public int findEntry(Field key, int page, int slot) {
+        for (int i=0; i<numEntries; i++) {
+            if (pages[i] == page && slots[i] == slot && keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an entry to this page, which must not be full.
+     */
+    void addEntry(Field key, int page, int slot) {
+        if (isFull()) {
+            throw new IllegalStateException("hash bucket " + pid + " is full");
+        }
+        keys[numEntries] = key;
+        pages[numEntries] = page;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /**
+     * Removes the ith entry, moving the last entry into its place.
+     */
+    void deleteEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        pages[i] = pages[numEntries];
+        slots[i] = slots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /**
+     * Removes every entry of this page.
+     */
+    void clear() {
+        Arrays.fill(keys, null);
+        numEntries = 0;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format read by {@link #HashBucketPage(HashPageId, byte[])}.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(localDepth);
+            dos.writeInt(numEntries);
+            dos.writeInt(next);
+            for (int i=0; i<numEntries; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(pages[i]);
+                dos.writeInt(slots[i]);
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    // see Page.java for javadocs
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    // see Page.java for javadocs
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    // see Page.java for javadocs
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, keyType, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // see Page.java for javadocs
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
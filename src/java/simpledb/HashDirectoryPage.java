@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashDirectoryPage is the first page of a {@link HashFile}. It maps the
+ * low bits of the hash of a key to the page number of the bucket holding
+ * the entries with that key.
+ * <p>
+ * The format of the page is the global depth of the directory as an int,
+ * followed by 2^depth ints, the page numbers of the buckets. Several
+ * directory slots point to the same bucket if the bucket's local depth is
+ * less than the global depth. A bucket page number of 0 means that no
+ * bucket has been allocated yet, which is only the case for the single
+ * slot of a new, empty index. A page of zeros is such an index.
+ *
+ * @see HashBucketPage
+ */
+public class HashDirectoryPage implements Page {
+
+    private final HashPageId pid;
+    private final int pageSize;
+
+    private int globalDepth;
+    private int[] buckets;
+
+    /** the before image of this page */
+    private byte[] oldData;
+    private TransactionId tid;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.pageSize = data.length;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.globalDepth = buf.getInt(0);
+        if (globalDepth < 0 || globalDepth > maxDepth(pageSize)) {
+            throw new IOException("corrupt hash directory " + id);
+        }
+        this.buckets = new int[1 << globalDepth];
+        for (int i=0; i<buckets.length; i++) {
+            buckets[i] = buf.getInt(4 + 4 * i);
+        }
+        this.oldData = data;
+    }
+
+    /**
+     * @return the largest global depth whose directory fits on a page of
+     *         pageSize bytes
+     */
+    public static int maxDepth(int pageSize) {
+        int slots = (pageSize - 4) / 4;
+        return 31 - Integer.numberOfLeadingZeros(slots);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the size of this page in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of low bits of the hash of a key that select its
+     *         directory slot
+     */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /**
+     * @return true if the directory cannot be doubled on this page
+     */
+    public boolean isFull() {
+        return globalDepth >= maxDepth(pageSize);
+    }
+
+    /**
+     * @return the page number of the bucket for the given hash, or 0 if
+     *         there is no bucket yet
+     */
+    public int getBucket(int hash) {
+        return buckets[hash & (buckets.length - 1)];
+    }
+
+    /**
+     * @return the number of slots of the directory, 2^depth
+     */
+    public int getNumSlots() {
+        return buckets.length;
+    }
+
+    /**
+     * @return the page number of the bucket in the ith slot
+     */
+    public int getSlot(int i) {
+        return buckets[i];
+    }
+
+    void setSlot(int i, int bucket) {
+        buckets[i] = bucket;
+    }
+
+    /**
+     * Doubles the directory: the slots of the new upper half point to the
+     * same buckets as the corresponding slots of the lower half.
+     */
+    void grow() {
+        if (isFull()) {
+            throw new IllegalStateException("hash directory " + pid + " is full");
+        }
+        int[] grown = new int[buckets.length * 2];
+        System.arraycopy(buckets, 0, grown, 0, buckets.length);
+        System.arraycopy(buckets, 0, grown, buckets.length, buckets.length);
+        buckets = grown;
+        globalDepth++;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format read by {@link #HashDirectoryPage(HashPageId, byte[])}.
+     */
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.putInt(globalDepth);
+        for (int b : buckets) {
+            buf.putInt(b);
+        }
+        return buf.array();
+    }
+
+    // see Page.java for javadocs
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    // see Page.java for javadocs
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    // see Page.java for javadocs
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // see Page.java for javadocs
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
@@ -0,0 +1,609 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash index over one field of a heap table. It
+ * only answers equality lookups, but does so by reading two pages whatever
+ * the size of the index: the directory, and the bucket the key hashes to.
+ * <p>
+ * Page 0 is the {@link HashDirectoryPage}, which maps the low bits of the
+ * hash of a key to a bucket. The other pages are {@link HashBucketPage}s.
+ * When a bucket is full, only that bucket is split: its entries are
+ * divided between it and a new bucket by one more bit of their hash, and
+ * the directory is doubled first if the bucket already used as many bits
+ * as the directory. Nothing is ever rehashed as a whole. A bucket whose
+ * entries mostly have the hash of the new entry, e.g. because they have
+ * the same key, would not gain room for it by splitting, and no bucket
+ * can split any more once the directory fills its page; such a bucket
+ * grows a chain of overflow pages instead. Deleted
+ * entries are removed from their page, but buckets are never merged.
+ * <p>
+ * Lookups and deletes lock the directory shared, lock the bucket, and
+ * release the directory again unless the transaction held it before.
+ * Inserts do the same as long as the bucket has room; otherwise the insert
+ * starts over with the directory locked exclusively, which it holds until
+ * the transaction completes, like any page it modified.
+ * <p>
+ * See {@link IndexFile} for the tuples of the file and how it is kept up
+ * to date.
+ *
+ * @see IndexScan
+ * @see Catalog#addIndex
+ */
+public class HashFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Percentage of each bucket that {@link #build} fills on average. */
+    public static final int BUILD_FILL_PERCENT = 75;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final int pageSize;
+    private final TupleDesc td;
+    private transient FileChannel channel;
+    private transient int numPages = -1;
+
+    /**
+     * Constructs a hash index stored in the specified file.
+     *
+     * @param f
+     *            the file that stores the index
+     * @param tableId
+     *            the id of the indexed table
+     * @param keyField
+     *            the index of the indexed field in the table's TupleDesc
+     * @param keyType
+     *            the type of the indexed field
+     */
+    public HashFile(File f, int tableId, int keyField, Type keyType) {
+        this(f, tableId, keyField, keyType, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a hash index stored in the specified file in pages of the
+     * specified size.
+     *
+     * @param pageSize
+     *            the size of each page of the index in bytes
+     */
+    public HashFile(File f, int tableId, int keyField, Type keyType, int pageSize) {
+        this.f = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        this.pageSize = pageSize;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /**
+     * Returns the file holding the hash index of the given field of a table
+     * stored in dataFile.
+     */
+    public static File indexFileFor(File dataFile, int field) {
+        return new File(dataFile.getPath() + ".hash" + field);
+    }
+
+    /**
+     * Returns the File backing this index on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, computed the same
+     * way as for a {@link HeapFile}.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return keyField;
+    }
+
+    // see IndexFile.java for javadocs
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns no fields: the entries of a hash index only hold the key.
+     */
+    public int[] getIncludedFields() {
+        return new int[0];
+    }
+
+    // see IndexFile.java for javadocs
+    public int entriesPerPage() {
+        return HashBucketPage.maxEntries(keyType, pageSize);
+    }
+
+    // see IndexFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns true for equality predicates only.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Returns 2, for the directory and the bucket.
+     */
+    public int lookupCost() {
+        return 2;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index: the key, and the
+     * page and slot of the record id.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the hash of a key, whose low bits select its directory slot.
+     * Field hash codes are often poorly distributed in their low bits, e.g.
+     * those of consecutive ints, so they are mixed first.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    HashPageId directoryId() {
+        return new HashPageId(getId(), 0);
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(pageSize);
+            long offset = (long) pid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    // reading past the end of the file yields an empty page
+                    break;
+                }
+            }
+            if (pid.pageNumber() == 0) {
+                return new HashDirectoryPage((HashPageId) pid, buf.array());
+            }
+            return new HashBucketPage((HashPageId) pid, keyType, buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        FileChannel ch = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) page.getId().pageNumber() * pageSize;
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    // see IndexFile.java for javadocs
+    public synchronized void sync() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the channel backing this file. The file will be transparently
+     * reopened by the next read or write.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the number of pages in this index, including pages allocated
+     * by transactions that have not committed yet.
+     */
+    public synchronized int numPages() {
+        if (numPages < 0) {
+            // page 0 is the directory even before it is first written
+            numPages = Math.max(1, (int) (f.length() / pageSize));
+        }
+        return numPages;
+    }
+
+    /**
+     * Adds a bucket page to the end of this index and locks it on behalf of
+     * tid. The page is empty until the caller fills it; it reaches the disk
+     * when the transaction commits.
+     */
+    private HashBucketPage newBucket(TransactionId tid, int localDepth)
+            throws DbException, TransactionAbortedException {
+        int pgNo;
+        synchronized (this) {
+            numPages();
+            pgNo = numPages++;
+        }
+        HashBucketPage p = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(getId(), pgNo), Permissions.READ_WRITE);
+        p.setLocalDepth(localDepth);
+        return p;
+    }
+
+    private static boolean holds(TransactionId tid, PageId pid) {
+        return tid == null || Database.getBufferPool().holdsLock(tid, pid);
+    }
+
+    /**
+     * Returns the first page of the bucket the given key hashes to, or null
+     * if the index has no bucket yet. The directory is locked shared and
+     * released once the bucket is locked, unless the transaction held it
+     * before.
+     *
+     * @param perm the permissions to lock the bucket with
+     */
+    HashBucketPage findBucket(TransactionId tid, Field key, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HashPageId did = directoryId();
+        boolean held = holds(tid, did);
+        HashDirectoryPage dir = (HashDirectoryPage) bp.getPage(tid, did, Permissions.READ_ONLY);
+        int b = dir.getBucket(hash(key));
+        HashBucketPage p = b == 0 ? null : (HashBucketPage) bp.getPage(tid,
+                new HashPageId(getId(), b), perm);
+        if (!held) {
+            bp.releasePage(tid, did);
+        }
+        return p;
+    }
+
+    private void checkRecordId(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId) {
+            throw new DbException("tuple is not stored in the indexed table");
+        }
+    }
+
+    /**
+     * Adds the entry for a tuple of the indexed table, which must already
+     * have been stored in the table so that its record id is set.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        checkRecordId(t);
+        Field key = t.getField(keyField);
+        int page = t.getRecordId().getPageId().pageNumber();
+        int slot = t.getRecordId().tupleno();
+
+        BufferPool bp = Database.getBufferPool();
+        HashPageId did = directoryId();
+        boolean dirHeld = holds(tid, did);
+        HashDirectoryPage dir = (HashDirectoryPage) bp.getPage(tid, did, Permissions.READ_ONLY);
+        int b = dir.getBucket(hash(key));
+        while (b != 0) {
+            HashPageId pid = new HashPageId(getId(), b);
+            boolean held = holds(tid, pid);
+            HashBucketPage p = (HashBucketPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (!dirHeld) {
+                bp.releasePage(tid, did);
+                dirHeld = true;
+            }
+            if (!p.isFull()) {
+                p.addEntry(key, page, slot);
+                ArrayList<Page> res = new ArrayList<Page>();
+                res.add(p);
+                return res;
+            }
+            b = p.getNext();
+            if (!held) {
+                bp.releasePage(tid, pid);
+            }
+        }
+        return insertWithSplits(tid, key, page, slot);
+    }
+
+    private static void addPage(ArrayList<Page> pages, Page p) {
+        if (!pages.contains(p)) {
+            pages.add(p);
+        }
+    }
+
+    /**
+     * Returns the pages of the bucket starting at page b, locked with the
+     * given permissions.
+     */
+    private ArrayList<HashBucketPage> chain(TransactionId tid, int b, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        while (b != 0) {
+            HashBucketPage p = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                    new HashPageId(getId(), b), perm);
+            chain.add(p);
+            b = p.getNext();
+        }
+        return chain;
+    }
+
+    /**
+     * Inserts an entry whose bucket is full, with the directory locked
+     * exclusively. The bucket is split, as many times as it takes to make
+     * room for the entry, or grows an overflow page if it cannot be split.
+     */
+    private ArrayList<Page> insertWithSplits(TransactionId tid, Field key, int page, int slot)
+            throws DbException, TransactionAbortedException {
+        HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+                directoryId(), Permissions.READ_WRITE);
+        int h = hash(key);
+        ArrayList<Page> res = new ArrayList<Page>();
+        while (true) {
+            if (dir.getBucket(h) == 0) {
+                // a new index: give its only slot a bucket
+                dir.setSlot(0, newBucket(tid, 0).getId().pageNumber());
+                addPage(res, dir);
+            }
+            ArrayList<HashBucketPage> chain = chain(tid, dir.getBucket(h), Permissions.READ_WRITE);
+            for (HashBucketPage p : chain) {
+                if (!p.isFull()) {
+                    p.addEntry(key, page, slot);
+                    addPage(res, p);
+                    return res;
+                }
+            }
+            HashBucketPage head = chain.get(0);
+            int depth = head.getLocalDepth();
+            if ((depth == dir.getGlobalDepth() && dir.isFull()) || mostlyHash(chain, h)) {
+                // splitting would not make room for the entry
+                HashBucketPage last = chain.get(chain.size() - 1);
+                HashBucketPage p = newBucket(tid, depth);
+                last.setNext(p.getId().pageNumber());
+                p.addEntry(key, page, slot);
+                addPage(res, last);
+                addPage(res, p);
+                return res;
+            }
+            if (depth == dir.getGlobalDepth()) {
+                dir.grow();
+            }
+            split(tid, dir, chain, res);
+            addPage(res, dir);
+        }
+    }
+
+    /**
+     * @return true if at least half of the entries of the chain have the
+     *         given hash, and so would stay with any entry with that hash
+     *         however often the bucket is split
+     */
+    private static boolean mostlyHash(ArrayList<HashBucketPage> chain, int h) {
+        int same = 0;
+        int total = 0;
+        for (HashBucketPage p : chain) {
+            for (int i=0; i<p.getNumEntries(); i++) {
+                if (hash(p.getKey(i)) == h) {
+                    same++;
+                }
+                total++;
+            }
+        }
+        return same * 2 >= total;
+    }
+
+    /**
+     * Splits a bucket, whose local depth must be less than the global depth
+     * of the directory, by moving the entries with the next bit of their
+     * hash set to a new bucket. Overflow pages of the old bucket are reused
+     * for either bucket; any left over are unlinked and stay unused.
+     */
+    private void split(TransactionId tid, HashDirectoryPage dir, ArrayList<HashBucketPage> chain,
+            ArrayList<Page> res) throws DbException, TransactionAbortedException {
+        HashBucketPage head = chain.get(0);
+        int depth = head.getLocalDepth();
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        for (HashBucketPage p : chain) {
+            for (int i=0; i<p.getNumEntries(); i++) {
+                keys.add(p.getKey(i));
+                pages.add(p.getPageNo(i));
+                slots.add(p.getSlot(i));
+            }
+            p.clear();
+            p.setNext(0);
+            addPage(res, p);
+        }
+        head.setLocalDepth(depth + 1);
+        HashBucketPage image = newBucket(tid, depth + 1);
+        addPage(res, image);
+        LinkedList<HashBucketPage> spare = new LinkedList<HashBucketPage>(chain.subList(1, chain.size()));
+
+        ArrayList<HashBucketPage> stay = new ArrayList<HashBucketPage>();
+        stay.add(head);
+        ArrayList<HashBucketPage> move = new ArrayList<HashBucketPage>();
+        move.add(image);
+        for (int i=0; i<keys.size(); i++) {
+            ArrayList<HashBucketPage> target = ((hash(keys.get(i)) >>> depth) & 1) == 0 ? stay : move;
+            HashBucketPage last = target.get(target.size() - 1);
+            if (last.isFull()) {
+                HashBucketPage p = spare.isEmpty() ? newBucket(tid, depth + 1) : spare.removeFirst();
+                p.setLocalDepth(depth + 1);
+                last.setNext(p.getId().pageNumber());
+                addPage(res, p);
+                target.add(p);
+                last = p;
+            }
+            last.addEntry(keys.get(i), pages.get(i), slots.get(i));
+        }
+
+        int b = head.getId().pageNumber();
+        for (int i=0; i<dir.getNumSlots(); i++) {
+            if (dir.getSlot(i) == b && ((i >>> depth) & 1) == 1) {
+                dir.setSlot(i, image.getId().pageNumber());
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for a tuple of the indexed table.
+     *
+     * @return the page the entry was removed from
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        checkRecordId(t);
+        Field key = t.getField(keyField);
+        int page = t.getRecordId().getPageId().pageNumber();
+        int slot = t.getRecordId().tupleno();
+
+        BufferPool bp = Database.getBufferPool();
+        HashPageId did = directoryId();
+        boolean dirHeld = holds(tid, did);
+        HashDirectoryPage dir = (HashDirectoryPage) bp.getPage(tid, did, Permissions.READ_ONLY);
+        int b = dir.getBucket(hash(key));
+        while (b != 0) {
+            HashPageId pid = new HashPageId(getId(), b);
+            boolean held = holds(tid, pid);
+            HashBucketPage p = (HashBucketPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (!dirHeld) {
+                bp.releasePage(tid, did);
+                dirHeld = true;
+            }
+            int i = p.findEntry(key, page, slot);
+            if (i >= 0) {
+                p.deleteEntry(i);
+                return p;
+            }
+            b = p.getNext();
+            if (!held) {
+                bp.releasePage(tid, pid);
+            }
+        }
+        if (!dirHeld) {
+            bp.releasePage(tid, did);
+        }
+        throw new DbException("tuple is not in the index");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator over the entries of this index whose key satisfies
+     * the given predicate. An equality predicate reads a single bucket; any
+     * other predicate reads every bucket.
+     *
+     * @param ipred the predicate, or null for all entries
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashFileIterator(tid, this, ipred);
+    }
+
+    /**
+     * Replaces the content of this index with the entries of every tuple
+     * currently stored in the indexed table, see {@link IndexFile#build}.
+     * The directory is made deep enough for its buckets to be filled to
+     * {@link #BUILD_FILL_PERCENT} on average, and every bucket has that
+     * depth.
+     */
+    public synchronized void build(HeapFile table) throws IOException {
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        for (int pg=0; pg<table.numPages(); pg++) {
+            HeapPage hp = (HeapPage) table.readPage(new HeapPageId(table.getId(), pg));
+            for (int slot=0; slot<hp.getNumSlots(); slot++) {
+                if (hp.isSlotUsed(slot)) {
+                    keys.add(hp.getField(slot, keyField));
+                    pages.add(pg);
+                    slots.add(slot);
+                }
+            }
+        }
+
+        close();
+        if (!f.delete() && f.exists()) {
+            throw new IOException("cannot replace index " + f);
+        }
+        // drop any cached pages of the old index
+        for (int pg=0; pg<numPages(); pg++) {
+            Database.getBufferPool().discardPage(new HashPageId(getId(), pg));
+        }
+        int perBucket = Math.max(1, HashBucketPage.maxEntries(keyType, pageSize) * BUILD_FILL_PERCENT / 100);
+        int depth = 0;
+        while (depth < HashDirectoryPage.maxDepth(pageSize) && ((long) perBucket << depth) < keys.size()) {
+            depth++;
+        }
+        HashDirectoryPage dir = new HashDirectoryPage(directoryId(), new byte[pageSize]);
+        for (int i=0; i<depth; i++) {
+            dir.grow();
+        }
+        numPages = 1 + dir.getNumSlots();
+        // the last page of each bucket
+        HashBucketPage[] last = new HashBucketPage[dir.getNumSlots()];
+        for (int i=0; i<last.length; i++) {
+            dir.setSlot(i, i + 1);
+            last[i] = emptyBucket(i + 1);
+            last[i].setLocalDepth(depth);
+        }
+        for (int i=0; i<keys.size(); i++) {
+            int b = hash(keys.get(i)) & (last.length - 1);
+            if (last[b].isFull()) {
+                HashBucketPage p = emptyBucket(numPages++);
+                p.setLocalDepth(depth);
+                last[b].setNext(p.getId().pageNumber());
+                writePage(last[b]);
+                last[b] = p;
+            }
+            last[b].addEntry(keys.get(i), pages.get(i), slots.get(i));
+        }
+        for (HashBucketPage p : last) {
+            writePage(p);
+        }
+        writePage(dir);
+        sync();
+    }
+
+    private HashBucketPage emptyBucket(int pgNo) throws IOException {
+        return new HashBucketPage(new HashPageId(getId(), pgNo), keyType, new byte[pageSize]);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashFileIterator is an implementation of a DbFileIterator that iterates
+ * through the entries of a HashFile, in no particular order. For equality
+ * predicates it only reads the bucket the value hashes to; otherwise it
+ * reads every bucket, keeping the directory locked. The buckets it reads
+ * stay locked until the transaction completes.
+ */
+public class HashFileIterator implements DbFileIterator {
+    private final TransactionId tid;
+    private final HashFile f;
+    private final IndexPredicate ipred;
+    /** the first pages of the buckets still to read */
+    private LinkedList<Integer> buckets;
+    private HashBucketPage page;
+    private int pos;
+    private Tuple next;
+
+    /**
+     *
+     * @param tid The transaction performing the scan
+     * @param f the index iterated
+     * @param ipred the predicate the keys of the returned entries satisfy,
+     *              or null for all entries
+     */
+    public HashFileIterator(TransactionId tid, HashFile f, IndexPredicate ipred) {
+        this.tid = tid;
+        this.f = f;
+        this.ipred = ipred;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        buckets = new LinkedList<Integer>();
+        page = null;
+        pos = 0;
+        next = null;
+        if (ipred != null && ipred.getOp() == Predicate.Op.EQUALS) {
+            page = f.findBucket(tid, ipred.getField(), Permissions.READ_ONLY);
+            return;
+        }
+        HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+                f.directoryId(), Permissions.READ_ONLY);
+        LinkedHashSet<Integer> distinct = new LinkedHashSet<Integer>();
+        for (int i=0; i<dir.getNumSlots(); i++) {
+            if (dir.getSlot(i) != 0) {
+                distinct.add(dir.getSlot(i));
+            }
+        }
+        buckets.addAll(distinct);
+    }
+
+    private HashBucketPage getPage(int pgNo) throws DbException, TransactionAbortedException {
+        return (HashBucketPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (page == null || pos >= page.getNumEntries()) {
+                int pgNo = page != null && page.getNext() != 0 ? page.getNext()
+                        : buckets.isEmpty() ? 0 : buckets.removeFirst();
+                if (pgNo == 0) {
+                    page = null;
+                    return null;
+                }
+                page = getPage(pgNo);
+                pos = 0;
+                continue;
+            }
+            Field key = page.getKey(pos);
+            int i = pos++;
+            if (ipred == null || ipred.matches(key)) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                t.setField(0, key);
+                t.setField(1, new IntField(page.getPageNo(i)));
+                t.setField(2, new IntField(page.getSlot(i)));
+                return t;
+            }
+        }
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (next == null && buckets != null) {
+            next = fetchNext();
+        }
+        return next != null;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more entries");
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    // see DbFileIterator.java for javadocs
+    @Override
+    public void close() {
+        buckets = null;
+        page = null;
+        next = null;
+    }
+}
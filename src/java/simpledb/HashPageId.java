@@ -0,0 +1,69 @@
+package simpledb;
+
+/** Unique identifier for HashDirectoryPage and HashBucketPage objects. */
+public class HashPageId implements PageId {
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index.
+     *
+     * @param tableId The id of the {@link HashFile} that is being referenced
+     * @param pgNo The page number in that index.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the index associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the index getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, combining the index and page numbers
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., index ids and page
+     *   numbers are the same)
+     */
+    public boolean equals(Object o) {
+        if (o instanceof HashPageId) {
+            HashPageId tmp = (HashPageId) o;
+            return tableId == tmp.tableId && pgNo == tmp.pgNo;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
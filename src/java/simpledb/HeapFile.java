@@ -1,7 +1,10 @@
 package simpledb;
 
-import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
@@ -10,13 +13,52 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * All page I/O goes through a single long-lived FileChannel per file using
+ * positional reads and writes, so concurrent readers never contend on a
+ * shared file pointer. Writes are not forced to disk individually; see
+ * {@link #sync}.
+ * <p>
+ * The number of pages is kept in memory rather than derived from the
+ * length of the file. When an insert needs a new page, the file grows by a
+ * whole extent of {@link #EXTENT_SIZE} bytes of empty pages at once, so
+ * appends do not change the size of the file one page at a time. The page
+ * count and the allocated length are saved by {@link #sync} in a small
+ * metadata file next to the data file (see {@link #metaFileFor}); a file
+ * without valid metadata, such as one written by {@link HeapFileEncoder},
+ * has as many pages as fit in its length.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+
+    /** Number of bytes of empty pages the file grows by when it runs out of pages */
+    public static final int EXTENT_SIZE = 64 * 1024;
+
+    /**
+     * The ways the pages of a HeapFile can be laid out.
+     */
+    public enum PageFormat {
+        /** fixed-size slots behind a bitmap header, see {@link HeapPage} */
+        FIXED,
+        /** a slot directory and variable-length records, see {@link SlottedPage} */
+        SLOTTED
+    }
+
     private File f;
     private TupleDesc td;
+    private PageFormat format;
+    private int pageSize;
+    private transient FileChannel channel;
+    private transient volatile ThreadLocal<ByteBuffer> ioBuffer;
+    private transient FreeSpaceMap fsm;
+    private transient ZoneMap zones;
+    /** number of pages in the file, or -1 until the metadata is loaded */
+    private transient volatile int numPages = -1;
+    /** number of pages the file has room for on disk */
+    private transient int allocated;
+    private transient boolean metaDirty;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,8 +68,65 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages use
+     * the specified layout.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages in f
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages use
+     * the specified layout and size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages in f
+     * @param pageSize
+     *            the size of each page of f in bytes
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
         this.f = f;
         this.td = td;
+        this.format = format;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the layout of the pages of this file.
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the size in bytes of the pages of this file.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Builds the page object for the given page of this file from its bytes,
+     * according to the page format of the file.
+     */
+    protected HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        if (format == PageFormat.SLOTTED) {
+            return new SlottedPage(pid, data);
+        }
+        return new HeapPage(pid, data);
     }
 
     /**
@@ -61,19 +160,60 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Returns the channel used for all page I/O on this file, opening it on
+     * first use. The channel stays open for the lifetime of the HeapFile;
+     * positional reads and writes on a FileChannel are safe to issue from
+     * several threads at once.
+     */
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Returns this thread's page-sized I/O buffer, cleared and ready to be
+     * filled. The buffers are direct so that the channel can transfer into
+     * them without an intermediate copy.
+     */
+    private ByteBuffer getIoBuffer() {
+        if (ioBuffer == null) {
+            synchronized (this) {
+                if (ioBuffer == null) {
+                    ioBuffer = new ThreadLocal<ByteBuffer>() {
+                        @Override
+                        protected ByteBuffer initialValue() {
+                            return ByteBuffer.allocateDirect(pageSize);
+                        }
+                    };
+                }
+            }
+        }
+        ByteBuffer buf = ioBuffer.get();
+        buf.clear();
+        return buf;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         try {
-            RandomAccessFile rf = new RandomAccessFile(f, "r");
-            int offset = pid.pageNumber() * Database.getBufferPool().PAGE_SIZE;
-            byte[] b = new byte[Database.getBufferPool().PAGE_SIZE];
-            rf.seek(offset);
-            rf.read(b, 0, Database.getBufferPool().PAGE_SIZE);
-            rf.close();
+            FileChannel ch = getChannel();
+            ByteBuffer buf = getIoBuffer();
+            long offset = (long) pid.pageNumber() * pageSize;
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, offset + buf.position());
+                if (n < 0) {
+                    // reading past the end of the file yields an empty page
+                    break;
+                }
+            }
+            byte[] b = new byte[pageSize];
+            buf.flip();
+            buf.get(b, 0, buf.remaining());
             HeapPageId hpid = (HeapPageId) pid;
-            return new HeapPage(hpid, b);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            return newPage(hpid, ByteBuffer.wrap(b));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -82,19 +222,175 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
+        byte[] data = page.getPageData();
+        saveDictionaries();
+        FileChannel ch = getChannel();
+        ByteBuffer buf = getIoBuffer();
+        long offset = (long) page.getId().pageNumber() * pageSize;
+        buf.put(data, 0, pageSize);
+        buf.flip();
+        ZoneMap zones = getZoneMap();
+        zones.beginWrite();
         try {
-            RandomAccessFile rf = new RandomAccessFile(f, "rws");
-            PageId pid = page.getId();
-            int pos = pid.pageNumber() * Database.getBufferPool().PAGE_SIZE;
-            byte[] b = page.getPageData();
-            rf.seek(pos);
-            rf.write(b, 0, Database.getBufferPool().PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                ch.write(buf, offset + buf.position());
+            }
+        } finally {
+            zones.pageWritten((HeapPage) page);
+        }
+        pageWritten(page.getId().pageNumber());
+    }
 
-            rf.close();
+    /**
+     * Saves the dictionaries of the dictionary-encoded fields of this file.
+     * Serializing a page may add strings to them, so this must be called
+     * after a page's data is generated and before it is written, so that no
+     * page on disk refers to a code that is not.
+     *
+     * @see StringDictionary#save
+     */
+    protected void saveDictionaries() throws IOException {
+        for (int i=0; i<td.numFields(); i++) {
+            StringDictionary dict = td.getDictionary(i);
+            if (dict != null) {
+                dict.save();
+            }
         }
-        catch(IOException e)
-        {
-            e.printStackTrace();
+    }
+
+    /**
+     * Forces all pages written by {@link #writePage} to the storage device.
+     * Writes are not synchronous on their own, so callers that need
+     * durability (e.g. a committing transaction) must call this once after
+     * writing out their pages.
+     *
+     * @throws IOException if the underlying channel cannot be forced
+     */
+    public synchronized void sync() throws IOException {
+        long mark = zones != null ? zones.mark() : -1;
+        syncData();
+        if (fsm != null) {
+            fsm.save();
+        }
+        // the zone map may only describe pages that are on disk
+        if (zones != null) {
+            zones.save(mark);
+        }
+    }
+
+    /**
+     * Forces the pages written by {@link #writePage} to disk and saves the
+     * metadata needed to find them.
+     *
+     * @throws IOException if the underlying channel cannot be forced
+     */
+    protected synchronized void syncData() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+        }
+        saveMeta();
+    }
+
+    /**
+     * Closes the channel backing this file. The file will be transparently
+     * reopened by the next read or write.
+     */
+    public synchronized void close() throws IOException {
+        saveMeta();
+        if (fsm != null) {
+            fsm.save();
+        }
+        if (zones != null) {
+            zones.save(zones.mark());
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the file holding the page count of the given data file.
+     */
+    public static File metaFileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".meta");
+    }
+
+    /**
+     * Loads the page count on first use. The metadata file records the
+     * length of the data file it describes; if the data file has a
+     * different length (it was rewritten, or grew after the metadata was
+     * last saved), the metadata is ignored and every page that fits in the
+     * file counts.
+     */
+    private synchronized void loadMeta() {
+        if (numPages >= 0) {
+            return;
+        }
+        long length = f.length();
+        int n = (int) (length / pageSize);
+        allocated = n;
+        File meta = metaFileFor(f);
+        if (meta.exists()) {
+            try {
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+                try {
+                    int size = dis.readInt();
+                    int count = dis.readInt();
+                    long recorded = dis.readLong();
+                    if (size == pageSize && recorded == length && count >= 0 && count <= n) {
+                        n = count;
+                    }
+                } finally {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                // the page count can always be recovered from the file length
+                e.printStackTrace();
+            }
+        }
+        numPages = n;
+    }
+
+    /**
+     * Replaces the metadata file if the page count or the allocated length
+     * of the file changed. Must be called after the pages it counts have
+     * been forced to disk.
+     */
+    private synchronized void saveMeta() throws IOException {
+        if (!metaDirty) {
+            return;
+        }
+        File meta = metaFileFor(f);
+        File tmp = new File(meta.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            dos.writeInt(pageSize);
+            dos.writeInt(numPages);
+            dos.writeLong((long) allocated * pageSize);
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), meta.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        metaDirty = false;
+    }
+
+    /**
+     * Records that the page with the given number was written to disk.
+     */
+    private synchronized void pageWritten(int pgNo) {
+        loadMeta();
+        if (pgNo >= allocated) {
+            allocated = pgNo + 1;
+            metaDirty = true;
+        }
+        if (pgNo >= numPages) {
+            numPages = pgNo + 1;
+            metaDirty = true;
         }
     }
 
@@ -102,32 +398,189 @@ public class HeapFile implements DbFile {
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int) Math.ceil(f.length()/
-                Database.getBufferPool().PAGE_SIZE);
+        if (numPages < 0) {
+            loadMeta();
+        }
+        return numPages;
+    }
+
+    /**
+     * Adds an empty page to the end of this file and returns its number.
+     * If the file has no room for it on disk, the file is first extended by
+     * an extent of empty pages, with a single write at the end of the
+     * extent.
+     *
+     * @throws IOException if the file cannot be extended
+     */
+    protected synchronized int allocatePage() throws IOException {
+        loadMeta();
+        if (numPages >= allocated) {
+            int extent = Math.max(1, EXTENT_SIZE / pageSize);
+            long end = (long) (allocated + extent) * pageSize;
+            ByteBuffer zero = ByteBuffer.allocate(1);
+            while (zero.hasRemaining()) {
+                getChannel().write(zero, end - 1);
+            }
+            allocated += extent;
+        }
+        metaDirty = true;
+        return numPages++;
+    }
+
+    /**
+     * Cuts the pages at and after newNumPages off the end of this file. The
+     * caller must hold write locks on those pages and have checked that
+     * they hold no tuples. Nothing is done if a page has been added since
+     * the caller counted expectedNumPages pages, as the new page may be in
+     * use.
+     *
+     * @return true if the file was truncated
+     * @throws IOException if the file cannot be truncated
+     */
+    protected synchronized boolean truncate(int expectedNumPages, int newNumPages) throws IOException {
+        loadMeta();
+        if (numPages != expectedNumPages || newNumPages >= numPages) {
+            return false;
+        }
+        getChannel().truncate((long) newNumPages * pageSize);
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        for (int i=newNumPages; i<numPages; i++) {
+            fsm.setFreeSlots(i, FreeSpaceMap.UNKNOWN);
+        }
+        getZoneMap().truncate(newNumPages);
+        numPages = newNumPages;
+        allocated = newNumPages;
+        metaDirty = true;
+        return true;
+    }
+
+    /**
+     * Replaces the content of this file by the given tuples, packed onto
+     * pages in the order given. The pages are written to a new file, which
+     * then takes the place of the data file, so a crash leaves either the
+     * old or the new content. The metadata, free-space map and zone map of
+     * the old content are dropped. The caller must hold write locks on
+     * every page, have discarded them from the buffer pool, and pass every
+     * tuple of the file; nothing is done if a page has been added since the
+     * caller counted expectedNumPages pages.
+     *
+     * @return true if the file was rewritten
+     * @throws IOException if the new file cannot be written or moved
+     */
+    protected synchronized boolean rewrite(int expectedNumPages, List<Tuple> tuples)
+            throws IOException, DbException {
+        loadMeta();
+        if (numPages != expectedNumPages) {
+            return false;
+        }
+        File tmp = new File(f.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        BufferedOutputStream bos = new BufferedOutputStream(fos);
+        try {
+            int pgNo = 0;
+            HeapPage page = null;
+            for (Tuple t : tuples) {
+                if (page == null || !page.hasRoomFor(t)) {
+                    if (page != null) {
+                        writeRaw(bos, page);
+                    }
+                    page = newPage(new HeapPageId(getId(), pgNo++),
+                            ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize)));
+                }
+                page.insertTuple(t);
+            }
+            if (page != null) {
+                writeRaw(bos, page);
+            }
+            bos.flush();
+            fos.getFD().sync();
+        } finally {
+            bos.close();
+        }
+        close();
+        // the sidecar files describe the old pages, which the new file may
+        // well match the length of
+        for (File sidecar : new File[] { metaFileFor(f), FreeSpaceMap.sidecarFor(f), ZoneMap.sidecarFor(f) }) {
+            if (!sidecar.delete() && sidecar.exists()) {
+                throw new IOException("cannot delete " + sidecar);
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fsm = null;
+        zones = null;
+        numPages = -1;
+        metaDirty = false;
+        return true;
+    }
+
+    private void writeRaw(OutputStream out, HeapPage page) throws IOException {
+        byte[] data = page.getPageData();
+        saveDictionaries();
+        out.write(data, 0, pageSize);
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it from its sidecar
+     * file on first use.
+     *
+     * @see FreeSpaceMap#sidecarFor
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (fsm == null) {
+            fsm = new FreeSpaceMap(FreeSpaceMap.sidecarFor(f));
+        }
+        return fsm;
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its sidecar file
+     * on first use.
+     *
+     * @see ZoneMap#sidecarFor
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zones == null) {
+            zones = new ZoneMap(f, td);
+        }
+        return zones;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         int tableID = this.getId();
-        for (int i=0; i<this.numPages(); i++) {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        // only lock pages the free-space map says may have room
+        int i = fsm.findPage(this.numPages(), 0);
+        while (i >= 0) {
             HeapPageId pid = new HeapPageId(tableID, i);
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(
-                    tid, pid, Permissions.READ_WRITE);
-            if (p.getNumEmptySlots() != 0) {
+            boolean held = tid == null || bp.holdsLock(tid, pid);
+            HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (p.hasRoomFor(t)) {
                 p.insertTuple(t);
+                fsm.setFreeSlots(i, p.getNumEmptySlots());
+                getZoneMap().widen(i, t);
                 ArrayList<Page> res = new ArrayList<>();
                 res.add(p);
                 return res;
             }
+            fsm.setFreeSlots(i, p.getNumEmptySlots());
+            // we did not touch the page, so don't keep others waiting on it
+            if (!held) {
+                bp.releasePage(tid, pid);
+            }
+            i = fsm.findPage(this.numPages(), i + 1);
         }
-        // insert a page
-        HeapPageId pid = new HeapPageId(tableID, this.numPages());
+        // add a page; it reaches the disk when the transaction commits
+        HeapPageId pid = new HeapPageId(tableID, allocatePage());
         HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         hp.insertTuple(t);
+        fsm.setFreeSlots(pid.pageNumber(), hp.getNumEmptySlots());
+        getZoneMap().widen(pid.pageNumber(), t);
         ArrayList<Page> res = new ArrayList<>();
         res.add(hp);
-        this.writePage(hp);
         return res;
     }
 
@@ -139,6 +592,8 @@ public class HeapFile implements DbFile {
             Page p = Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
             HeapPage hp = (HeapPage) p;
             hp.deleteTuple(t);
+            getFreeSpaceMap().setFreeSlots(hp.getId().pageNumber(), hp.getNumEmptySlots());
+            getZoneMap().tupleDeleted(hp.getId().pageNumber());
             return hp;
         } catch (DbException e) {
             e.printStackTrace();
@@ -155,5 +610,43 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all of
+     * the given predicates. The predicates are checked field by field on
+     * each page, so tuples that do not match are never decoded.
+     *
+     * @param preds the predicates to apply, or null for all tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return new HeapFileIterator(tid, this, preds);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, List)} that
+     * optionally reads the following pages into the buffer pool in the
+     * background while the current page is processed.
+     *
+     * @param preds the predicates to apply, or null for all tuples
+     * @param readAhead whether to read ahead
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds, boolean readAhead) {
+        return iterator(tid, preds, readAhead, false);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, List, boolean)}
+     * that optionally reads the pages into a small ring of the buffer pool,
+     * for scans of files that are large compared to the pool; see
+     * {@link BufferPool.Ring}.
+     *
+     * @param preds the predicates to apply, or null for all tuples
+     * @param readAhead whether to read ahead
+     * @param bulkRead whether to read through a ring
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds, boolean readAhead,
+                                   boolean bulkRead) {
+        return new HeapFileIterator(tid, this, preds, readAhead, bulkRead);
+    }
+
 }
 
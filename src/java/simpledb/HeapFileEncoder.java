@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -90,10 +91,28 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, null);
+  }
+
+  /** Convert the specified input text file into a binary page file, as
+   * {@link #convert(File, File, int, int, Type[], char)} does, but store the
+   * string fields that have a dictionary as codes into it. The dictionaries
+   * are saved once the file is written.
+   *
+   * @see TupleDesc#TupleDesc(Type[], String[], StringDictionary[])
+   * @param dictAr the dictionary of each field, null for fields that are not
+   *        dictionary-encoded; may itself be null
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, StringDictionary[] dictAr)
+      throws IOException {
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+          if (dictAr != null && dictAr[i] != null)
+              nrecbytes += StringDictionary.CODE_LEN;
+          else
+              nrecbytes += typeAr[i].getLen();
       }
       int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
@@ -152,10 +171,14 @@ public class HeapFileEncoder {
                     String news = s.substring(0,Type.STRING_LEN);
                     s  = news;
                 }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
+                if (dictAr != null && dictAr[fieldNo] != null) {
+                    pageStream.writeInt(dictAr[fieldNo].encode(s));
+                } else {
+                    pageStream.writeInt(s.length());
+                    pageStream.writeBytes(s);
+                    while (overflow-- > 0)
+                        pageStream.write((byte)0);
+                }
             }
             curpos = 0;
             if (c == '\n')
@@ -222,5 +245,142 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    if (dictAr != null) {
+        for (StringDictionary dict : dictAr) {
+            if (dict != null)
+                dict.save();
+        }
+    }
+  }
+  /** Convert the specified input text file into a binary page file whose
+   * pages are laid out as {@link SlottedPage}s, i.e. with variable-length
+   * records. The input format is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}. Pages are filled
+   * with as many records as fit on them.
+   *
+   * @see SlottedPage
+   * @see HeapFile.PageFormat#SLOTTED
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the types of the fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      String sep = Pattern.quote(String.valueOf(fieldSeparator));
+
+      ArrayList<Tuple> page = new ArrayList<Tuple>();
+      int word = SlottedPage.wordSize(npagebytes);
+      int pagebytes = word;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] vals = line.split(sep, -1);
+          if (vals.length != typeAr.length) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < typeAr.length; i++) {
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(vals[i].trim())));
+                  else
+                      t.setField(i, new StringField(vals[i].trim(), Type.STRING_LEN));
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+
+          // each record also takes a (offset, length) slot directory entry
+          int recbytes = 2 * word + SlottedPage.recordSize(t);
+          if (pagebytes + recbytes > npagebytes && page.size() > 0) {
+              os.write(SlottedPage.createPageData(page, npagebytes));
+              npages++;
+              page.clear();
+              pagebytes = word;
+          }
+          page.add(t);
+          pagebytes += recbytes;
+      }
+      // as for convert, an empty input still yields one (empty) page
+      if (page.size() > 0 || npages == 0)
+          os.write(SlottedPage.createPageData(page, npagebytes));
+      br.close();
+      os.close();
+  }
+  /** Convert the specified input text file into the column files of a
+   * {@link ColumnFile}: column i of the input is written as a sequence of
+   * {@link ColumnPage}s to {@link ColumnFile#columnFileFor}(outFile, i).
+   * The input format is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @see ColumnFile
+   * @param inFile The input file to read data from
+   * @param outFile The file the names of the column files are derived from
+   * @param npagebytes The number of bytes per page in the output files
+   * @param typeAr the types of the fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertColumns(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      String sep = Pattern.quote(String.valueOf(fieldSeparator));
+
+      FileOutputStream[] os = new FileOutputStream[typeAr.length];
+      ArrayList<ArrayList<Field>> pages = new ArrayList<ArrayList<Field>>();
+      int[] perPage = new int[typeAr.length];
+      for (int i = 0; i < typeAr.length; i++) {
+          os[i] = new FileOutputStream(ColumnFile.columnFileFor(outFile, i));
+          pages.add(new ArrayList<Field>());
+          perPage[i] = ColumnPage.getNumSlots(typeAr[i], npagebytes);
+      }
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] vals = line.split(sep, -1);
+          if (vals.length != typeAr.length) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Field[] fields = new Field[typeAr.length];
+          try {
+              for (int i = 0; i < typeAr.length; i++) {
+                  if (typeAr[i] == Type.INT_TYPE)
+                      fields[i] = new IntField(Integer.parseInt(vals[i].trim()));
+                  else
+                      fields[i] = new StringField(vals[i].trim(), Type.STRING_LEN);
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+
+          // each column fills its pages at its own rate
+          for (int i = 0; i < typeAr.length; i++) {
+              ArrayList<Field> page = pages.get(i);
+              page.add(fields[i]);
+              if (page.size() == perPage[i]) {
+                  os[i].write(ColumnPage.createPageData(typeAr[i], page, npagebytes));
+                  page.clear();
+              }
+          }
+      }
+      for (int i = 0; i < typeAr.length; i++) {
+          if (pages.get(i).size() > 0)
+              os[i].write(ColumnPage.createPageData(typeAr[i], pages.get(i), npagebytes));
+          os[i].close();
+      }
+      br.close();
   }
 }
@@ -1,7 +1,8 @@
 package simpledb;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
@@ -15,33 +16,163 @@ import java.util.NoSuchElementException;
 public class HeapFileIterator implements DbFileIterator {
     private TransactionId tid;
     private HeapFile f;
+    private List<Predicate> preds;
     private int pgNum;
     private Iterator<Tuple> it;
 
+    /** whether to read the next pages ahead of the scan */
+    private final boolean readAhead;
+    /** number of pages to keep read ahead of the current one */
+    private int window;
+    /** pages before this one have been read ahead */
+    private int ahead;
+    /** pages in a row that were already cached when the scan reached them */
+    private int hits;
+
+    /** the zone map of the file, if the scan has predicates to check */
+    private ZoneMap zones;
+
+    /** whether to read the file through a ring */
+    private final boolean bulkRead;
+    /** the ring the pages are read into, or null to use the whole pool */
+    private BufferPool.Ring ring;
+
+    /** read-ahead window a scan starts with */
+    static final int INITIAL_WINDOW = 2;
+
     /**
      *
      * @param tid The transaction performing the update
      * @param f the heap file iteratored
      */
     public HeapFileIterator(TransactionId tid, HeapFile f) {
+        this(tid, f, null);
+    }
+
+    /**
+     *
+     * @param tid The transaction performing the update
+     * @param f the heap file iteratored
+     * @param preds predicates every returned tuple must satisfy, evaluated
+     *              on the page before tuples are decoded (may be null)
+     */
+    public HeapFileIterator(TransactionId tid, HeapFile f, List<Predicate> preds) {
+        this(tid, f, preds, false);
+    }
+
+    /**
+     *
+     * @param tid The transaction performing the update
+     * @param f the heap file iteratored
+     * @param preds predicates every returned tuple must satisfy, evaluated
+     *              on the page before tuples are decoded (may be null).
+     *              Pages whose {@link ZoneMap} range cannot satisfy them are
+     *              locked but not read.
+     * @param readAhead if true, the pages after the current one are read
+     *              into the buffer pool in the background while the current
+     *              one is processed; see {@link #readAhead}
+     */
+    public HeapFileIterator(TransactionId tid, HeapFile f, List<Predicate> preds, boolean readAhead) {
+        this(tid, f, preds, readAhead, false);
+    }
+
+    /**
+     *
+     * @param tid The transaction performing the update
+     * @param f the heap file iteratored
+     * @param preds predicates every returned tuple must satisfy (may be null)
+     * @param readAhead if true, the pages after the current one are read
+     *              ahead; see {@link #readAhead}
+     * @param bulkRead if true, the pages are read into a small
+     *              {@link BufferPool.Ring ring} of the buffer pool rather
+     *              than the whole pool, so that a scan of a large file does
+     *              not evict the pages other queries work on
+     */
+    public HeapFileIterator(TransactionId tid, HeapFile f, List<Predicate> preds,
+                            boolean readAhead, boolean bulkRead) {
         this.tid = tid;
         this.f = f;
+        this.preds = preds;
+        this.readAhead = readAhead;
+        this.bulkRead = bulkRead;
+    }
+
+    /**
+     * Keeps the next window pages after pgNum read ahead. The window adapts
+     * to the speed of the scan: if the scan reaches a page that was read
+     * ahead but is not cached yet, it is outrunning the reads and the window
+     * doubles; after a full window of pages that were ready in time, it
+     * shrinks by one, so a slow consumer does not hold more of the pool
+     * than it needs. A scan through a ring reads at most half a ring
+     * ahead, so that the pages read ahead do not replace the current one.
+     */
+    private void readAhead(int pgNum, boolean cached) {
+        BufferPool bp = Database.getBufferPool();
+        int max = bp.maxReadAhead(f.getPageSize());
+        if (ring != null) {
+            max = Math.min(max, ring.size() / 2);
+        }
+        if (max <= 0) {
+            return;
+        }
+        if (pgNum < ahead) {
+            if (cached) {
+                if (++hits >= window && window > 1) {
+                    window--;
+                    hits = 0;
+                }
+            } else {
+                window = Math.min(window * 2, max);
+                hits = 0;
+            }
+        }
+        window = Math.min(window, max);
+        int end = Math.min(pgNum + 1 + window, f.numPages());
+        for (int i=Math.max(ahead, pgNum + 1); i<end; i++) {
+            if (zones == null || zones.mayMatch(i, preds)) {
+                bp.prefetchPage(new HeapPageId(f.getId(), i), ring);
+            }
+        }
+        ahead = Math.max(ahead, end);
     }
 
     private Iterator<Tuple> getPageIterator(int pgNum)
             throws TransactionAbortedException, DbException {
         PageId pageId = new HeapPageId(f.getId(), pgNum);
-        Page page = Database.getBufferPool().getPage(tid,
-                pageId, Permissions.READ_ONLY);
+        BufferPool bp = Database.getBufferPool();
+        if (zones != null) {
+            // lock the page first, so that the range cannot change until
+            // the transaction completes
+            bp.lockPage(tid, pageId, Permissions.READ_ONLY);
+            if (!zones.mayMatch(pgNum, preds)) {
+                return Collections.<Tuple>emptyIterator();
+            }
+        }
+        if (readAhead) {
+            readAhead(pgNum, bp.pageCached(pageId));
+        }
+        Page page = bp.getPage(tid, pageId, Permissions.READ_ONLY, ring);
 
         HeapPage hp = (HeapPage)page;
-        return hp.iterator();
+        // a clean page is the page on disk
+        if (hp.isDirty() == null) {
+            ZoneMap map = f.getZoneMap();
+            if (!map.isKnown(pgNum)) {
+                map.learn(hp);
+            }
+        }
+        return hp.iterator(preds);
     }
 
     // see DbFileIterator.java for javadocs
     @Override
     public void open() throws DbException, TransactionAbortedException {
         pgNum = 0;
+        zones = preds != null && !preds.isEmpty() ? f.getZoneMap() : null;
+        window = INITIAL_WINDOW;
+        ahead = 0;
+        hits = 0;
+        ring = bulkRead ? Database.getBufferPool().newRing(f.getPageSize()) : null;
         it = getPageIterator(pgNum);
     }
 
@@ -50,21 +181,16 @@ public class HeapFileIterator implements DbFileIterator {
     public boolean hasNext() throws DbException, TransactionAbortedException {
         if (it == null) {
             return false;
-        } else {
-            if (it.hasNext()) {
-                return true;
-            } else {
-                if (pgNum < f.numPages()-1) {
-                    if (!getPageIterator(pgNum+1).hasNext()) {
-                        return false;
-                    } else {
-                        return true;
-                    }
-                } else {
-                    return false;
-                }
+        }
+        // skip over pages with no (matching) tuples
+        while (!it.hasNext()) {
+            if (pgNum >= f.numPages() - 1) {
+                return false;
             }
+            pgNum++;
+            it = getPageIterator(pgNum);
         }
+        return true;
     }
 
     // see DbFileIterator.java for javadocs
@@ -73,22 +199,10 @@ public class HeapFileIterator implements DbFileIterator {
         if (it == null) {
             throw new NoSuchElementException("tuple if null");
         }
-
-        if (it.hasNext()) {
-            return it.next();
-        } else {
-            if (pgNum < f.numPages() - 1) {
-                pgNum++;
-                it = getPageIterator(pgNum);
-                if (it.hasNext()) {
-                    return it.next();
-                } else {
-                    throw new NoSuchElementException("No more tuples");
-                }
-            } else {
-                throw new NoSuchElementException("No more tuples");
-            }
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more tuples");
         }
+        return it.next();
     }
 
     // see DbFileIterator.java for javadocs
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -16,9 +17,30 @@ public class HeapPage implements Page {
     HeapPageId pid;
     TupleDesc td;
     byte header[];  // bit map whether tuple available
-    Tuple tuples[]; //
+    /**
+     * tuples decoded so far, null for slots not yet read; allocated when
+     * the first tuple is kept
+     */
+    Tuple tuples[];
     int numSlots;
 
+    /**
+     * the page as read from disk; never modified, slots are decoded from it
+     * on demand. The bytes may be moved to another buffer, see
+     * {@link #moveData}, so readers that cannot tell whether a move is under
+     * way check that the field is unchanged after reading from it.
+     */
+    volatile ByteBuffer data;
+    /**
+     * true if data is a frame of the buffer pool's off-heap arena; decoded
+     * tuples are then not kept, so that the page holds no objects on the
+     * heap
+     */
+    private volatile boolean offHeap;
+    /** the size of this page in bytes */
+    final int pageSize;
+
+    /** page contents before the first change since the last commit, null if unchanged */
     byte[] oldData;
     private TransactionId tid;
 
@@ -27,7 +49,7 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
@@ -37,29 +59,48 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
+     * <p>
+     * The page size is the length of data, which is normally
+     * {@link BufferPool#PAGE_SIZE} but can be set per table.
+     * Only the header is parsed here; tuples are decoded from data the first
+     * time they are asked for, so data must not be modified afterwards.
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page in the
+     * format described in {@link #HeapPage(HeapPageId, byte[])}, e.g. a
+     * slice of a memory-mapped file. The page is read from the buffer's
+     * current position and the buffer is not modified.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+            header[i] = this.data.get(i);
 
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        // the records themselves are decoded lazily, see getTuple
+        tuples = null;
+    }
 
-        setBeforeImage();
+    /**
+     * Constructor for subclasses that lay out the page differently. Only the
+     * state common to all heap pages is set up; the subclass is responsible
+     * for numSlots, tuples and everything that reads or writes its layout.
+     */
+    protected HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) {
+        this.pid = id;
+        this.td = td;
+        this.data = data.slice();
+        this.pageSize = this.data.limit();
+
+        // no before image until the page is first modified, see captureBeforeImage
+        oldData = null;
 
         tid = null;
     }
@@ -68,7 +109,7 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        int tupsPerPage = (Database.getBufferPool().PAGE_SIZE * 8) /
+        int tupsPerPage = (pageSize * 8) /
                 (this.td.getSize() * 8 + 1);
         return tupsPerPage;
     }
@@ -90,7 +131,12 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            byte[] before = oldData;
+            if (before == null) {
+                // not modified since it was read or last committed
+                before = getPageData();
+            }
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -99,8 +145,30 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of this page its before image. Rather than
+     * copying the page now, the copy is deferred to the next modification.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    /**
+     * Saves the current contents of this page as its before image, unless
+     * one was already saved since the last call to setBeforeImage. Must be
+     * called before any change to the header or the tuples.
+     */
+    void captureBeforeImage() {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the size of this page in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
     }
 
     /**
@@ -111,39 +179,147 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the first byte of the given slot
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * @return the tuple kept for the given slot, or null if it was not
+     *         decoded or not kept
+     */
+    Tuple decoded(int slotId) {
+        Tuple[] ts = tuples;
+        return ts == null ? null : ts[slotId];
+    }
+
+    /**
+     * Keeps t as the tuple of the given slot. Tuples that were inserted, and
+     * are not in data, must be kept; decoded ones may be.
+     */
+    void keep(int slotId, Tuple t) {
+        if (tuples == null) {
+            if (t == null) {
+                return;
+            }
+            tuples = new Tuple[numSlots];
+        }
+        tuples[slotId] = t;
+    }
+
+    /**
+     * Keeps a tuple just decoded from data, unless data is off the heap.
+     */
+    void keepDecoded(int slotId, Tuple t) {
+        if (!offHeap) {
+            keep(slotId, t);
+        }
+    }
+
+    /**
+     * Copies data to the given buffer, which must hold exactly
+     * {@link #getPageSize} bytes, and reads the page from it from now on:
+     * into a frame of the buffer pool's {@link PageArena} when the page is
+     * cached, and back to the heap when the frame is taken from it. A read
+     * of the old buffer that races with the move is repeated on the new
+     * one, as the caller only reuses the old buffer after this returns.
+     */
+    void moveData(ByteBuffer to) {
+        ByteBuffer dst = to.slice();
+        dst.put(data.duplicate());
+        dst.flip();
+        offHeap = dst.isDirect();
+        data = dst;
+    }
+
+    /**
+     * Suck up the tuple stored in the given slot of the page data.
+     */
+    private Tuple readNextTuple(int slotId) throws NoSuchElementException {
+        while (true) {
+            ByteBuffer buf = data;
+            try {
+                Tuple t = readNextTuple(buf, slotId);
+                if (buf == data) {
+                    return t;
+                }
+            } catch (RuntimeException e) {
+                if (buf == data) {
+                    throw e;
                 }
             }
-            return null;
+            // the page moved while it was read, read it again
+        }
+    }
+
+    private Tuple readNextTuple(ByteBuffer data, int slotId) throws NoSuchElementException {
+        int offset = slotOffset(slotId);
+        if (offset + td.getSize() > data.limit()) {
+            throw new NoSuchElementException("error reading tuple past the end of the page");
         }
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, td.parseField(j, data, offset));
+            offset += td.getFieldLen(j);
         }
 
         return t;
     }
 
+    /**
+     * Returns the tuple stored in the given slot, decoding it from the page
+     * data if it has not been read yet.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = decoded(slotId);
+        if (t == null) {
+            t = readNextTuple(slotId);
+            keepDecoded(slotId, t);
+        }
+        return t;
+    }
+
+    /**
+     * Returns a single field of the tuple in the given slot. If the tuple
+     * has not been decoded yet only the requested field is read, using the
+     * field offsets of the TupleDesc.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Tuple t = decoded(slotId);
+        if (t != null) {
+            return t.getField(fieldNo);
+        }
+        int offset = slotOffset(slotId) + td.getFieldOffset(fieldNo);
+        while (true) {
+            ByteBuffer buf = data;
+            try {
+                Field f = td.parseField(fieldNo, buf, offset);
+                if (buf == data) {
+                    return f;
+                }
+            } catch (RuntimeException e) {
+                if (buf == data) {
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -156,7 +332,17 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        while (true) {
+            ByteBuffer buf = data;
+            byte[] out = getPageData(buf);
+            if (buf == data) {
+                return out;
+            }
+        }
+    }
+
+    private byte[] getPageData(ByteBuffer data) {
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -171,7 +357,9 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] raw = null;
+        ByteBuffer src = null;
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -186,11 +374,28 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: copy it as is
+            Tuple t = decoded(i);
+            if (t == null) {
+                if (raw == null) {
+                    raw = new byte[td.getSize()];
+                    src = data.duplicate();
+                }
+                src.position(slotOffset(i));
+                src.get(raw);
+                try {
+                    dos.write(raw);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
-                    f.serialize(dos);
+                    td.serializeField(j, f, dos);
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -199,7 +404,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + td.getSize() * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -226,8 +431,17 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of the
+     * given size, for tables whose pages are not the default size.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -245,7 +459,8 @@ public class HeapPage implements Page {
             if (!isSlotUsed(i)) {
                 throw new DbException("The corresponding page is empty");
             } else {
-                this.tuples[i] = null;
+                captureBeforeImage();
+                keep(i, null);
                 markSlotUsed(i, false);
             }
         }
@@ -267,8 +482,9 @@ public class HeapPage implements Page {
         } else {
             for (int i=0; i<this.numSlots; i++) {
                 if (!this.isSlotUsed(i)){
+                    captureBeforeImage();
                     markSlotUsed(i, true);
-                    tuples[i] = t;
+                    keep(i, t);
                     RecordId rid = new RecordId(this.getId(), i);
                     t.setRecordId(rid);
                     return;
@@ -284,6 +500,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         if (dirty) {
+            captureBeforeImage();
             this.tid = tid;
         } else {
             this.tid = null;
@@ -297,6 +514,20 @@ public class HeapPage implements Page {
         return this.tid;
     }
 
+    /**
+     * Returns true if t can be added to this page with insertTuple.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Returns the number of slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -342,14 +573,77 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> tmp = new ArrayList<Tuple>();
-        for (int i=0; i<this.numSlots; i++) {
-            if (isSlotUsed(i)) {
-                tmp.add(this.tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. Predicates are evaluated against single fields
+     * read with {@link #getField}, so only matching tuples are decoded.
+     *
+     * @param preds the predicates to apply, or null to return every tuple
+     */
+    public Iterator<Tuple> iterator(List<Predicate> preds) {
+        return new SlotIterator(preds);
+    }
+
+    private boolean matches(int slotId, List<Predicate> preds) {
+        for (Predicate p : preds) {
+            if (!getField(slotId, p.getField()).compare(p.getOp(), p.getOperand())) {
+                return false;
             }
         }
-        return tmp.iterator();
+        return true;
     }
 
-}
+    /**
+     * Iterates over the slots in use when the iterator was created, decoding
+     * each tuple only when it is reached.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+        private final List<Predicate> preds;
+        private final int[] slots;
+        private int pos = 0;
+        private Tuple nextTuple = null;
+
+        SlotIterator(List<Predicate> preds) {
+            this.preds = (preds == null || preds.isEmpty()) ? null : preds;
+            int[] tmp = new int[numSlots];
+            int n = 0;
+            for (int i=0; i<numSlots; i++) {
+                if (isSlotUsed(i)) {
+                    tmp[n++] = i;
+                }
+            }
+            this.slots = Arrays.copyOf(tmp, n);
+        }
+
+        public boolean hasNext() {
+            while (nextTuple == null && pos < slots.length) {
+                int slot = slots[pos++];
+                // the slot may have been emptied since the iterator was created
+                if (!isSlotUsed(slot)) {
+                    continue;
+                }
+                if (preds == null || matches(slot, preds)) {
+                    nextTuple = getTuple(slot);
+                }
+            }
+            return nextTuple != null;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = nextTuple;
+            nextTuple = null;
+            return t;
+        }
 
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
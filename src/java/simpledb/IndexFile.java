@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * The interface for secondary indexes over one field of a heap table.
+ * <p>
+ * The tuples of an index, as returned by {@link #iterator}, are its
+ * entries: the key, the page and slot of the indexed tuple, and the values
+ * of the fields the index includes, if any.
+ * {@link #insertTuple} and {@link #deleteTuple} take tuples of the indexed
+ * table instead, and add or remove the entry for them; the BufferPool calls
+ * them for every tuple it inserts into or deletes from the table. Index
+ * pages are read and written through the BufferPool, so they are locked,
+ * cached and committed with the transaction that changes them.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * Returns the id of the indexed table.
+     */
+    public int getTableId();
+
+    /**
+     * Returns the index of the indexed field in the table's TupleDesc.
+     */
+    public int getKeyField();
+
+    public Type getKeyType();
+
+    /**
+     * Returns the indexes in the table's TupleDesc of the fields, other
+     * than the key, whose values the entries of this index hold, in the
+     * order they follow the record id in the entries.
+     */
+    public int[] getIncludedFields();
+
+    /**
+     * Returns the number of entries a page of this index holds when full,
+     * used by the optimizer to cost a scan that only reads the index.
+     */
+    public int entriesPerPage();
+
+    /**
+     * Returns true if {@link #indexIterator} finds the entries whose key
+     * satisfies <tt>key op value</tt> without reading the whole index.
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns the number of pages of this index a lookup reads before it
+     * finds the first matching entry, used by the optimizer to cost an
+     * {@link IndexScan}.
+     */
+    public int lookupCost();
+
+    /**
+     * Returns an iterator over the entries of this index whose key satisfies
+     * the given predicate.
+     *
+     * @param ipred the predicate, or null for all entries
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+
+    /**
+     * Replaces the content of this index with the entries of every tuple
+     * currently stored in the indexed table. The table's pages are read
+     * directly from disk, so this must not run concurrently with
+     * transactions on the table or the index.
+     *
+     * @param table the indexed table
+     * @throws IOException if the table cannot be read or the index written
+     */
+    public void build(HeapFile table) throws IOException;
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key of an index entry to a specified Field
+ * value. Unlike a {@link Predicate} it does not name a field, since an
+ * index has a single key field.
+ *
+ * @see IndexFile#indexIterator
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            operation to use for comparison
+     * @param fvalue
+     *            value to compare keys against
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if the given key satisfies this predicate, i.e.
+     *         key op value holds
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    /**
+     * @return true if an index ordered by key can find the entries matching
+     *         this predicate without reading every entry
+     */
+    public boolean isRange() {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking up the matching entries
+ * in an {@link IndexFile} and fetching each tuple from its heap page. The
+ * tuples are returned in the order of the index entries, which is key
+ * order for a {@link BTreeFile}.
+ * <p>
+ * An index-only scan does not read the table at all: it builds each tuple
+ * from the index entry, setting the key and the fields the index includes
+ * (see {@link IndexFile#getIncludedFields}) and leaving the others null,
+ * as a {@link SeqScan} of a column store does for fields the query does
+ * not read. It must only be used for queries that read no other field.
+ * Its tuples carry the record id of the tuple they stand for.
+ */
+public class IndexScan implements DbIterator {
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final IndexFile index;
+    private final IndexPredicate ipred;
+    private final boolean indexOnly;
+    private TupleDesc td;
+    private DbFileIterator entries;
+    private Tuple next;
+    /** true if a Bloom filter showed that no tuple can match */
+    private boolean ruledOut;
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a scan over the tuples of the specified table whose indexed
+     * field satisfies the given predicate, as a part of the specified
+     * transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see {@link SeqScan#SeqScan}
+     * @param index
+     *            an index over a field of the table
+     * @param ipred
+     *            the predicate over the indexed field
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexFile index, IndexPredicate ipred) {
+        this(tid, tableid, tableAlias, index, ipred, false);
+    }
+
+    /**
+     * Creates a scan as above, which if indexOnly is set builds the tuples
+     * from the index entries instead of reading them from the table.
+     *
+     * @param indexOnly
+     *            true to only read the index
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexFile index, IndexPredicate ipred,
+            boolean indexOnly) {
+        if (index.getTableId() != tableid) {
+            throw new IllegalArgumentException("index " + index.getId() + " is not an index of table " + tableid);
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.index = index;
+        this.ipred = ipred;
+        this.indexOnly = indexOnly;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the index this operator looks tuples up in
+     */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate over the indexed field
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return true if this scan only reads the index
+     */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    /**
+     * @return true if an index-only scan of the given index returns every
+     *         one of the given fields of the table
+     */
+    public static boolean covers(IndexFile index, Collection<Integer> fields) {
+        for (int field : fields) {
+            boolean covered = field == index.getKeyField();
+            for (int included : index.getIncludedFields()) {
+                covered |= field == included;
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        next = null;
+        td = getTupleDesc();
+        // an absent key costs no probe of the index
+        if (ipred.getOp() == Predicate.Op.EQUALS) {
+            BloomFilter bloom = Database.getCatalog().getBloomFilter(tableid, index.getKeyField());
+            ruledOut = bloom != null && !bloom.mightContain(ipred.getField());
+            if (ruledOut) {
+                return;
+            }
+        }
+        entries = index.indexIterator(tid, ipred);
+        entries.open();
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * tableAlias string from the constructor, as for a {@link SeqScan}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc oldtd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[oldtd.numFields()];
+        String[] names = new String[oldtd.numFields()];
+        for (int i=0; i<oldtd.numFields(); i++) {
+            types[i] = oldtd.getFieldType(i);
+            names[i] = tableAlias + "." + oldtd.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Fetches the tuple an index entry points to from the table, or builds
+     * it from the entry for an index-only scan.
+     */
+    private Tuple fetch(Tuple entry) throws DbException, TransactionAbortedException {
+        int pgNo = ((IntField) entry.getField(1)).getValue();
+        int slot = ((IntField) entry.getField(2)).getValue();
+        if (indexOnly) {
+            Tuple t = new Tuple(td);
+            t.setField(index.getKeyField(), entry.getField(0));
+            int[] included = index.getIncludedFields();
+            for (int i=0; i<included.length; i++) {
+                t.setField(included[i], entry.getField(3 + i));
+            }
+            t.setRecordId(new RecordId(new HeapPageId(tableid, pgNo), slot));
+            return t;
+        }
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableid, pgNo), Permissions.READ_ONLY);
+        return p.getTuple(slot);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (ruledOut) {
+            return false;
+        }
+        while (next == null && entries.hasNext()) {
+            // skip entries of tuples deleted behind the BufferPool's back
+            next = fetch(entries.next());
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        if (!ruledOut) {
+            entries.close();
+        }
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (!ruledOut) {
+            entries.rewind();
+        }
+        next = null;
+    }
+}
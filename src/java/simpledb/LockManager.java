@@ -5,9 +5,7 @@ package simpledb;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -18,17 +16,36 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class LockManager {
 
     private final ConcurrentMap<PageId, Object> locks;
-    private final Map<PageId, List<TransactionId>> sharedLocks;
+    // read without the page's lock object by the permission checks, so
+    // these must be safe for concurrent use
+    private final Map<PageId, Set<TransactionId>> sharedLocks;
     private final Map<PageId, TransactionId> exclusiveLocks;
     private final ConcurrentMap<TransactionId, Collection<PageId>> pageIdsLockedByTransaction;
-    private final ConcurrentMap<TransactionId, Collection<TransactionId>> dependencyGraph;
+    /**
+     * the lock each blocked transaction waits for; the wait-for graph is
+     * derived from these and the current holders, so that a holder that
+     * released a lock since a transaction started waiting for it never
+     * closes a cycle
+     */
+    private final ConcurrentMap<TransactionId, Wait> waits;
+
+    /** A lock a transaction waits for. */
+    private static class Wait {
+        final PageId pageId;
+        final Permissions permissions;
+
+        Wait(PageId pageId, Permissions permissions) {
+            this.pageId = pageId;
+            this.permissions = permissions;
+        }
+    }
 
     private LockManager() {
         locks = new ConcurrentHashMap<PageId, Object>();
-        sharedLocks = new HashMap<PageId, List<TransactionId>>();
-        exclusiveLocks = new HashMap<PageId, TransactionId>();
+        sharedLocks = new ConcurrentHashMap<PageId, Set<TransactionId>>();
+        exclusiveLocks = new ConcurrentHashMap<PageId, TransactionId>();
         pageIdsLockedByTransaction = new ConcurrentHashMap<TransactionId, Collection<PageId>>();
-        dependencyGraph = new ConcurrentHashMap<TransactionId, Collection<TransactionId>>();
+        waits = new ConcurrentHashMap<TransactionId, Wait>();
     }
 
     public static LockManager create() {
@@ -72,14 +89,14 @@ public class LockManager {
         if (hasWritePermissions(transactionId, pageId)) {
             return true;
         }
-        return sharedLocks.containsKey(pageId)
-                && sharedLocks.get(pageId).contains(transactionId);
+        Set<TransactionId> holders = sharedLocks.get(pageId);
+        return holders != null && holders.contains(transactionId);
     }
 
     private boolean hasWritePermissions(TransactionId transactionId,
                                         PageId pageId) {
-        return exclusiveLocks.containsKey(pageId)
-                && transactionId.equals(exclusiveLocks.get(pageId));
+        TransactionId holder = exclusiveLocks.get(pageId);
+        return holder != null && transactionId.equals(holder);
     }
 
     private void addPageToTransactionLocks(TransactionId transactionId,
@@ -92,83 +109,98 @@ public class LockManager {
     public boolean acquireReadOnlyLock(TransactionId transactionId,
                                        PageId pageId) throws TransactionAbortedException {
         Object lock = getLock(pageId);
+        Collection<TransactionId> blockers = null;
         while (true) {
             synchronized (lock) {
                 TransactionId exclusiveLockHolder = exclusiveLocks.get(pageId);
                 if (exclusiveLockHolder == null
                         || transactionId.equals(exclusiveLockHolder)) {
-                    removeDependencies(transactionId);
+                    waits.remove(transactionId);
                     addSharedUser(transactionId, pageId);
                     return true;
                 }
-                addDependency(transactionId, exclusiveLockHolder);
             }
+            blockers = waitFor(transactionId, pageId, Permissions.READ_ONLY, blockers);
         }
     }
 
-    private void removeDependencies(TransactionId dependent) {
-        dependencyGraph.remove(dependent);
-    }
-
-    private void addDependency(TransactionId dependent, TransactionId dependee)
-            throws TransactionAbortedException {
-        Collection<TransactionId> dependees = new ArrayList<TransactionId>();
-        dependees.add(dependee);
-        addDependencies(dependent, dependees);
-    }
-
-    private void addDependencies(TransactionId dependent,
-                                 Collection<TransactionId> dependees)
-            throws TransactionAbortedException {
-        dependencyGraph.putIfAbsent(dependent,
-                new LinkedBlockingQueue<TransactionId>());
-        Collection<TransactionId> dependeesCollection = dependencyGraph
-                .get(dependent);
-        boolean addedDependee = false;
-        for (TransactionId newDependee : dependees) {
-            if (!dependeesCollection.contains(newDependee)
-                    && !newDependee.equals(dependent)) {
-                addedDependee = true;
-                dependeesCollection.add(newDependee);
+    /**
+     * @return the transactions whose locks keep transactionId from locking
+     *         pageId with the given permissions
+     */
+    private Collection<TransactionId> getBlockers(TransactionId transactionId,
+                                                  PageId pageId, Permissions permissions) {
+        Collection<TransactionId> blockers = new ArrayList<TransactionId>();
+        TransactionId exclusiveLockHolder = exclusiveLocks.get(pageId);
+        if (exclusiveLockHolder != null) {
+            if (!transactionId.equals(exclusiveLockHolder)) {
+                blockers.add(exclusiveLockHolder);
             }
+            return blockers;
         }
-        if (addedDependee) {
-            abortIfDeadlocked();
+        Set<TransactionId> sharedLockHolders = sharedLocks.get(pageId);
+        if (permissions == Permissions.READ_WRITE && sharedLockHolders != null) {
+            for (TransactionId holder : sharedLockHolders) {
+                if (!transactionId.equals(holder)) {
+                    blockers.add(holder);
+                }
+            }
         }
+        return blockers;
     }
 
-    private void abortIfDeadlocked() throws TransactionAbortedException {
-        Set<TransactionId> visitedTransactionIds = new HashSet<>();
-        for (TransactionId transactionId : dependencyGraph.keySet()) {
-            if (!visitedTransactionIds.contains(transactionId)) {
-                testForDeadlock(transactionId, visitedTransactionIds,
-                        new Stack<>());
-            }
+    /**
+     * Records that transactionId waits to lock pageId, and aborts it if the
+     * wait closes a cycle. The check only runs when the wait began or a new
+     * transaction blocks it, as only then can a cycle have formed.
+     *
+     * @param before the blockers seen by the previous call for this wait,
+     *        or null when the wait begins
+     * @return the current blockers
+     */
+    private Collection<TransactionId> waitFor(TransactionId transactionId, PageId pageId,
+                                              Permissions permissions,
+                                              Collection<TransactionId> before)
+            throws TransactionAbortedException {
+        if (before == null) {
+            waits.put(transactionId, new Wait(pageId, permissions));
         }
+        Collection<TransactionId> blockers = getBlockers(transactionId, pageId, permissions);
+        if (before == null || !before.containsAll(blockers)) {
+            abortIfDeadlocked(transactionId);
+        }
+        return blockers;
     }
 
-    private void testForDeadlock(TransactionId transactionId,
-                                 Set<TransactionId> visitedTransactionIds,
-                                 Stack<TransactionId> parents) throws TransactionAbortedException {
-        visitedTransactionIds.add(transactionId);
-        if (!dependencyGraph.containsKey(transactionId)) {
-            return;
-        }
-        for (TransactionId dependee : dependencyGraph.get(transactionId)) {
-            if (parents.contains(dependee)) {
-                throw new TransactionAbortedException();
+    /**
+     * Aborts transactionId if it waits, through the transactions blocking
+     * it, for itself.
+     */
+    private void abortIfDeadlocked(TransactionId transactionId) throws TransactionAbortedException {
+        Set<TransactionId> visitedTransactionIds = new HashSet<>();
+        Stack<TransactionId> toVisit = new Stack<>();
+        toVisit.push(transactionId);
+        while (!toVisit.isEmpty()) {
+            TransactionId waiting = toVisit.pop();
+            Wait wait = waits.get(waiting);
+            if (wait == null) {
+                continue;
             }
-            if (!visitedTransactionIds.contains(dependee)) {
-                parents.push(transactionId);
-                testForDeadlock(dependee, visitedTransactionIds, parents);
-                parents.pop();
+            for (TransactionId blocker : getBlockers(waiting, wait.pageId, wait.permissions)) {
+                if (blocker.equals(transactionId)) {
+                    waits.remove(transactionId);
+                    throw new TransactionAbortedException();
+                }
+                if (visitedTransactionIds.add(blocker)) {
+                    toVisit.push(blocker);
+                }
             }
         }
     }
 
     private void addSharedUser(TransactionId transactionId, PageId pageId) {
         if (!sharedLocks.containsKey(pageId)) {
-            sharedLocks.put(pageId, new ArrayList<TransactionId>());
+            sharedLocks.put(pageId, ConcurrentHashMap.<TransactionId>newKeySet());
         }
         sharedLocks.get(pageId).add(transactionId);
     }
@@ -204,16 +236,17 @@ public class LockManager {
     public boolean acquireReadWriteLock(TransactionId transactionId,
                                         PageId pageId) throws TransactionAbortedException {
         Object lock = getLock(pageId);
+        Collection<TransactionId> blockers = null;
         while (true) {
             synchronized (lock) {
                 Collection<TransactionId> lockHolders = getLockHolders(pageId);
                 if (!isLockedByOthers(transactionId, lockHolders)) {
-                    removeDependencies(transactionId);
+                    waits.remove(transactionId);
                     addExclusiveUser(transactionId, pageId);
                     return true;
                 }
-                addDependencies(transactionId, lockHolders);
             }
+            blockers = waitFor(transactionId, pageId, Permissions.READ_WRITE, blockers);
         }
     }
 
@@ -244,7 +277,7 @@ public class LockManager {
             pageIdsLockedByTransaction.replace(transactionId,
                     new LinkedBlockingQueue<PageId>());
         }
-        dependencyGraph.remove(transactionId);
+        waits.remove(transactionId);
     }
 
     public boolean holdsLock(TransactionId transactionId, PageId pageId) {
@@ -5,7 +5,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -289,6 +291,9 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,SeqScan> scanMap = new HashMap<String,SeqScan>();
+        HashMap<String,ArrayList<Predicate>> predicateMap = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,ArrayList<Double>> selectivityMap = new HashMap<String,ArrayList<Double>>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -300,12 +305,52 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
+            scanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
+            predicateMap.put(table.alias, new ArrayList<Predicate>());
+            selectivityMap.put(table.alias, new ArrayList<Double>());
 
         }
 
+        // tell each scan which of its fields the query reads, so that column
+        // stores can skip the rest; SELECT * reads every field
+        boolean selectAll = false;
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                selectAll = true;
+        }
+        if (!selectAll) {
+            ArrayList<String> referenced = new ArrayList<String>();
+            for (LogicalSelectListNode si : selectList)
+                referenced.add(si.fname);
+            for (LogicalFilterNode lf : filters)
+                referenced.add(lf.fieldQuantifiedName);
+            for (LogicalJoinNode lj : joins) {
+                referenced.add(lj.f1QuantifiedName);
+                referenced.add(lj.f2QuantifiedName);
+            }
+            if (hasAgg) {
+                referenced.add(aggField);
+                referenced.add(groupByField);
+            }
+            if (hasOrderBy)
+                referenced.add(oByField);
+            for (Map.Entry<String,SeqScan> e : scanMap.entrySet()) {
+                TupleDesc td = e.getValue().getTupleDesc();
+                for (String name : referenced) {
+                    if (name == null || !name.startsWith(e.getKey() + "."))
+                        continue;
+                    try {
+                        e.getValue().addColumn(td.fieldNameToIndex(name));
+                    } catch (NoSuchElementException ex) {
+                        // unknown fields are reported when the plan is built
+                    }
+                }
+            }
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -325,8 +370,15 @@ public class LogicalPlan {
             }
             if (ftyp == Type.INT_TYPE)
                 f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            else {
+                // against a dictionary-encoded field, use the constant's code
+                StringDictionary dict = Database.getCatalog().getTupleDesc(getTableId(lf.tableAlias))
+                        .getDictionary(td.fieldNameToIndex(lf.fieldQuantifiedName));
+                if (dict != null)
+                    f = dict.toField(lf.c);
+                else
+                    f = new StringField(lf.c, Type.STRING_LEN);
+            }
 
             Predicate p = null;
             try {
@@ -335,15 +387,26 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            scanMap.get(lf.tableAlias).addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            predicateMap.get(lf.tableAlias).add(p);
+            selectivityMap.get(lf.tableAlias).add(sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            DbIterator plan = indexPlan(t, table, predicateMap.get(table.alias),
+                    selectivityMap.get(table.alias), scanMap.get(table.alias).getColumns(), s);
+            if (plan != null)
+                subplanMap.put(table.alias, plan);
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this, joins);
         if (joins.size() > 0) {
             joins = jo.orderJoins(statsMap, filterSelectivities, explain);
@@ -460,12 +523,22 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            Operator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
+                int afield = td.fieldNameToIndex(aggField);
+                Aggregator.Op op = getAggOp(aggOp);
+                DbFile dbf = node instanceof SeqScan ? Database.getCatalog().getDbFile(
+                        Database.getCatalog().getTableId(((SeqScan) node).getTableName())) : null;
+                // an aggregate over a whole table, without a WHERE clause,
+                // can be answered from the table's zone map
+                if (groupByField == null && dbf instanceof HeapFile
+                        && MetadataAggregate.supports(op, td.getFieldType(afield))) {
+                    aggNode = new MetadataAggregate(t, (HeapFile) dbf, node, afield, op);
+                } else {
+                    aggNode = new Aggregate(node, afield,
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                op);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -481,6 +554,89 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Returns a plan reading the filtered tuples of a table through one of
+     *  its indexes, or null if scanning the table is cheaper. An index scan
+     *  reads about one heap page per matching tuple, plus the index pages of
+     *  the lookup (see {@link IndexFile#lookupCost}), so the cheapest index
+     *  that supports one of the filters is used if that is fewer pages than
+     *  the table has. If the query reads no fields of the table other than
+     *  the key and included fields of an index, an index-only
+     *  {@link IndexScan} reads just the index pages holding the matching
+     *  entries instead, which is costed accordingly. If the table is sorted on a filtered field, a
+     *  {@link ClusteredScan} reads log2 of its pages plus those holding the
+     *  matching tuples, and is used instead if that is cheaper still. The
+     *  other filters are applied on top of the index or clustered scan.
+     *  @param preds the filters over the table, in the order they were added
+     *  @param sels the estimated selectivity of each filter
+     *  @param columns the fields of the table the query reads, or an empty
+     *    set if it reads all of them
+     *  @param s the statistics of the table
+     */
+    private DbIterator indexPlan(TransactionId t, LogicalScanNode table,
+            ArrayList<Predicate> preds, ArrayList<Double> sels, Set<Integer> columns, TableStats s) {
+        DbFile dbf = Database.getCatalog().getDbFile(table.t);
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(table.t);
+        int sortField = Database.getCatalog().getSortField(table.t);
+        if (preds.isEmpty() || (indexes.isEmpty() && sortField < 0) || s == null
+                || !(dbf instanceof HeapFile))
+            return null;
+
+        IndexFile bestIndex = null;
+        int bestPred = -1;
+        boolean bestIndexOnly = false;
+        double bestCost = ((HeapFile) dbf).numPages();
+        for (int i = 0; i < preds.size(); i++) {
+            Predicate p = preds.get(i);
+            for (IndexFile index : indexes) {
+                if (index.getKeyField() != p.getField() || !index.supports(p.getOp()))
+                    continue;
+                boolean indexOnly = !columns.isEmpty() && IndexScan.covers(index, columns);
+                double matches = sels.get(i) * s.totalTuples();
+                double cost = index.lookupCost()
+                        + (indexOnly ? Math.ceil(matches / index.entriesPerPage()) : matches);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestIndex = index;
+                    bestPred = i;
+                    bestIndexOnly = indexOnly;
+                }
+            }
+        }
+
+        // the filters on the sort field bound a single range of pages
+        ArrayList<Predicate> sortPreds = new ArrayList<Predicate>();
+        double sortSel = 1.0;
+        for (int i = 0; i < preds.size(); i++) {
+            Predicate p = preds.get(i);
+            if (p.getField() == sortField && ClusteredScan.supports(p.getOp())) {
+                sortPreds.add(p);
+                sortSel = Math.min(sortSel, sels.get(i));
+            }
+        }
+        int numPages = ((HeapFile) dbf).numPages();
+        if (!sortPreds.isEmpty()
+                && Math.log(numPages + 1) / Math.log(2) + sortSel * numPages < bestCost) {
+            DbIterator plan = new ClusteredScan(t, table.t, table.alias, sortField, sortPreds);
+            for (Predicate p : preds) {
+                if (!sortPreds.contains(p))
+                    plan = new Filter(p, plan);
+            }
+            return plan;
+        }
+
+        if (bestIndex == null)
+            return null;
+
+        Predicate p = preds.get(bestPred);
+        DbIterator plan = new IndexScan(t, table.t, table.alias, bestIndex,
+                new IndexPredicate(p.getOp(), p.getOperand()), bestIndexOnly);
+        for (int i = 0; i < preds.size(); i++) {
+            if (i != bestPred)
+                plan = new Filter(preds.get(i), plan);
+        }
+        return plan;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are read through memory-mapped
+ * regions of the underlying file instead of being copied into a freshly
+ * allocated array on every read. HeapPages are built directly from the
+ * mapped bytes, so read-mostly tables whose data already sits in the
+ * operating system's page cache are not buffered a second time.
+ * <p>
+ * The file is mapped lazily, in regions of {@link #REGION_PAGES} pages of
+ * the default size (or a single page, for tables with larger pages).
+ * Writes still go through the HeapFile channel; because the mappings share
+ * the page cache with the channel, they see those writes immediately.
+ *
+ * @see HeapFile
+ * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of default-size pages covered by each mapped region of the file. */
+    public static final int REGION_PAGES = 256;
+
+    private transient ConcurrentHashMap<Integer, MappedByteBuffer> regions;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file
+     * whose pages use the specified layout.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages in f
+     */
+    public MappedHeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file
+     * whose pages use the specified layout and size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages in f
+     * @param pageSize
+     *            the size of each page of f in bytes
+     */
+    public MappedHeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
+        super(f, td, format, pageSize);
+        this.regions = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+    }
+
+    /**
+     * @return the number of pages of this file in each mapped region
+     */
+    private int regionPages() {
+        return Math.max(1, REGION_PAGES * BufferPool.PAGE_SIZE / getPageSize());
+    }
+
+    /**
+     * Returns the mapping of the specified region, (re)mapping it if it is
+     * not mapped yet or if the existing mapping is shorter than minLength
+     * bytes because the file has grown since it was mapped.
+     */
+    private MappedByteBuffer getRegion(int regionNo, int minLength) throws IOException {
+        MappedByteBuffer region = regions.get(regionNo);
+        if (region != null && region.capacity() >= minLength) {
+            return region;
+        }
+        synchronized (this) {
+            region = regions.get(regionNo);
+            if (region == null || region.capacity() < minLength) {
+                FileChannel ch = getChannel();
+                long regionSize = (long) regionPages() * getPageSize();
+                long start = regionNo * regionSize;
+                long len = Math.min(regionSize, ch.size() - start);
+                region = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+                regions.put(regionNo, region);
+            }
+            return region;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        int pageSize = getPageSize();
+        int regionNo = pid.pageNumber() / regionPages();
+        int start = (pid.pageNumber() % regionPages()) * pageSize;
+        int end = start + pageSize;
+        try {
+            MappedByteBuffer region = regions.get(regionNo);
+            if (region == null || region.capacity() < end) {
+                long offset = (long) pid.pageNumber() * pageSize;
+                if (offset + pageSize > getChannel().size()) {
+                    // the page is not on disk yet; a regular read yields
+                    // the empty page that will be appended there
+                    return super.readPage(pid);
+                }
+                region = getRegion(regionNo, end);
+            }
+            ByteBuffer page = region.duplicate();
+            page.limit(end);
+            page.position(start);
+            return newPage((HeapPageId) pid, page.slice());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Mapped files are never truncated: pages in the buffer pool may still
+     * refer to the mapped regions past the new end of the file.
+     */
+    @Override
+    protected boolean truncate(int expectedNumPages, int newNumPages) {
+        return false;
+    }
+
+    /**
+     * Drops all mappings of this file and closes its channel.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        regions.clear();
+        super.close();
+    }
+}
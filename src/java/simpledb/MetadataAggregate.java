@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * MetadataAggregate computes COUNT, MIN or MAX over a whole HeapFile, with
+ * no grouping, from the table's {@link ZoneMap} instead of reading every
+ * tuple. It produces the same output as an {@link Aggregate} over a
+ * SeqScan of the table.
+ * <p>
+ * COUNT adds up the tuple counts of the pages the zone map knows, and only
+ * reads the others. MIN (MAX) reads the pages in order of their recorded
+ * lower (upper) bound and stops at the first page whose bound cannot beat
+ * the best value found so far; since the bounds are exact until tuples are
+ * deleted, this usually reads a single page. MIN and MAX are only supported
+ * on int fields, like {@link IntegerAggregator}.
+ * <p>
+ * Every page of the table is read-locked, whether it is read or not, so
+ * the result is the same as that of a scan in the same transaction.
+ */
+public class MetadataAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final HeapFile f;
+    private DbIterator child;
+    private final int aField;
+    private final Aggregator.Op aOp;
+    private final TupleDesc td;
+    private Tuple result;
+    private boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction the aggregate runs as a part of.
+     * @param f
+     *            The table aggregated
+     * @param child
+     *            A scan of the table, which names the fields; it is never
+     *            opened
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param aop
+     *            The aggregation operator to use: COUNT, MIN or MAX
+     * @throws IllegalArgumentException if the operator cannot be answered
+     *             from the zone map
+     */
+    public MetadataAggregate(TransactionId tid, HeapFile f, DbIterator child, int afield, Aggregator.Op aop) {
+        if (!supports(aop, child.getTupleDesc().getFieldType(afield))) {
+            throw new IllegalArgumentException(aop + " over a " + child.getTupleDesc().getFieldType(afield)
+                    + " field cannot be answered from metadata");
+        }
+        this.tid = tid;
+        this.f = f;
+        this.child = child;
+        this.aField = afield;
+        this.aOp = aop;
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { "aggregateVal" });
+    }
+
+    /**
+     * @return true if an aggregate with the given operator over a field of
+     *         the given type can be answered from metadata
+     */
+    public static boolean supports(Aggregator.Op aop, Type fieldType) {
+        return aop == Aggregator.Op.COUNT
+                || ((aop == Aggregator.Op.MIN || aop == Aggregator.Op.MAX) && fieldType == Type.INT_TYPE);
+    }
+
+    /**
+     * @return the aggregate field
+     * */
+    public int aggregateField() {
+        return aField;
+    }
+
+    /**
+     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     *         tuples
+     * */
+    public String aggregateFieldName() {
+        return child.getTupleDesc().getFieldName(aField);
+    }
+
+    /**
+     * @return return the aggregate operator
+     * */
+    public Aggregator.Op aggregateOp() {
+        return aOp;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        BufferPool bp = Database.getBufferPool();
+        int numPages = f.numPages();
+        for (int i=0; i<numPages; i++) {
+            bp.lockPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        // like Aggregate, an empty table has no result
+        result = null;
+        if (aOp == Aggregator.Op.COUNT) {
+            int count = count(numPages);
+            if (count > 0) {
+                result = new Tuple(td);
+                result.setField(0, new IntField(count));
+            }
+        } else {
+            Integer best = extreme(numPages, aOp == Aggregator.Op.MIN);
+            if (best != null) {
+                result = new Tuple(td);
+                result.setField(0, new IntField(best));
+            }
+        }
+        done = false;
+    }
+
+    /**
+     * Reads a page, recording its range and count if the zone map did not
+     * know them.
+     */
+    private HeapPage readPage(int pgNo) throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        // a clean page is the page on disk
+        if (page.isDirty() == null) {
+            f.getZoneMap().learn(page);
+        }
+        return page;
+    }
+
+    private int count(int numPages) throws DbException, TransactionAbortedException {
+        ZoneMap zones = f.getZoneMap();
+        int count = 0;
+        for (int i=0; i<numPages; i++) {
+            if (zones.isKnown(i)) {
+                count += zones.getTupleCount(i);
+                continue;
+            }
+            Iterator<Tuple> it = readPage(i).iterator();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the smallest (or largest) value of the aggregate field, or
+     *         null if the table has no tuples
+     */
+    private Integer extreme(int numPages, final boolean min) throws DbException, TransactionAbortedException {
+        final ZoneMap zones = f.getZoneMap();
+        Integer best = null;
+        // pages whose range is unknown have to be read anyway
+        ArrayList<Integer> known = new ArrayList<Integer>();
+        for (int i=0; i<numPages; i++) {
+            if (zones.isKnown(i)) {
+                known.add(i);
+            } else {
+                best = better(best, readPage(i), min);
+            }
+        }
+        Collections.sort(known, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(bound(zones, a, min), bound(zones, b, min));
+                return min ? c : -c;
+            }
+        });
+        for (int pgNo : known) {
+            if (zones.getTupleCount(pgNo) == 0) {
+                continue;
+            }
+            long bound = bound(zones, pgNo, min);
+            if (best != null && (min ? bound >= best : bound <= best)) {
+                break;
+            }
+            best = better(best, readPage(pgNo), min);
+        }
+        return best;
+    }
+
+    private long bound(ZoneMap zones, int pgNo, boolean min) {
+        return min ? zones.getMin(pgNo, aField) : zones.getMax(pgNo, aField);
+    }
+
+    private Integer better(Integer best, HeapPage page, boolean min) {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(aField)).getValue();
+            if (best == null || (min ? v < best : v > best)) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (done || result == null) {
+            return null;
+        }
+        done = true;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        done = false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -32,6 +32,10 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof MetadataAggregate) {
+            // a single row, and the scan below it is never run
+            o.setEstimatedCardinality(1);
+            return false;
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
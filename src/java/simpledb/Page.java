@@ -7,7 +7,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -56,4 +56,12 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Returns the size of this page in bytes, which is also the share of
+     * the BufferPool's capacity the page takes.
+     *
+     * @return the size of this page in bytes
+     */
+    public int getPageSize();
 }
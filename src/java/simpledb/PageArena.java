@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PageArena is the off-heap memory of a {@link BufferPool}: direct
+ * ByteBuffers allocated once, when the pool is created, and divided into
+ * frames of a fixed size. The pool keeps the bytes of the heap pages it
+ * caches in these frames, so that however large the pool is, the garbage
+ * collector only sees a few small objects per cached page.
+ * <p>
+ * The frame table is a stack of the numbers of the free frames. A frame is
+ * taken for a page when it is read into the pool and given back when the
+ * page leaves it. Frames are not zeroed in between, so a page must only
+ * read the bytes it copied into its frame.
+ * <p>
+ * An arena is not thread safe; the pool uses it under its monitor.
+ */
+class PageArena {
+    /**
+     * Bytes per direct buffer of the arena. A ByteBuffer holds at most 2GB,
+     * so larger arenas take several buffers.
+     */
+    static final int CHUNK_SIZE = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    /** the free frames, on top of the stack from freeFrames[0] up */
+    private final int[] freeFrames;
+    private int free;
+
+    /**
+     * Allocates an arena of the given number of frames.
+     *
+     * @param frames the number of frames
+     * @param frameSize the size of each frame in bytes
+     * @throws OutOfMemoryError if there is not enough direct memory, see
+     *         the -XX:MaxDirectMemorySize option of the JVM
+     */
+    PageArena(int frames, int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerChunk = Math.max(1, CHUNK_SIZE / frameSize);
+        this.chunks = new ByteBuffer[(frames + framesPerChunk - 1) / framesPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            int n = Math.min(framesPerChunk, frames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(n * frameSize);
+        }
+        this.freeFrames = new int[frames];
+        // hand out the frames in address order
+        for (int i = 0; i < frames; i++) {
+            freeFrames[i] = frames - 1 - i;
+        }
+        this.free = frames;
+    }
+
+    /** @return the size of each frame in bytes */
+    int frameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames that are not taken */
+    int freeFrames() {
+        return free;
+    }
+
+    /**
+     * Takes a free frame.
+     *
+     * @return the number of the frame, or -1 if every frame is taken
+     */
+    int allocate() {
+        if (free == 0) {
+            return -1;
+        }
+        return freeFrames[--free];
+    }
+
+    /**
+     * Gives back a frame taken with {@link #allocate}.
+     */
+    void release(int frame) {
+        freeFrames[free++] = frame;
+    }
+
+    /**
+     * Returns a buffer over the first length bytes of a frame, positioned
+     * at its start.
+     */
+    ByteBuffer frame(int frame, int length) {
+        if (length > frameSize) {
+            throw new IllegalArgumentException("a frame holds " + frameSize + " bytes, not " + length);
+        }
+        int offset = (frame % framesPerChunk) * frameSize;
+        ByteBuffer buf = chunks[frame / framesPerChunk].duplicate();
+        buf.limit(offset + length);
+        buf.position(offset);
+        return buf.slice();
+    }
+}
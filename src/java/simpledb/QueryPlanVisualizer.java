@@ -13,8 +13,12 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX = "index";
+    static final String CLUSTERED = "clustered";
+    static final String INDEX_ONLY = "index only";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String METADATA = "metadata";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -65,24 +69,45 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan
+                || queryPlan instanceof ClusteredScan) {
+            String label, tableName, alias, condition = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                label = SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof ClusteredScan) {
+                ClusteredScan s = (ClusteredScan) queryPlan;
+                label = CLUSTERED;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                for (Predicate p : s.getPredicates())
+                    condition += "," + s.getTupleDesc().getFieldName(p.getField())
+                            + p.getOp() + p.getOperand();
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                label = s.isIndexOnly() ? INDEX_ONLY : INDEX;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ip = s.getIndexPredicate();
+                condition = "," + s.getTupleDesc().getFieldName(s.getIndex().getKeyField())
+                        + ip.getOp() + ip.getField();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", label, tableName + alias + condition);
+            if (label.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - label.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + label.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -165,18 +190,23 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof Aggregate || plan instanceof MetadataAggregate) {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
-                TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                TupleDesc td = plan.getTupleDesc();
 
-                if (gfield == Aggregator.NO_GROUPING) {
+                if (plan instanceof MetadataAggregate) {
+                    MetadataAggregate a = (MetadataAggregate) plan;
+                    thisNode.text = String.format("%1$s(%2$s),card:%3$d,%4$s",
+                            a.aggregateOp(), a.aggregateFieldName(), a.getEstimatedCardinality(), METADATA);
+                    alignTxt = td.getFieldName(00);
+                } else if (((Aggregate) plan).groupField() == Aggregator.NO_GROUPING) {
+                    Aggregate a = (Aggregate) plan;
                     thisNode.text = String.format("%1$s(%2$s),card:%3$d",
                             a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
+                    Aggregate a = (Aggregate) plan;
                     thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
                             GROUPBY, a.groupFieldName(), a.aggregateOp(),
                             a.aggregateFieldName(),a.getEstimatedCardinality());
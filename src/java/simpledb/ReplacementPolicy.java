@@ -0,0 +1,37 @@
+package simpledb;
+
+/**
+ * A ReplacementPolicy chooses which page the {@link BufferPool} evicts
+ * when it needs room for another one. The pool tells it about every frame
+ * it caches, hits and drops; all calls but {@link #hit} are made with the
+ * pool's monitor held.
+ *
+ * @see BufferPool.Replacement
+ */
+interface ReplacementPolicy {
+
+    /**
+     * Called when a page is read into the pool.
+     */
+    void admit(BufferPool.Frame f);
+
+    /**
+     * Called when getPage finds a page in the pool. This is called without
+     * the pool's monitor, concurrently with hits from other threads, so it
+     * should not do more than set per-frame state.
+     */
+    void hit(BufferPool.Frame f);
+
+    /**
+     * Called when a page leaves the pool, whether it was evicted or
+     * discarded.
+     */
+    void remove(BufferPool.Frame f);
+
+    /**
+     * Chooses the next page to evict among those the pool may evict.
+     *
+     * @return the frame to evict, or null if no frame may be evicted
+     */
+    BufferPool.Frame victim(BufferPool pool);
+}
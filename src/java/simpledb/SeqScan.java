@@ -13,6 +13,10 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFile f;
     private DbFileIterator fItr;
+    private List<Predicate> preds = new ArrayList<Predicate>();
+    private Set<Integer> columns = new TreeSet<Integer>();
+    /** true if a Bloom filter showed that no tuple can match */
+    private boolean ruledOut;
 
     private static final long serialVersionUID = 1L;
 
@@ -76,9 +80,83 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Pushes a predicate down into this scan, so that tuples which cannot
+     * satisfy it are skipped on the page without being decoded. The scan
+     * only applies the predicate where the underlying file supports it, so
+     * callers must still filter the output. An equality predicate on a
+     * field with a {@link BloomFilter} that rules its operand out makes
+     * the scan return nothing without reading the table.
+     *
+     * @param p
+     *            predicate over the fields of this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        preds.add(p);
+    }
+
+    /**
+     * Declares that the query reads the given field of this scan's output.
+     * If any fields are declared, files that store columns separately only
+     * read the declared ones and leave the other fields of the returned
+     * tuples null; if none are, every field is read.
+     *
+     * @param field
+     *            index of a field of this scan's TupleDesc
+     */
+    public void addColumn(int field) {
+        columns.add(field);
+    }
+
+    /**
+     * @return the fields declared by {@link #addColumn}, empty if every
+     *         field is read
+     */
+    public Set<Integer> getColumns() {
+        return Collections.unmodifiableSet(columns);
+    }
+
+    /**
+     * @return true if a Bloom filter of the table shows that no tuple has
+     *         the operand of an equality predicate of this scan
+     */
+    private boolean ruledOut() {
+        for (Predicate p : preds) {
+            if (p.getOp() == Predicate.Op.EQUALS) {
+                BloomFilter bloom = Database.getCatalog().getBloomFilter(tableid, p.getField());
+                if (bloom != null && !bloom.mightContain(p.getOperand())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the table is large enough compared to the buffer pool
+     *         for the scan to read it through a ring, judging by the
+     *         statistics of the table if there are any
+     */
+    private boolean isBulkRead(HeapFile hf) {
+        TableStats stats = TableStats.getTableStats(Database.getCatalog().getTableName(tableid));
+        int pages = stats != null ? stats.numPages() : hf.numPages();
+        return Database.getBufferPool().isBulkRead(pages, hf.getPageSize());
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         f = Database.getCatalog().getDbFile(tableid);
-        fItr = f.iterator(tid);
+        ruledOut = ruledOut();
+        if (ruledOut) {
+            return;
+        }
+        if (f instanceof ColumnFile) {
+            fItr = ((ColumnFile) f).iterator(tid, columns);
+        } else if (f instanceof HeapFile) {
+            // a sequential scan reads every page in order, so read ahead
+            fItr = ((HeapFile) f).iterator(tid, preds, true, isBulkRead((HeapFile) f));
+        } else {
+            fItr = f.iterator(tid);
+        }
         fItr.open();
     }
 
@@ -110,20 +188,32 @@ public class SeqScan implements DbIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (ruledOut) {
+            return false;
+        }
         return fItr.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (ruledOut) {
+            throw new NoSuchElementException();
+        }
         return fItr.next();
     }
 
     public void close() {
+        if (ruledOut) {
+            return;
+        }
         fItr.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        if (ruledOut) {
+            return;
+        }
         fItr.rewind();
     }
 }
@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>7){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -40,12 +40,73 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            // trailing options: the page format, page size, compression,
+            // column storage and dictionary-encoded fields, matching the
+            // format=, pagesize= and storage= options and the dict
+            // annotation of the catalog file
+            boolean slotted = false;
+            boolean compressed = false;
+            boolean columns = false;
+            int pageSize = BufferPool.PAGE_SIZE;
+            StringDictionary[] dicts = null;
+            for (int i=5; i<args.length; i++) {
+                if (args[i].toLowerCase().equals("slotted"))
+                    slotted = true;
+                else if (args[i].toLowerCase().equals("compressed"))
+                    compressed = true;
+                else if (args[i].toLowerCase().equals("columns"))
+                    columns = true;
+                else if (args[i].toLowerCase().startsWith("pagesize="))
+                    pageSize = Integer.parseInt(args[i].substring("pagesize=".length()));
+                else if (args[i].toLowerCase().startsWith("dict=")) {
+                    // comma separated indexes of the fields to encode
+                    dicts = new StringDictionary[numOfAttributes];
+                    for (String f : args[i].substring("dict=".length()).split(",")) {
+                        int field = Integer.parseInt(f.trim());
+                        if (ts[field] != Type.STRING_TYPE) {
+                            System.err.println("Field " + field + " is not a string field");
+                            return;
+                        }
+                        dicts[field] = new StringDictionary(StringDictionary.sidecarFor(targetDatFile, field));
+                    }
+                }
+                else {
+                    System.err.println("Unknown convert option " + args[i]);
+                    return;
+                }
+            }
+
+            if (dicts != null && (slotted || columns)) {
+                System.err.println("Dictionary-encoded fields need fixed pages in heap storage");
+                return;
+            }
+
+            if (columns) {
+                // the column files are named after the .dat file, see ColumnFile
+                HeapFileEncoder.convertColumns(sourceTxtFile,targetDatFile,
+                        pageSize,ts,fieldSeparator);
+                return;
+            }
+
+            File heapFile = targetDatFile;
+            if (compressed) {
+                heapFile = File.createTempFile("convert", ".dat");
+                heapFile.deleteOnExit();
+            }
+            if (slotted)
+                HeapFileEncoder.convertSlotted(sourceTxtFile,heapFile,
+                        pageSize,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,heapFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator,dicts);
+            if (compressed) {
+                CompressedHeapFile.convert(heapFile, targetDatFile, pageSize);
+                heapFile.delete();
+            }
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -68,6 +129,34 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("vacuum")) {
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            int pagesPerSecond = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            HeapFile table = Utility.openHeapFile(columns, tableFile);
+            System.out.println("before: " + Vacuum.report(table));
+            Vacuum vacuum = new Vacuum(table, pagesPerSecond);
+            vacuum.compact();
+            System.out.println("after: " + Vacuum.report(table));
+            table.close();
+        }
+        else if (args[0].equals("cluster")) {
+            if (args.length != 4) {
+                System.err.println("Usage: cluster catalogFile table field");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            int tableid = Database.getCatalog().getTableId(args[2]);
+            int field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(args[3]);
+            if (!Cluster.cluster(tableid, field)) {
+                System.err.println("Table " + args[2] + " cannot be clustered");
+                System.exit(1);
+            }
+            for (IndexFile index : Database.getCatalog().getIndexes(tableid)) {
+                index.sync();
+            }
+            ((HeapFile) Database.getCatalog().getDbFile(tableid)).close();
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,461 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage is a HeapPage that stores variable-length records behind a
+ * slot directory, so that short strings only take the space they need
+ * instead of the full {@link Type#STRING_LEN} bytes of a fixed slot.
+ * <p>
+ * The page starts with the number of entries in the slot directory,
+ * followed by one (offset, length) entry per slot. Records are packed
+ * against the end of the page and grow towards the directory; an entry with
+ * offset 0 is an empty slot. All of these are unsigned words of
+ * {@link #wordSize} bytes. Inside a record an int field takes 4 bytes and a
+ * string field takes a 2 byte length followed by its characters.
+ * <p>
+ * A slot number stays the same for the lifetime of its tuple, so RecordIds
+ * remain valid; the free space left by deleted records is reclaimed when
+ * the page is next written, since {@link #getPageData} packs the records
+ * it writes.
+ *
+ * @see HeapFile.PageFormat#SLOTTED
+ * @see HeapPage
+ */
+public class SlottedPage extends HeapPage {
+
+    private final int word;
+
+    /** offset of each record in the page data, 0 if the record is not on disk */
+    private int[] offsets;
+    /** length of each record, valid for used slots only */
+    private int[] lengths;
+    private boolean[] used;
+    /** sum of the lengths of all records on this page */
+    private int usedBytes;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described in the class comment. As for HeapPage, records
+     * are only decoded when asked for, so data must not be modified
+     * afterwards.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage directly from a buffer holding the page, read
+     * from its current position.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+        this.word = wordSize(pageSize);
+        this.header = new byte[0];
+
+        int n = getWord(this.data, 0, word);
+        if (word + 2 * word * n > pageSize) {
+            throw new IOException("corrupt slot directory on page " + id);
+        }
+        numSlots = n;
+        offsets = new int[n];
+        lengths = new int[n];
+        used = new boolean[n];
+        for (int i=0; i<n; i++) {
+            int entry = word + 2 * word * i;
+            offsets[i] = getWord(this.data, entry, word);
+            lengths[i] = getWord(this.data, entry + word, word);
+            used[i] = offsets[i] != 0;
+            if (used[i]) {
+                if (offsets[i] + lengths[i] > pageSize) {
+                    throw new IOException("corrupt slot " + i + " on page " + id);
+                }
+                usedBytes += lengths[i];
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes in each slot directory word on pages of
+     *         the given size
+     */
+    public static int wordSize(int pageSize) {
+        return pageSize <= 65536 ? 2 : 4;
+    }
+
+    private static int getWord(ByteBuffer buf, int offset, int word) {
+        if (word == 2) {
+            return buf.getShort(offset) & 0xffff;
+        }
+        return buf.getInt(offset);
+    }
+
+    private static void putWord(ByteBuffer buf, int offset, int word, int value) {
+        if (word == 2) {
+            buf.putShort(offset, (short) value);
+        } else {
+            buf.putInt(offset, value);
+        }
+    }
+
+    /**
+     * @return the number of bytes the record for t takes on a SlottedPage
+     */
+    public static int recordSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int i=0; i<td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                size += 2 + ((StringField) t.getField(i)).getValue().length();
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the largest possible record of td takes
+     */
+    private static int maxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i=0; i<td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                size += 2 + Type.STRING_LEN;
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    private static void putRecord(ByteBuffer buf, int offset, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i=0; i<td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                buf.putShort(offset, (short) s.length());
+                offset += 2;
+                // same encoding as DataOutputStream.writeBytes in StringField
+                for (int j=0; j<s.length(); j++) {
+                    buf.put(offset++, (byte) s.charAt(j));
+                }
+            } else {
+                buf.putInt(offset, ((IntField) f).getValue());
+                offset += 4;
+            }
+        }
+    }
+
+    /**
+     * Lays out the given tuples as a full SlottedPage, in slots 0..n-1.
+     * Used by {@link HeapFileEncoder} to build slotted files without a
+     * catalog.
+     *
+     * @throws IllegalArgumentException if the tuples do not fit on one page
+     * @see #pageBytesNeeded
+     */
+    public static byte[] createPageData(List<Tuple> records, int pageSize) {
+        byte[] out = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        int word = wordSize(pageSize);
+        if (pageBytesNeeded(records, pageSize) > pageSize) {
+            throw new IllegalArgumentException("records do not fit on one page");
+        }
+        putWord(buf, 0, word, records.size());
+        int end = pageSize;
+        for (int i=0; i<records.size(); i++) {
+            int len = recordSize(records.get(i));
+            end -= len;
+            putRecord(buf, end, records.get(i));
+            putWord(buf, word + 2 * word * i, word, end);
+            putWord(buf, word + 2 * word * i + word, word, len);
+        }
+        return out;
+    }
+
+    /**
+     * @return the number of bytes needed to store the given tuples on one
+     *         SlottedPage of the given size
+     */
+    public static int pageBytesNeeded(List<Tuple> records, int pageSize) {
+        int word = wordSize(pageSize);
+        int n = word;
+        for (Tuple t : records) {
+            n += 2 * word + recordSize(t);
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of bytes of this page not taken by the slot
+     *         directory or by records
+     */
+    private int freeBytes() {
+        return pageSize - word - 2 * word * numSlots - usedBytes;
+    }
+
+    private int firstFreeSlot() {
+        for (int i=0; i<numSlots; i++) {
+            if (!used[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decode one field of a record on disk, whose first byte is at offset.
+     */
+    private static Field readField(ByteBuffer data, Type type, int offset) {
+        if (type == Type.STRING_TYPE) {
+            int len = data.getShort(offset) & 0xffff;
+            byte[] bs = new byte[len];
+            ByteBuffer src = data.duplicate();
+            src.position(offset + 2);
+            src.get(bs);
+            return new StringField(new String(bs), Type.STRING_LEN);
+        }
+        return type.parse(data, offset);
+    }
+
+    private static int fieldLength(ByteBuffer data, Type type, int offset) {
+        if (type == Type.STRING_TYPE) {
+            return 2 + (data.getShort(offset) & 0xffff);
+        }
+        return type.getLen();
+    }
+
+    // see HeapPage.java for javadocs
+    @Override
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = decoded(slotId);
+        if (t == null) {
+            t = readRecord(slotId);
+            keepDecoded(slotId, t);
+        }
+        return t;
+    }
+
+    /**
+     * Decodes the record in the given slot, again if the page moved while
+     * it was read (see {@link HeapPage#moveData}).
+     */
+    private Tuple readRecord(int slotId) {
+        while (true) {
+            ByteBuffer buf = data;
+            try {
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, slotId));
+                int offset = offsets[slotId];
+                for (int j=0; j<td.numFields(); j++) {
+                    Type type = td.getFieldType(j);
+                    t.setField(j, readField(buf, type, offset));
+                    offset += fieldLength(buf, type, offset);
+                }
+                if (buf == data) {
+                    return t;
+                }
+            } catch (RuntimeException e) {
+                if (buf == data) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // see HeapPage.java for javadocs
+    @Override
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Tuple t = decoded(slotId);
+        if (t != null) {
+            return t.getField(fieldNo);
+        }
+        while (true) {
+            ByteBuffer buf = data;
+            try {
+                // records are variable length, so skip over the preceding fields
+                int offset = offsets[slotId];
+                for (int j=0; j<fieldNo; j++) {
+                    offset += fieldLength(buf, td.getFieldType(j), offset);
+                }
+                Field f = readField(buf, td.getFieldType(fieldNo), offset);
+                if (buf == data) {
+                    return f;
+                }
+            } catch (RuntimeException e) {
+                if (buf == data) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format described in the class comment. Records are packed against the
+     * end of the page, dropping the space left by deleted records, and
+     * trailing empty slots are left out of the directory.
+     */
+    @Override
+    public byte[] getPageData() {
+        while (true) {
+            ByteBuffer buf = data;
+            byte[] out = getPageData(buf);
+            if (buf == data) {
+                return out;
+            }
+        }
+    }
+
+    private byte[] getPageData(ByteBuffer data) {
+        byte[] out = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        int n = numSlots;
+        while (n > 0 && !used[n-1]) {
+            n--;
+        }
+        putWord(buf, 0, word, n);
+        int end = pageSize;
+        ByteBuffer src = null;
+        for (int i=0; i<n; i++) {
+            int entry = word + 2 * word * i;
+            if (!used[i]) {
+                continue;
+            }
+            int len = lengths[i];
+            end -= len;
+            Tuple t = decoded(i);
+            if (t != null) {
+                putRecord(buf, end, t);
+            } else {
+                // never decoded: copy the record as is
+                if (src == null) {
+                    src = data.duplicate();
+                }
+                src.limit(offsets[i] + len);
+                src.position(offsets[i]);
+                buf.position(end);
+                buf.put(src);
+            }
+            putWord(buf, entry, word, end);
+            putWord(buf, entry + word, word, len);
+        }
+        return out;
+    }
+
+    // see HeapPage.java for javadocs
+    @Override
+    public HeapPage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            if (before == null) {
+                before = getPageData();
+            }
+            return new SlottedPage(pid, before);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes free for
+     * reuse and its space is reclaimed when the page is next written.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        if (!t.getRecordId().getPageId().equals(this.getId())) {
+            throw new DbException("The tuple is not on this page");
+        }
+        int i = t.getRecordId().tupleno();
+        if (!isSlotUsed(i)) {
+            throw new DbException("The corresponding page is empty");
+        }
+        captureBeforeImage();
+        used[i] = false;
+        keep(i, null);
+        usedBytes -= lengths[i];
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("Tuple description is mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("The page is full");
+        }
+        captureBeforeImage();
+        int i = firstFreeSlot();
+        if (i < 0) {
+            i = numSlots++;
+            offsets = Arrays.copyOf(offsets, numSlots);
+            lengths = Arrays.copyOf(lengths, numSlots);
+            used = Arrays.copyOf(used, numSlots);
+            if (tuples != null) {
+                tuples = Arrays.copyOf(tuples, numSlots);
+            }
+        }
+        int len = recordSize(t);
+        used[i] = true;
+        keep(i, t);
+        offsets[i] = 0;
+        lengths[i] = len;
+        usedBytes += len;
+        t.setRecordId(new RecordId(this.getId(), i));
+    }
+
+    /**
+     * Returns true if the record for t and, if no slot is free, a new slot
+     * directory entry fit in the free space of this page.
+     */
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        if (!t.getTupleDesc().equals(this.td)) {
+            return false;
+        }
+        int needed = recordSize(t);
+        if (firstFreeSlot() < 0) {
+            needed += 2 * word;
+        }
+        return needed <= freeBytes();
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page. Smaller tuples may fit even when this is 0; use
+     * {@link #hasRoomFor} to check a particular tuple.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        return Math.max(0, freeBytes() / (2 * word + maxRecordSize(td)));
+    }
+
+    // see HeapPage.java for javadocs
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && used[i];
+    }
+}
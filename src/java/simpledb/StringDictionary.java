@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/**
+ * StringDictionary maps the distinct values of a dictionary-encoded string
+ * column to small integer codes. Pages of such a column store the 4-byte
+ * code of each value instead of its {@link Type#STRING_TYPE} encoding, and
+ * values read back are {@link DictStringField}s, which compare and hash by
+ * code against other values of the same dictionary.
+ * <p>
+ * Codes are assigned in order of first use and never change. The
+ * dictionary is kept in a sidecar file next to the table's data file
+ * (see {@link #sidecarFor}) that is only ever appended to; {@link #save}
+ * must be called before a page containing new codes is written.
+ *
+ * @see TupleDesc#getDictionary
+ */
+public class StringDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the number of bytes a code takes on a page */
+    public static final int CODE_LEN = 4;
+
+    private final File file;
+    private final ArrayList<DictStringField> fields = new ArrayList<DictStringField>();
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+    /** number of entries already in the sidecar file */
+    private int saved;
+
+    /**
+     * Returns the file holding the dictionary of the given column of the
+     * given data file.
+     */
+    public static File sidecarFor(File dataFile, int column) {
+        return new File(dataFile.getPath() + ".dict" + column);
+    }
+
+    /**
+     * Opens the dictionary stored in the specified file, or an empty one if
+     * the file does not exist.
+     *
+     * @param file the sidecar file storing the dictionary
+     * @throws IOException if the file exists but cannot be read
+     */
+    public StringDictionary(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                String s;
+                try {
+                    s = dis.readUTF();
+                } catch (EOFException e) {
+                    // end of file, or an entry torn by a crash during save;
+                    // no page can refer to a torn entry
+                    break;
+                }
+                add(s);
+            }
+        } finally {
+            dis.close();
+        }
+        saved = fields.size();
+    }
+
+    private int add(String s) {
+        int code = fields.size();
+        fields.add(new DictStringField(this, code, s));
+        codes.put(s, code);
+        return code;
+    }
+
+    /**
+     * Returns the code of the given string, adding it to the dictionary if
+     * it is not there yet. Strings are truncated to {@link Type#STRING_LEN}
+     * first, as StringFields are.
+     */
+    public synchronized int encode(String s) {
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        Integer code = codes.get(s);
+        if (code != null) {
+            return code;
+        }
+        return add(s);
+    }
+
+    /**
+     * Returns the code of the given string, or -1 if it is not in the
+     * dictionary.
+     */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the field for the given code. Fields are shared, so decoding
+     * a code allocates nothing.
+     *
+     * @throws NoSuchElementException if the code is not in the dictionary
+     */
+    public synchronized DictStringField decode(int code) throws NoSuchElementException {
+        if (code < 0 || code >= fields.size()) {
+            throw new NoSuchElementException("code " + code + " is not in dictionary " + file);
+        }
+        return fields.get(code);
+    }
+
+    /**
+     * Converts a constant to compare against values of this dictionary: the
+     * DictStringField of s if s is in the dictionary, so that comparisons
+     * for equality are made on codes, and a plain StringField otherwise.
+     */
+    public Field toField(String s) {
+        int code = lookup(s);
+        if (code < 0) {
+            return new StringField(s, Type.STRING_LEN);
+        }
+        return decode(code);
+    }
+
+    /**
+     * @return the number of distinct strings in the dictionary
+     */
+    public synchronized int size() {
+        return fields.size();
+    }
+
+    /**
+     * Appends the strings added since the last save to the sidecar file
+     * and forces them to disk.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (saved == fields.size()) {
+            return;
+        }
+        FileOutputStream fos = new FileOutputStream(file, true);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            for (int i=saved; i<fields.size(); i++) {
+                dos.writeUTF(fields.get(i).getValue());
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            dos.close();
+        }
+        saved = fields.size();
+    }
+}
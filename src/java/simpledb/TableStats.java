@@ -1,7 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -71,6 +73,7 @@ public class TableStats {
     private IntHistogram[] intHistograms;
     private StringHistogram[] strHistograms;
     private int ntups;
+    private int npages;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -93,11 +96,12 @@ public class TableStats {
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
         this.ntups = 0;
+        this.npages = pagesOf(Database.getCatalog().getDbFile(tableid));
         getHistogram();
     }
 
     private void getHistogram() {
-        HeapFile hf = (HeapFile)Database.getCatalog().getDbFile(tableid);
+        DbFile hf = Database.getCatalog().getDbFile(tableid);
         Transaction t = new Transaction();
         TransactionId tid = new TransactionId();
         DbFileIterator it = hf.iterator(tid);
@@ -134,6 +138,12 @@ public class TableStats {
                 }
             }
 
+            // the second pass also rebuilds the table's Bloom filters
+            List<BloomFilter> blooms = Database.getCatalog().getBloomFilters(tableid);
+            for (BloomFilter bloom : blooms) {
+                bloom.beginRebuild(ntups);
+            }
+
             intHistograms = new IntHistogram[td.numFields()];
             strHistograms = new StringHistogram[td.numFields()];
             for (int i=0; i<td.numFields(); i++) {
@@ -160,11 +170,28 @@ public class TableStats {
                         strHistograms[i].addValue(tmp);
                     }
                 }
+                for (BloomFilter bloom : blooms) {
+                    bloom.addScanned(tuple);
+                }
+            }
+            for (BloomFilter bloom : blooms) {
+                bloom.endRebuild();
             }
         } catch (TransactionAbortedException e) {
             e.printStackTrace();
         } catch (DbException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            // release the scan's locks, so that inserts into the table can
+            // proceed
+            it.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -181,8 +208,25 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        HeapFile hf = (HeapFile)Database.getCatalog().getDbFile(tableid);
-        return hf.numPages()*ioCostPerPage;
+        return pagesOf(Database.getCatalog().getDbFile(tableid))*ioCostPerPage;
+    }
+
+    private static int pagesOf(DbFile dbf) {
+        if (dbf instanceof ColumnFile) {
+            return ((ColumnFile) dbf).numPages();
+        }
+        if (dbf instanceof HeapFile) {
+            return ((HeapFile) dbf).numPages();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of pages a sequential scan of the table read when
+     *         the statistics were computed
+     */
+    public int numPages() {
+        return npages;
     }
 
     /**
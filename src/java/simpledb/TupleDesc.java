@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -12,6 +15,11 @@ public class TupleDesc implements Serializable {
      */
     private List<TDItem> TDList = new ArrayList<TDItem>();
 
+    /**
+     * Byte offset of each field within a serialized tuple, computed lazily
+     */
+    private transient int[] offsets;
+
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -29,6 +37,11 @@ public class TupleDesc implements Serializable {
          * */
         String fieldName;
 
+        /**
+         * The dictionary of a dictionary-encoded string field, or null
+         * */
+        StringDictionary dictionary;
+
         public TDItem(Type t, String n) {
             this.fieldName = n;
             this.fieldType = t;
@@ -67,6 +80,34 @@ public class TupleDesc implements Serializable {
         }
     }
 
+    /**
+     * Create a new TupleDesc describing stored tuples, some of whose string
+     * fields are dictionary-encoded: such fields take
+     * {@link StringDictionary#CODE_LEN} bytes in a serialized tuple and are
+     * read back as {@link DictStringField}s.
+     *
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param dictAr
+     *            array specifying the dictionary of each field, null for
+     *            fields that are not dictionary-encoded
+     * @throws IllegalArgumentException
+     *             if a field with a dictionary is not a string field
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, StringDictionary[] dictAr) {
+        this(typeAr, fieldAr);
+        for (int i=0; i<typeAr.length; i++) {
+            if (dictAr[i] != null && typeAr[i] != Type.STRING_TYPE) {
+                throw new IllegalArgumentException("field " + fieldAr[i] + " is not a string field");
+            }
+            TDList.get(i).dictionary = dictAr[i];
+        }
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -121,6 +162,69 @@ public class TupleDesc implements Serializable {
         return TDList.get(i).fieldType;
     }
 
+    /**
+     * Gets the dictionary of the ith field of this TupleDesc.
+     *
+     * @return the dictionary, or null if the field is not dictionary-encoded
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public StringDictionary getDictionary(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numFields()) {
+            throw new NoSuchElementException();
+        }
+        return TDList.get(i).dictionary;
+    }
+
+    /**
+     * @return true if any field of this TupleDesc is dictionary-encoded
+     */
+    public boolean hasDictionaries() {
+        for (TDItem item : TDList) {
+            if (item.dictionary != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of bytes the ith field takes in a serialized tuple:
+     * the length of its type, or of a code for dictionary-encoded fields.
+     */
+    public int getFieldLen(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numFields()) {
+            throw new NoSuchElementException();
+        }
+        TDItem item = TDList.get(i);
+        return item.dictionary != null ? StringDictionary.CODE_LEN : item.fieldType.getLen();
+    }
+
+    /**
+     * Reads the ith field of a serialized tuple from buf at the given
+     * absolute offset, without changing the buffer's position.
+     */
+    public Field parseField(int i, ByteBuffer buf, int offset) {
+        TDItem item = TDList.get(i);
+        if (item.dictionary != null) {
+            return item.dictionary.decode(buf.getInt(offset));
+        }
+        return item.fieldType.parse(buf, offset);
+    }
+
+    /**
+     * Writes f as the ith field of a serialized tuple, adding its value to
+     * the field's dictionary if it is dictionary-encoded and the value is new.
+     */
+    public void serializeField(int i, Field f, DataOutputStream dos) throws IOException {
+        TDItem item = TDList.get(i);
+        if (item.dictionary != null) {
+            dos.writeInt(item.dictionary.encode(((StringField) f).getValue()));
+        } else {
+            f.serialize(dos);
+        }
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -141,14 +245,42 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size;
+     *         dictionary-encoded fields take the size of their code.
      */
     public int getSize() {
-        int ans = 0;
-        for (TDItem i: TDList) {
-            ans += i.fieldType.getLen();
+        int[] off = getOffsets();
+        return off[off.length - 1];
+    }
+
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple of
+     * this TupleDesc, so that a single field can be read without decoding
+     * the fields in front of it.
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @return the offset (in bytes) of the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numFields()) {
+            throw new NoSuchElementException();
+        }
+        return getOffsets()[i];
+    }
+
+    private int[] getOffsets() {
+        int[] off = offsets;
+        if (off == null) {
+            off = new int[TDList.size() + 1];
+            for (int i=0; i<TDList.size(); i++) {
+                off[i+1] = off[i] + getFieldLen(i);
+            }
+            offsets = off;
         }
-        return ans;
+        return off;
     }
 
     /**
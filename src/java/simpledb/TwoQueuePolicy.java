@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * TwoQueuePolicy is the scan resistant 2Q replacement policy of Johnson
+ * and Shasha. A page read into the pool for the first time goes to a FIFO
+ * queue, A1in, that holds at most a quarter of the pool, and is evicted
+ * from there without displacing any other page. The ids of pages evicted
+ * from A1in are remembered in a queue of ghosts, A1out, for about half as
+ * many pages as the pool holds; a page that is read again while its ghost
+ * is remembered has been reused, and goes to the main part of the pool,
+ * Am. Am is replaced with {@link ClockPolicy CLOCK}, an approximation of
+ * the LRU order of the original, so that hits stay a bit store.
+ * <p>
+ * A scan thus only cycles its pages through A1in, and pages that are used
+ * over and over, such as index roots or small dimension tables, stay in
+ * Am. Hits on pages in A1in are ignored, since repeated uses of a page
+ * right after it is read, e.g. for each tuple of the page, say nothing
+ * about whether it will be used again later.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+    private final long inLimit;
+    private final int outLimit;
+    /** A1in, oldest first */
+    private final LinkedHashSet<BufferPool.Frame> in = new LinkedHashSet<BufferPool.Frame>();
+    private long inBytes;
+    /** A1out, oldest first */
+    private final LinkedHashSet<PageId> out = new LinkedHashSet<PageId>();
+    /** Am */
+    private final ClockPolicy main = new ClockPolicy();
+
+    /**
+     * @param capacity the capacity of the pool in bytes
+     */
+    TwoQueuePolicy(long capacity) {
+        this.inLimit = capacity / 4;
+        this.outLimit = (int) Math.max(1, capacity / BufferPool.PAGE_SIZE / 2);
+    }
+
+    public void admit(BufferPool.Frame f) {
+        if (out.remove(f.pid)) {
+            f.inMain = true;
+            main.admit(f);
+        } else {
+            f.inMain = false;
+            in.add(f);
+            inBytes += f.size;
+        }
+    }
+
+    public void hit(BufferPool.Frame f) {
+        if (f.inMain) {
+            main.hit(f);
+        }
+    }
+
+    public void remove(BufferPool.Frame f) {
+        if (f.inMain) {
+            main.remove(f);
+        } else if (in.remove(f)) {
+            inBytes -= f.size;
+        }
+    }
+
+    /**
+     * Evicts from A1in while it holds more than its share of the pool, and
+     * from Am otherwise; if the queue chosen has no page that may be
+     * evicted, from the other one.
+     */
+    public BufferPool.Frame victim(BufferPool pool) {
+        BufferPool.Frame f = null;
+        if (inBytes > inLimit) {
+            f = oldestIn(pool);
+        }
+        if (f == null) {
+            f = main.victim(pool);
+        }
+        if (f == null) {
+            f = oldestIn(pool);
+        }
+        return f;
+    }
+
+    /**
+     * @return the oldest page of A1in that may be evicted, remembering it
+     *         in A1out, or null if there is none
+     */
+    private BufferPool.Frame oldestIn(BufferPool pool) {
+        for (BufferPool.Frame f : in) {
+            if (pool.evictable(f)) {
+                out.add(f.pid);
+                if (out.size() > outLimit) {
+                    Iterator<PageId> it = out.iterator();
+                    it.next();
+                    it.remove();
+                }
+                return f;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Vacuum compacts a HeapFile online: deleting a tuple only frees its slot,
+ * so a table with heavy delete churn keeps all of its pages, and scans keep
+ * reading them. Vacuum moves the tuples of the last pages of the file into
+ * free slots of earlier pages, then cuts the emptied pages off the end of
+ * the file.
+ * <p>
+ * Each page is moved by a transaction of its own, which deletes its tuples
+ * and inserts them again through the buffer pool, so indexes of the table
+ * follow the tuples to their new record ids. Other transactions can use the
+ * table meanwhile; a move that deadlocks with them is rolled back, and ends
+ * the run. The I/O of a run can be bounded to a number of pages per second,
+ * so that a vacuum running in the background (see {@link #start}) does not
+ * starve queries.
+ * <p>
+ * Files whose end cannot be cut off ({@link MappedHeapFile},
+ * {@link CompressedHeapFile}) are still compacted, but keep their length.
+ *
+ * @see #report
+ */
+public class Vacuum implements Runnable {
+
+    private final HeapFile f;
+    private final int pagesPerSecond;
+    private volatile boolean stopped;
+
+    /** pages read or written so far, for throttling */
+    private long ioPages;
+    private long startNanos;
+    private int pagesMoved;
+    private int pagesTruncated;
+
+    /**
+     * Creates a vacuum of the specified table.
+     *
+     * @param f the table to compact
+     * @param pagesPerSecond the most pages the vacuum reads or writes per
+     *            second, or 0 for no limit
+     */
+    public Vacuum(HeapFile f, int pagesPerSecond) {
+        this.f = f;
+        this.pagesPerSecond = pagesPerSecond;
+    }
+
+    /**
+     * Runs the vacuum in a background thread.
+     *
+     * @return the thread, which ends when the vacuum is done or stopped
+     */
+    public Thread start() {
+        Thread t = new Thread(this, "vacuum " + f.getFile().getName());
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Makes a running vacuum stop after the page it is moving.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    // see Runnable.java for javadocs
+    @Override
+    public void run() {
+        try {
+            compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (DbException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the number of pages whose tuples were moved to earlier pages
+     */
+    public int getPagesMoved() {
+        return pagesMoved;
+    }
+
+    /**
+     * @return the number of pages cut off the end of the file
+     */
+    public int getPagesTruncated() {
+        return pagesTruncated;
+    }
+
+    /**
+     * Moves the tuples of the last pages of the file to earlier pages, for as
+     * long as earlier pages have room, then truncates the file after the
+     * last page that holds tuples.
+     *
+     * @return the number of pages cut off the end of the file
+     */
+    public int compact() throws IOException, DbException {
+        startNanos = System.nanoTime();
+        ioPages = 0;
+        FreeSpaceMap fsm = f.getFreeSpaceMap();
+        for (int src=f.numPages() - 1; src>0 && !stopped; src--) {
+            // only pages before src are of any use
+            if (fsm.findPage(src, 0) < 0 || !movePage(src)) {
+                break;
+            }
+        }
+        if (!stopped) {
+            truncate();
+        }
+        return pagesTruncated;
+    }
+
+    /**
+     * Moves the tuples of a page to earlier pages in a transaction.
+     *
+     * @return false if they did not all fit, in which case nothing is moved
+     */
+    private boolean movePage(int src) throws IOException, DbException {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        Set<Integer> touched = new HashSet<Integer>();
+        touched.add(src);
+        try {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), src),
+                    Permissions.READ_WRITE);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                tuples.add(it.next());
+            }
+            for (Tuple t : tuples) {
+                bp.deleteTuple(tid, t);
+                // the insert sets the tuple's new record id
+                bp.insertTuple(tid, f.getId(), t);
+                int dest = t.getRecordId().getPageId().pageNumber();
+                if (dest >= src) {
+                    bp.transactionComplete(tid, false);
+                    return false;
+                }
+                touched.add(dest);
+            }
+            bp.transactionComplete(tid);
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        }
+        if (touched.size() > 1) {
+            pagesMoved++;
+        }
+        // each page is read once and written once
+        throttle(2 * touched.size());
+        return true;
+    }
+
+    /**
+     * Cuts the empty pages at the end of the file off, holding write locks
+     * on them so that no transaction can insert into them meanwhile.
+     */
+    private void truncate() throws IOException, DbException {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        try {
+            int n = f.numPages();
+            int keep = n;
+            while (keep > 0 && !stopped) {
+                HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), keep - 1),
+                        Permissions.READ_WRITE);
+                throttle(1);
+                if (page.iterator().hasNext()) {
+                    break;
+                }
+                keep--;
+            }
+            if (keep < n && f.truncate(n, keep)) {
+                for (int i=keep; i<n; i++) {
+                    bp.discardPage(new HeapPageId(f.getId(), i));
+                }
+                pagesTruncated += n - keep;
+            }
+            bp.transactionComplete(tid);
+            f.sync();
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+        }
+    }
+
+    /**
+     * Sleeps for as long as it takes to keep the I/O of this run at or
+     * below the rate limit, after another pages pages of I/O.
+     */
+    private void throttle(int pages) {
+        if (pagesPerSecond <= 0) {
+            return;
+        }
+        ioPages += pages;
+        long due = startNanos + ioPages * 1000000000L / pagesPerSecond;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+    }
+
+    /**
+     * Reports how full the pages of a table are, to tell whether it is
+     * worth compacting. The counts come from the table's metadata where
+     * it covers a page (see {@link ZoneMap} and {@link FreeSpaceMap}), and
+     * from the page itself otherwise. Every page is read-locked while the
+     * report is made.
+     */
+    public static Report report(HeapFile f) throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        ZoneMap zones = f.getZoneMap();
+        FreeSpaceMap fsm = f.getFreeSpaceMap();
+        TransactionId tid = new TransactionId();
+        Report r = new Report();
+        try {
+            r.numPages = f.numPages();
+            for (int i=0; i<r.numPages; i++) {
+                HeapPageId pid = new HeapPageId(f.getId(), i);
+                bp.lockPage(tid, pid, Permissions.READ_ONLY);
+                int tuples, free;
+                if (zones.isKnown(i) && fsm.getFreeSlots(i) != FreeSpaceMap.UNKNOWN) {
+                    tuples = zones.getTupleCount(i);
+                    free = fsm.getFreeSlots(i);
+                } else {
+                    HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    if (page.isDirty() == null) {
+                        zones.learn(page);
+                    }
+                    free = page.getNumEmptySlots();
+                    fsm.setFreeSlots(i, free);
+                    tuples = 0;
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        it.next();
+                        tuples++;
+                    }
+                }
+                r.numTuples += tuples;
+                r.numFreeSlots += free;
+                if (tuples == 0) {
+                    r.numEmptyPages++;
+                }
+            }
+        } finally {
+            bp.transactionComplete(tid);
+        }
+        return r;
+    }
+
+    /**
+     * How full the pages of a table are, as computed by {@link #report}.
+     */
+    public static class Report {
+        private int numPages;
+        private long numTuples;
+        private long numFreeSlots;
+        private int numEmptyPages;
+
+        public int getNumPages() {
+            return numPages;
+        }
+
+        public long getNumTuples() {
+            return numTuples;
+        }
+
+        /**
+         * @return the number of tuples that still fit on the pages
+         */
+        public long getNumFreeSlots() {
+            return numFreeSlots;
+        }
+
+        public int getNumEmptyPages() {
+            return numEmptyPages;
+        }
+
+        /**
+         * @return the fraction of the slots of the table that hold tuples
+         */
+        public double getFillFactor() {
+            long slots = numTuples + numFreeSlots;
+            return slots == 0 ? 1.0 : (double) numTuples / slots;
+        }
+
+        /**
+         * @return the number of pages the tuples would take up if every
+         *         page were full
+         */
+        public int getMinPages() {
+            long slots = numTuples + numFreeSlots;
+            if (slots == 0) {
+                return 0;
+            }
+            return (int) Math.ceil((double) numTuples * numPages / slots);
+        }
+
+        public String toString() {
+            return String.format("%d pages, %d tuples, fill factor %.2f, %d empty pages, %d pages when compacted",
+                    numPages, numTuples, getFillFactor(), numEmptyPages, getMinPages());
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * ZoneMap records the smallest and largest value of each field on each page
+ * of a HeapFile, so that a filtered scan can skip pages whose range cannot
+ * satisfy its predicates without locking or reading them. On tables that
+ * are clustered on a field, e.g. ones appended to in time order, a range
+ * filter on that field then only reads the pages holding matching tuples.
+ * <p>
+ * Int fields are summarized by their value, string fields by the first
+ * {@link #PREFIX_CHARS} characters (see {@link #prefixKey}), which orders
+ * strings like their full values do but cannot tell apart strings with the
+ * same prefix; such comparisons only skip a page if every string on it
+ * differs from the operand within the prefix.
+ * <p>
+ * A recorded range must contain every value on the page, on disk or in the
+ * buffer pool. Inserts widen the range of the page they go to, and the
+ * exact range is recomputed whenever a page is written to disk or restored
+ * by an abort; deletes leave the range as it is, which only makes it wider
+ * than needed. Pages the map knows nothing about, such as pages written
+ * before the map existed, are never skipped, and are learnt the first time
+ * a scan reads them.
+ * <p>
+ * The map also counts the tuples on each page it knows. Unlike the ranges,
+ * the counts are exact: that of the page in the buffer pool, including
+ * changes by the transaction holding its write lock, and that of the page
+ * on disk, which is what the sidecar file stores. A caller that holds a
+ * read lock on a page can use its count in place of reading it (see
+ * {@link MetadataAggregate}).
+ * <p>
+ * The map is kept in a sidecar file next to the table's data file (see
+ * {@link #sidecarFor}). Since a stale range could hide tuples, the sidecar
+ * file is deleted before the first write that changes a range, and only
+ * rewritten by {@link #save} once the pages it describes are on disk: a
+ * caller takes a {@link #mark} before forcing the data file, and the save
+ * is put off if any page write was in progress or started since.
+ *
+ * @see HeapFileIterator
+ */
+public class ZoneMap {
+
+    /** number of leading characters of a string a range records */
+    public static final int PREFIX_CHARS = 3;
+
+    private final File file;
+    private final File dataFile;
+    private final TupleDesc td;
+    private final int numFields;
+    /** mins[pgNo * numFields + i] is the smallest key of field i on page pgNo */
+    private long[] mins;
+    private long[] maxs;
+    private boolean[] known;
+    /** number of tuples on each known page, in the buffer pool and on disk */
+    private int[] counts;
+    private int[] diskCounts;
+    private boolean dirty;
+    /** true if the sidecar file may no longer describe the data file */
+    private boolean invalidated;
+    /** number of page writes started, and of those not finished yet */
+    private long writesStarted;
+    private int writesInProgress;
+
+    /**
+     * Returns the file holding the zone map of the given data file.
+     */
+    public static File sidecarFor(File dataFile) {
+        return new File(dataFile.getPath() + ".zone");
+    }
+
+    /**
+     * Opens the zone map of the specified data file. If its sidecar file
+     * does not exist, cannot be read, or was saved when the data file had a
+     * different length (e.g. the data file was rewritten since), the map
+     * starts out empty, i.e. no page is skipped until its range is
+     * recorded.
+     *
+     * @param dataFile the data file of the table
+     * @param td the schema of the tuples of the table
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.file = sidecarFor(dataFile);
+        this.dataFile = dataFile;
+        this.td = td;
+        this.numFields = td.numFields();
+        clearAll();
+        if (file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                // a missing range only costs a page read
+                e.printStackTrace();
+                clearAll();
+            }
+        }
+    }
+
+    private void clearAll() {
+        mins = new long[0];
+        maxs = new long[0];
+        known = new boolean[0];
+        counts = new int[0];
+        diskCounts = new int[0];
+    }
+
+    private void load() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int n = dis.readInt();
+            int fields = dis.readInt();
+            long length = dis.readLong();
+            if (n < 0 || fields != numFields
+                    || 16 + (long) n * (5 + 16L * numFields) != file.length()) {
+                throw new IOException("corrupt zone map " + file);
+            }
+            if (length != dataFile.length()) {
+                return;
+            }
+            ensureCapacity(n);
+            for (int p=0; p<n; p++) {
+                known[p] = dis.readBoolean();
+                counts[p] = diskCounts[p] = dis.readInt();
+                for (int i=0; i<numFields; i++) {
+                    mins[p * numFields + i] = dis.readLong();
+                    maxs[p * numFields + i] = dis.readLong();
+                }
+            }
+        } finally {
+            dis.close();
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > known.length) {
+            int len = Math.max(n, known.length * 2);
+            known = Arrays.copyOf(known, len);
+            counts = Arrays.copyOf(counts, len);
+            diskCounts = Arrays.copyOf(diskCounts, len);
+            mins = Arrays.copyOf(mins, len * numFields);
+            maxs = Arrays.copyOf(maxs, len * numFields);
+        }
+    }
+
+    /**
+     * Maps a string to a long that compares like the string's first
+     * {@link #PREFIX_CHARS} characters: each character takes 17 bits, one
+     * more than its value, so that a missing character sorts before any
+     * character.
+     */
+    static long prefixKey(String s) {
+        long key = 0;
+        for (int i=0; i<PREFIX_CHARS; i++) {
+            key = (key << 17) | (i < s.length() ? s.charAt(i) + 1 : 0);
+        }
+        return key;
+    }
+
+    private static long key(Field f) {
+        if (f.getType() == Type.INT_TYPE) {
+            return ((IntField) f).getValue();
+        }
+        return prefixKey(((StringField) f).getValue());
+    }
+
+    /**
+     * Returns true unless the recorded range of the given page shows that
+     * none of its tuples satisfies all of the predicates.
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> preds) {
+        if (pgNo >= known.length || !known[pgNo]) {
+            return true;
+        }
+        for (Predicate p : preds) {
+            if (!mayMatch(pgNo, p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean mayMatch(int pgNo, Predicate p) {
+        int field = p.getField();
+        Type type = td.getFieldType(field);
+        if (p.getOperand().getType() != type) {
+            return true;
+        }
+        long min = mins[pgNo * numFields + field];
+        long max = maxs[pgNo * numFields + field];
+        if (min > max) {
+            // a page without tuples
+            return false;
+        }
+        long v = key(p.getOperand());
+        // strings with the operand's prefix may fall on either side of it
+        boolean exact = type == Type.INT_TYPE;
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case LESS_THAN:
+            return exact ? min < v : min <= v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case GREATER_THAN:
+            return exact ? max > v : max >= v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case NOT_EQUALS:
+            return !exact || min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Widens the recorded range of the given page to include the tuple
+     * inserted into it. Pages without a recorded range are left unknown.
+     * The sidecar file may keep the narrower range until the page is
+     * written, since it only describes the pages on disk.
+     */
+    public synchronized void widen(int pgNo, Tuple t) {
+        if (pgNo >= known.length || !known[pgNo]) {
+            return;
+        }
+        for (int i=0; i<numFields; i++) {
+            long k = key(t.getField(i));
+            int idx = pgNo * numFields + i;
+            mins[idx] = Math.min(mins[idx], k);
+            maxs[idx] = Math.max(maxs[idx], k);
+        }
+        counts[pgNo]++;
+        dirty = true;
+    }
+
+    /**
+     * Records that a tuple was deleted from the given page. Its range is
+     * left as it is.
+     */
+    public synchronized void tupleDeleted(int pgNo) {
+        if (pgNo < known.length && known[pgNo]) {
+            counts[pgNo]--;
+        }
+    }
+
+    /**
+     * Must be called before a page is written to disk, so that the sidecar
+     * file cannot describe a page that changed under it.
+     */
+    public synchronized void beginWrite() {
+        invalidate();
+        writesStarted++;
+        writesInProgress++;
+    }
+
+    /**
+     * Records the exact range of a page after it was written to disk; each
+     * call must follow a call to {@link #beginWrite}.
+     */
+    public synchronized void pageWritten(HeapPage page) {
+        record(page);
+        writesInProgress--;
+    }
+
+    /**
+     * Records the range of a page read from disk whose range is not
+     * known. The page must not have been modified since it was read, so
+     * that the range holds for the page on disk.
+     */
+    public synchronized void learn(HeapPage page) {
+        int pgNo = page.getId().pageNumber();
+        if (pgNo >= known.length || !known[pgNo]) {
+            record(page);
+        }
+    }
+
+    /**
+     * Records the exact range of a page whose changes were rolled back, i.e.
+     * of the before image that replaced it in the buffer pool, which is also
+     * the page on disk.
+     */
+    public synchronized void pageRestored(HeapPage before) {
+        record(before);
+    }
+
+    /**
+     * Forgets the pages at and after numPages, which were cut off the end
+     * of the file.
+     */
+    public synchronized void truncate(int numPages) {
+        for (int i=numPages; i<known.length; i++) {
+            if (known[i]) {
+                known[i] = false;
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the range of the given page is recorded
+     */
+    public synchronized boolean isKnown(int pgNo) {
+        return pgNo < known.length && known[pgNo];
+    }
+
+    /**
+     * @return the number of tuples on the given page, which must be known
+     */
+    public synchronized int getTupleCount(int pgNo) {
+        return counts[pgNo];
+    }
+
+    /**
+     * @return the recorded lower bound of the given int field on the given
+     *         page, which must be known; larger than {@link #getMax} if
+     *         the page has no tuples
+     */
+    public synchronized long getMin(int pgNo, int field) {
+        return mins[pgNo * numFields + field];
+    }
+
+    /**
+     * @return the recorded upper bound of the given int field on the given
+     *         page, which must be known
+     */
+    public synchronized long getMax(int pgNo, int field) {
+        return maxs[pgNo * numFields + field];
+    }
+
+    private void record(HeapPage page) {
+        int pgNo = page.getId().pageNumber();
+        ensureCapacity(pgNo + 1);
+        int base = pgNo * numFields;
+        Arrays.fill(mins, base, base + numFields, Long.MAX_VALUE);
+        Arrays.fill(maxs, base, base + numFields, Long.MIN_VALUE);
+        int n = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int i=0; i<numFields; i++) {
+                long k = key(t.getField(i));
+                mins[base + i] = Math.min(mins[base + i], k);
+                maxs[base + i] = Math.max(maxs[base + i], k);
+            }
+            n++;
+        }
+        counts[pgNo] = diskCounts[pgNo] = n;
+        known[pgNo] = true;
+        dirty = true;
+    }
+
+    /**
+     * Deletes the sidecar file before the first change to a range that the
+     * data file on disk may not reflect yet.
+     */
+    private void invalidate() {
+        if (!invalidated) {
+            if (file.exists() && !file.delete()) {
+                System.err.println("cannot delete zone map " + file);
+            }
+            invalidated = true;
+        }
+    }
+
+    /**
+     * Returns a mark to pass to {@link #save} once the data file has been
+     * forced to disk.
+     */
+    public synchronized long mark() {
+        return writesInProgress > 0 ? -1 : writesStarted;
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed, unless a page
+     * write was in progress when the mark was taken or has started since,
+     * in which case the map stays dirty until a later save.
+     *
+     * @param mark the value {@link #mark} returned before the data file was
+     *             forced to disk
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(long mark) throws IOException {
+        if (!dirty || mark < 0 || mark != writesStarted) {
+            return;
+        }
+        // trailing unknown pages carry no information
+        int n = known.length;
+        while (n > 0 && !known[n-1]) {
+            n--;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            dos.writeInt(n);
+            dos.writeInt(numFields);
+            dos.writeLong(dataFile.length());
+            for (int p=0; p<n; p++) {
+                dos.writeBoolean(known[p]);
+                dos.writeInt(diskCounts[p]);
+                for (int i=0; i<numFields; i++) {
+                    dos.writeLong(mins[p * numFields + i]);
+                    dos.writeLong(maxs[p * numFields + i]);
+                }
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+        invalidated = false;
+    }
+}
@@ -0,0 +1,297 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+    /** small enough for a few thousand entries to need several levels */
+    private static final int SMALL_PAGE = 128;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+    }
+
+    private BTreeFile createIndex(int pageSize) throws Exception {
+        File f = BTreeFile.indexFileFor(hf.getFile(), 0);
+        BTreeFile index = new BTreeFile(f, hf.getId(), 0, Type.INT_TYPE, pageSize);
+        index.build(hf);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * @return the number of tuples an IndexScan returns for key op value,
+     *         checking that each satisfies the predicate and that they come
+     *         in key order
+     */
+    private int lookup(BTreeFile index, Predicate.Op op, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(op, new IntField(value)));
+        scan.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertTrue(new IntField(key).compare(op, new IntField(value)));
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    private int expected(Predicate.Op op, int value) {
+        int count = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                count++;
+        }
+        return count;
+    }
+
+    private void checkLookups(BTreeFile index) throws Exception {
+        for (int v : new int[] { -1, 0, 7, MAX_VALUE / 2, MAX_VALUE - 1, MAX_VALUE }) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                    Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                    Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+                assertEquals(op + " " + v, expected(op, v), lookup(index, op, v));
+            }
+        }
+    }
+
+    /**
+     * An index built from a table finds the same tuples as a scan of it
+     */
+    @Test public void buildAndLookup() throws Exception {
+        BTreeFile index = createIndex(BufferPool.PAGE_SIZE);
+        assertEquals(2, index.height());
+        checkLookups(index);
+    }
+
+    /**
+     * Inserts through the buffer pool split leaves and internal nodes,
+     * including the root, and every entry can still be found
+     */
+    @Test public void insertWithSplits() throws Exception {
+        BTreeFile index = createIndex(SMALL_PAGE);
+        assertTrue(index.height() > 3);
+        checkLookups(index);
+
+        // start from an empty table, whose root is a leaf
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, MAX_VALUE, null, tuples);
+        index = createIndex(SMALL_PAGE);
+        assertEquals(1, index.height());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { i % 50, i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.height() > 3);
+        checkLookups(index);
+
+        // the leaves hold every entry in order
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * Two transactions inserting into the same full leaf, here the
+     * right-most one fed by ascending keys, do not deadlock each other
+     */
+    @Test public void concurrentInsertsIntoFullLeaf() throws Exception {
+        final BTreeFile index = createIndex(SMALL_PAGE);
+        assertTrue(index.height() > 2);
+        final int inserts = 300;
+        final int[] aborts = new int[1];
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; ++i) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < inserts; ++j) {
+                            // the index only needs a record id in the table
+                            Tuple t = Utility.getHeapTuple(new int[] { MAX_VALUE + 1 + j, 0 });
+                            t.setRecordId(new RecordId(new HeapPageId(hf.getId(), 0), thread * inserts + j));
+                            while (true) {
+                                TransactionId tid = new TransactionId();
+                                try {
+                                    for (Page p : index.insertTuple(tid, t))
+                                        p.markDirty(true, tid);
+                                    Database.getBufferPool().transactionComplete(tid);
+                                    break;
+                                } catch (TransactionAbortedException e) {
+                                    Database.getBufferPool().transactionComplete(tid, false);
+                                    synchronized (aborts) {
+                                        aborts[0]++;
+                                    }
+                                }
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (failure[0] != null)
+            throw new AssertionError(failure[0]);
+        assertEquals(0, aborts[0]);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() > MAX_VALUE)
+                count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(threads.length * inserts, count);
+    }
+
+    /**
+     * Deleted tuples are removed from the index
+     */
+    @Test public void delete() throws Exception {
+        BTreeFile index = createIndex(SMALL_PAGE);
+        int value = tuples.get(0).get(0);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Filter f = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(value)), scan);
+        f.open();
+        while (f.hasNext())
+            Database.getBufferPool().deleteTuple(tid, f.next());
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Iterator<ArrayList<Integer>> it = tuples.iterator();
+        while (it.hasNext()) {
+            if (it.next().get(0) == value)
+                it.remove();
+        }
+        assertEquals(0, lookup(index, Predicate.Op.EQUALS, value));
+        checkLookups(index);
+    }
+
+    /**
+     * Entries inserted by a transaction that aborts are not found
+     */
+    @Test public void abortedInsert() throws Exception {
+        BTreeFile index = createIndex(SMALL_PAGE);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { 7, i }));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkLookups(index);
+    }
+
+    /**
+     * The index annotation of the catalog file builds an index, and the
+     * planner uses it for a selective filter
+     */
+    @Test public void catalogAnnotation() throws Exception {
+        File dat = hf.getFile();
+        File indexFile = BTreeFile.indexFileFor(dat, 0);
+        indexFile.deleteOnExit();
+        assertFalse(indexFile.exists());
+        File schema = new File(dat.getParentFile(), dat.getName().replace(".dat", ".schema"));
+        schema.deleteOnExit();
+        String name = dat.getName().replace(".dat", "");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(schema));
+        bw.write(name + " (a int index, b int)\n");
+        bw.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        int tableId = Database.getCatalog().getTableId(name);
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+        assertTrue(indexFile.exists());
+
+        int value = tuples.get(0).get(0);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableId, 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.a", Predicate.Op.EQUALS, Integer.toString(value));
+        lp.addProjectField("t.b", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator leaf = plan;
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof IndexScan);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected(Predicate.Op.EQUALS, value), count);
+
+        // a filter matching most of the table is answered by a scan
+        lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.a", Predicate.Op.GREATER_THAN, "0");
+        lp.addProjectField("t.b", null);
+        leaf = lp.physicalPlan(tid, stats, false);
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof SeqScan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
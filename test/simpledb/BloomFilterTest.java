@@ -0,0 +1,189 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 10000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BloomFilter bloom;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+        bloom = new BloomFilter(hf.getFile(), 0);
+        Database.getCatalog().addBloomFilter(hf.getId(), bloom);
+    }
+
+    private void computeStats() {
+        new TableStats(hf.getId(), 1000);
+    }
+
+    /**
+     * @return the number of tuples with field 0 equal to value, scanned in
+     *         a transaction of its own with the predicate pushed down
+     */
+    private int scan(int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(value));
+        scan.addPredicate(p);
+        int count = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            if (pass == 0)
+                scan.open();
+            else
+                scan.rewind();
+            count = 0;
+            while (scan.hasNext()) {
+                assertTrue(p.filter(scan.next()));
+                count++;
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    private int expected(int value) {
+        int count = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == value)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * The filter holds every value of the table, and few others
+     */
+    @Test public void membership() throws Exception {
+        assertFalse(bloom.isBuilt());
+        assertTrue(bloom.mightContain(new IntField(-1)));
+        computeStats();
+        assertTrue(bloom.isBuilt());
+        for (ArrayList<Integer> t : tuples)
+            assertTrue(bloom.mightContain(new IntField(t.get(0))));
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; ++i) {
+            if (bloom.mightContain(new IntField(MAX_VALUE + i)))
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    /**
+     * A scan for an absent value reads no pages, and one for a present
+     * value still finds its tuples
+     */
+    @Test public void skipsScan() throws Exception {
+        computeStats();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, scan(-1));
+        assertEquals(0, SystemTestUtil.pagesCached(hf));
+
+        int present = tuples.get(ROWS / 2).get(0);
+        assertEquals(expected(present), scan(present));
+        assertTrue(SystemTestUtil.pagesCached(hf) > 0);
+    }
+
+    /**
+     * An index lookup of an absent value does not read the index
+     */
+    @Test public void skipsIndexProbe() throws Exception {
+        File f = BTreeFile.indexFileFor(hf.getFile(), 0);
+        BTreeFile index = new BTreeFile(f, hf.getId(), 0, Type.INT_TYPE);
+        index.build(hf);
+        Database.getCatalog().addIndex(index);
+        computeStats();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(-1)));
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.rewind();
+        assertFalse(scan.hasNext());
+        scan.close();
+        assertFalse(Database.getBufferPool().pageCached(new BTreePageId(index.getId(), 0)));
+
+        int present = tuples.get(0).get(0);
+        scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(present)));
+        SystemTestUtil.matchTuples(scan, filter(present));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<ArrayList<Integer>> filter(int value) {
+        ArrayList<ArrayList<Integer>> matching = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == value)
+                matching.add(t);
+        }
+        return matching;
+    }
+
+    /**
+     * Inserted values are found, whether the insert commits or not, and
+     * invalidate the saved filter until the next rebuild
+     */
+    @Test public void inserts() throws Exception {
+        computeStats();
+        File sidecar = BloomFilter.sidecarFor(hf.getFile(), 0);
+        assertTrue(sidecar.exists());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { -1, 0 }));
+        assertFalse(sidecar.exists());
+        assertTrue(bloom.mightContain(new IntField(-1)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, scan(-1));
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { -2, 0 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, scan(-2));
+
+        // a filter without a sidecar file is not used after a restart
+        assertFalse(new BloomFilter(hf.getFile(), 0).isBuilt());
+        computeStats();
+        assertTrue(sidecar.exists());
+        BloomFilter reopened = new BloomFilter(hf.getFile(), 0);
+        assertTrue(reopened.isBuilt());
+        assertTrue(reopened.mightContain(new IntField(-1)));
+        for (ArrayList<Integer> t : tuples)
+            assertTrue(reopened.mightContain(new IntField(t.get(0))));
+    }
+
+    /**
+     * A saved filter is ignored once the table's file was rewritten
+     */
+    @Test public void staleSidecar() throws Exception {
+        computeStats();
+        assertTrue(new BloomFilter(hf.getFile(), 0).isBuilt());
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(tuples.subList(0, ROWS / 2)),
+                hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertFalse(new BloomFilter(hf.getFile(), 0).isBuilt());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
@@ -0,0 +1,398 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+    private static final int THREADS = 8;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int perPage;
+
+    @Before public void createTable() throws Exception {
+        perPage = (BufferPool.PAGE_SIZE * 8) / (2 * 4 * 8 + 1);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * perPage, null, tuples);
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private void read(BufferPool bp, int... pgNos) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo : pgNos)
+            assertEquals(pid(pgNo), bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY).getId());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * @return the tuples of the page, as lists
+     */
+    private List<ArrayList<Integer>> contents(Page p) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        Iterator<Tuple> it = ((HeapPage) p).iterator();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        return result;
+    }
+
+    /**
+     * @return the tuples the table was created with on the given page
+     */
+    private List<ArrayList<Integer>> expected(int pgNo) {
+        return tuples.subList(pgNo * perPage, (pgNo + 1) * perPage);
+    }
+
+    private int cached(BufferPool bp) {
+        int n = 0;
+        for (int i = 0; i < PAGES; ++i) {
+            if (bp.pageCached(pid(i)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * A full pool evicts a clean page that was not used since it was read,
+     * or since the clock hand last passed it
+     */
+    @Test public void clockEviction() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        bp.setReadAhead(false);
+        read(bp, 0, 1, 2, 0);
+        read(bp, 3);
+        assertTrue(bp.pageCached(pid(0)));
+        assertFalse(bp.pageCached(pid(1)));
+        assertTrue(bp.pageCached(pid(2)));
+        assertTrue(bp.pageCached(pid(3)));
+
+        // dirty pages stay
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(2), Permissions.READ_WRITE).markDirty(true, tid);
+        read(bp, 4, 5);
+        assertTrue(bp.pageCached(pid(2)));
+        assertTrue(bp.pageCached(pid(4)));
+        assertTrue(bp.pageCached(pid(5)));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * Pages used again since the hand last passed survive a scan of pages
+     * that are only read once
+     */
+    @Test public void secondChance() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setReadAhead(false);
+        read(bp, 0, 1, 2, 3);
+        for (int i = 4; i < PAGES; ++i) {
+            read(bp, 0, i);
+        }
+        assertTrue(bp.pageCached(pid(0)));
+        assertEquals(4, cached(bp));
+    }
+
+    /**
+     * Reads pages 0 and 1 twice, far enough apart that both replacement
+     * policies have dropped them in between, then scans the rest of the
+     * table once.
+     */
+    private void reuseThenScan(BufferPool bp) throws Exception {
+        bp.setReadAhead(false);
+        read(bp, 0, 1);
+        for (int i = 2; i < 10; ++i)
+            read(bp, i);
+        read(bp, 0, 1);
+        for (int i = 10; i < PAGES; ++i)
+            read(bp, i);
+    }
+
+    /**
+     * With 2Q, pages read once by a scan do not displace pages that were
+     * used again
+     */
+    @Test public void twoQueueResistsScans() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8, BufferPool.Replacement.TWO_QUEUE);
+        reuseThenScan(bp);
+        assertTrue(bp.pageCached(pid(0)));
+        assertTrue(bp.pageCached(pid(1)));
+        assertTrue(bp.pageCached(pid(PAGES - 1)));
+        assertEquals(8, cached(bp));
+
+        // the pool still works when every page is dirty but one
+        TransactionId tid = new TransactionId();
+        for (int i = 20; i < 27; ++i)
+            bp.getPage(tid, pid(i), Permissions.READ_WRITE).markDirty(true, tid);
+        read(bp, 2, 3, 4);
+        assertTrue(bp.pageCached(pid(4)));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * CLOCK lets the same scan push the reused pages out
+     */
+    @Test public void clockDoesNotResistScans() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8, BufferPool.Replacement.CLOCK);
+        reuseThenScan(bp);
+        assertFalse(bp.pageCached(pid(0)));
+        assertFalse(bp.pageCached(pid(1)));
+    }
+
+    /**
+     * Concurrent misses also keep a 2Q pool within its capacity
+     */
+    @Test public void twoQueueConcurrentMisses() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5, BufferPool.Replacement.TWO_QUEUE);
+        readConcurrently(bp, PAGES, 2000);
+        assertTrue(cached(bp) <= 5);
+    }
+
+    /**
+     * A page fetched for writing is not evicted before the transaction
+     * gets to dirty it
+     */
+    @Test public void keepsPagesFetchedForWriting() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.setReadAhead(false);
+        TransactionId tid = new TransactionId();
+        Page p = bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        read(bp, 1, 2, 3);
+        assertTrue(bp.pageCached(pid(0)));
+        assertSame(p, bp.getPage(tid, pid(0), Permissions.READ_WRITE));
+        bp.transactionComplete(tid);
+
+        read(bp, 4, 5);
+        assertFalse(bp.pageCached(pid(0)));
+    }
+
+    /**
+     * Reads pages 0 to 3 twice, then the rest of the table through a ring,
+     * checking that the scan keeps to the ring.
+     */
+    private BufferPool.Ring hotPagesThenRing(BufferPool bp) throws Exception {
+        bp.setReadAhead(false);
+        read(bp, 0, 1, 2, 3, 0, 1, 2, 3);
+        BufferPool.Ring ring = bp.newRing(BufferPool.PAGE_SIZE);
+        assertEquals(4, ring.size());
+        TransactionId tid = new TransactionId();
+        for (int i = 4; i < PAGES; ++i) {
+            assertEquals(pid(i), bp.getPage(tid, pid(i), Permissions.READ_ONLY, ring).getId());
+            assertTrue(cached(bp) <= 4 + ring.size());
+        }
+        bp.transactionComplete(tid);
+        return ring;
+    }
+
+    /**
+     * A bulk read through a ring replaces its own pages rather than the
+     * pages of the pool
+     */
+    @Test public void ringConfinesBulkRead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(32);
+        hotPagesThenRing(bp);
+        for (int i = 0; i < 4; ++i)
+            assertTrue(bp.pageCached(pid(i)));
+        for (int i = PAGES - 4; i < PAGES; ++i)
+            assertTrue(bp.pageCached(pid(i)));
+        assertEquals(8, cached(bp));
+    }
+
+    /**
+     * A page of a ring that is used outside the ring stays in the pool when
+     * the ring comes around again
+     */
+    @Test public void ringReleasesPagesUsedElsewhere() throws Exception {
+        BufferPool bp = Database.resetBufferPool(32);
+        BufferPool.Ring ring = hotPagesThenRing(bp);
+        read(bp, PAGES - 1);
+        TransactionId tid = new TransactionId();
+        for (int i = 4; i < 12; ++i)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY, ring);
+        bp.transactionComplete(tid);
+        assertTrue(bp.pageCached(pid(PAGES - 1)));
+        assertFalse(bp.pageCached(pid(PAGES - 2)));
+        assertEquals(9, cached(bp));
+    }
+
+    /**
+     * @return the number of tuples a SeqScan of the table returns
+     */
+    private int seqScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * A SeqScan of a table larger than the pool reads it through a ring,
+     * also when reading ahead, and a smaller one does not
+     */
+    @Test public void seqScanUsesRingForLargeTables() throws Exception {
+        int tuples = seqScan();
+        BufferPool bp = Database.resetBufferPool(32);
+        read(bp, 0, 1, 2, 3, 0, 1, 2, 3);
+        assertEquals(tuples, seqScan());
+        for (int i = 0; i < 4; ++i)
+            assertTrue(bp.pageCached(pid(i)));
+        assertTrue(cached(bp) <= 4 + bp.newRing(BufferPool.PAGE_SIZE).size());
+
+        bp = Database.resetBufferPool(PAGES);
+        assertEquals(tuples, seqScan());
+        assertEquals(PAGES, cached(bp));
+    }
+
+    /**
+     * Runs THREADS threads that each read the given number of random pages
+     * of the table, out of the first range pages, checking each page.
+     */
+    private void readConcurrently(final BufferPool bp, final int range, final int reads) throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; ++i) {
+            final long seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int j = 0; j < reads; ++j) {
+                            int pgNo = rand.nextInt(range);
+                            HeapPageId pid = pid(pgNo);
+                            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            if (!p.getId().equals(pid))
+                                throw new AssertionError("got " + p.getId() + " for " + pid);
+                            if (j % 10 == 0 && !contents(p).equals(expected(pgNo)))
+                                throw new AssertionError("wrong contents of " + pid);
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    /**
+     * Many threads hitting cached pages at once all get the right pages
+     */
+    @Test public void concurrentHits() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        bp.setReadAhead(false);
+        readConcurrently(bp, PAGES, 20000);
+        assertEquals(PAGES, cached(bp));
+    }
+
+    /**
+     * Concurrent misses that evict each other's pages keep the pool within
+     * its capacity
+     */
+    @Test public void concurrentMisses() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5);
+        readConcurrently(bp, PAGES, 2000);
+        assertTrue(cached(bp) <= 5);
+    }
+
+    /**
+     * The tuples of an off-heap pool's pages are decoded from their frames
+     * on every access, and a page keeps its tuples after it is evicted and
+     * its frame is reused
+     */
+    @Test public void offHeapFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4, BufferPool.Replacement.CLOCK, true);
+        bp.setReadAhead(false);
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertNotSame(p.getTuple(0), p.getTuple(0));
+        assertEquals(expected(0), contents(p));
+        read(bp, 1, 2, 3, 4, 5, 6, 7);
+        assertFalse(bp.pageCached(pid(0)));
+        assertEquals(expected(0), contents(p));
+        assertEquals(expected(7), contents(bp.getPage(tid, pid(7), Permissions.READ_ONLY)));
+        bp.transactionComplete(tid);
+
+        // on the heap, decoded tuples are kept
+        bp = Database.resetBufferPool(4);
+        tid = new TransactionId();
+        p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertSame(p.getTuple(0), p.getTuple(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts, deletes, commits and aborts work on pages kept off heap
+     */
+    @Test public void offHeapUpdates() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8, BufferPool.Replacement.CLOCK, true);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            // stay within the pages a transaction can dirty in this pool
+            if (i++ % 100 == 0 && t.getRecordId().getPageId().pageNumber() < 5)
+                bp.deleteTuple(tid, t);
+            else
+                kept.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        for (int j = 0; j < 10; j++) {
+            Tuple t = Utility.getHeapTuple(new int[] { j, -j });
+            bp.insertTuple(tid, hf.getId(), t);
+            kept.add(SystemTestUtil.tupleToList(t));
+        }
+        bp.transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, kept);
+
+        tid = new TransactionId();
+        for (int j = 0; j < 10; j++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -j, j }));
+        bp.transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(hf, kept);
+    }
+
+    /**
+     * Concurrent misses that move pages in and out of the frames of an
+     * off-heap pool read the right tuples
+     */
+    @Test public void offHeapConcurrentMisses() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5, BufferPool.Replacement.CLOCK, true);
+        readConcurrently(bp, PAGES, 2000);
+        assertTrue(cached(bp) <= 5);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,260 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ClusterTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+    }
+
+    /**
+     * @return the tuples a ClusteredScan on field 0 returns for the given
+     *         predicates, checking that each satisfies them
+     */
+    private List<ArrayList<Integer>> scan(Predicate... preds) throws Exception {
+        TransactionId tid = new TransactionId();
+        ClusteredScan scan = new ClusteredScan(tid, hf.getId(), "t", 0, Arrays.asList(preds));
+        scan.open();
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            for (Predicate p : preds)
+                assertTrue(p.filter(t));
+            result.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.rewind();
+        int again = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            again++;
+        }
+        assertEquals(result.size(), again);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    private List<ArrayList<Integer>> expected(Predicate... preds) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            boolean match = true;
+            for (Predicate p : preds)
+                match &= p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) }));
+            if (match)
+                result.add(t);
+        }
+        return result;
+    }
+
+    private void check(Predicate... preds) throws Exception {
+        assertEquals(Arrays.toString(preds), sorted(expected(preds)), sorted(scan(preds)));
+    }
+
+    private List<String> sorted(List<ArrayList<Integer>> lists) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> t : lists)
+            result.add(t.toString());
+        Collections.sort(result);
+        return result;
+    }
+
+    private void checkAll() throws Exception {
+        for (int v : new int[] { -1, 0, 1, MAX_VALUE / 2, MAX_VALUE - 1, MAX_VALUE }) {
+            check(new Predicate(0, Predicate.Op.EQUALS, new IntField(v)));
+            check(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(v)));
+            check(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(v)));
+        }
+        check(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100)),
+                new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(200)));
+        check(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(5)));
+    }
+
+    /**
+     * Clustering sorts the file and keeps every tuple; lookups then read a
+     * logarithmic number of pages and return the right tuples
+     */
+    @Test public void sortsAndSearches() throws Exception {
+        assertEquals(-1, Database.getCatalog().getSortField(hf.getId()));
+        assertTrue(Cluster.cluster(hf.getId(), 0));
+        assertEquals(0, Database.getCatalog().getSortField(hf.getId()));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(v >= last);
+            last = v;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        checkAll();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        scan(new Predicate(0, Predicate.Op.EQUALS, new IntField(MAX_VALUE / 2)));
+        int log = 32 - Integer.numberOfLeadingZeros(hf.numPages());
+        assertTrue(SystemTestUtil.pagesCached(hf) <= log + 2);
+    }
+
+    /**
+     * Deletes, including whole pages, keep the order; an insert loses it
+     * and the scan falls back to reading the table
+     */
+    @Test public void updates() throws Exception {
+        assertTrue(Cluster.cluster(hf.getId(), 0));
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            if ((v > 300 && v < 600) || i++ % 3 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+            else
+                kept.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tuples = kept;
+        assertEquals(0, Database.getCatalog().getSortField(hf.getId()));
+        checkAll();
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 2, 2 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        assertEquals(-1, Database.getCatalog().getSortField(hf.getId()));
+        assertFalse(Cluster.sidecarFor(hf.getFile()).exists());
+        checkAll();
+    }
+
+    /**
+     * An insert committed into a page the scan has not reached yet loses the
+     * order; the scan notices when it gets to the page and reads on
+     */
+    @Test public void insertAhead() throws Exception {
+        assertTrue(Cluster.cluster(hf.getId(), 0));
+        Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE * 4 / 5));
+        TransactionId tid = new TransactionId();
+        ClusteredScan scan = new ClusteredScan(tid, hf.getId(), "t", 0, Arrays.asList(pred));
+        scan.open();
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        assertTrue(scan.hasNext());
+        result.add(SystemTestUtil.tupleToList(scan.next()));
+
+        // free the first slot of a page in the middle of the range, then
+        // fill it with a tuple above the range
+        int pgNo = hf.numPages() / 2;
+        TransactionId other = new TransactionId();
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(other,
+                new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        Tuple first = p.iterator().next();
+        Database.getBufferPool().deleteTuple(other, first);
+        Database.getBufferPool().transactionComplete(other);
+        tuples.remove(SystemTestUtil.tupleToList(first));
+
+        other = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { MAX_VALUE, 0 });
+        Database.getBufferPool().insertTuple(other, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(other);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        assertEquals(pgNo, t.getRecordId().getPageId().pageNumber());
+        assertEquals(-1, Database.getCatalog().getSortField(hf.getId()));
+
+        while (scan.hasNext())
+            result.add(SystemTestUtil.tupleToList(scan.next()));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(sorted(expected(pred)), sorted(result));
+    }
+
+    /**
+     * The order is restored when the table is added to the catalog again,
+     * unless the file changed since
+     */
+    @Test public void persistence() throws Exception {
+        assertTrue(Cluster.cluster(hf.getId(), 1));
+        hf.close();
+        hf = Utility.openHeapFile(2, hf.getFile());
+        assertEquals(1, Database.getCatalog().getSortField(hf.getId()));
+        assertEquals(1, Cluster.sortFieldOf(hf.getFile()));
+
+        // a different table in the same file
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(tuples.subList(0, ROWS / 2)),
+                hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertEquals(-1, Cluster.sortFieldOf(hf.getFile()));
+    }
+
+    /**
+     * Indexes of the table point at the tuples' new places
+     */
+    @Test public void rebuildsIndexes() throws Exception {
+        File f = BTreeFile.indexFileFor(hf.getFile(), 1);
+        BTreeFile index = new BTreeFile(f, hf.getId(), 1, Type.INT_TYPE);
+        index.build(hf);
+        Database.getCatalog().addIndex(index);
+        assertTrue(Cluster.cluster(hf.getId(), 0));
+
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE)));
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner uses a clustered scan for filters on the sort field
+     */
+    @Test public void planner() throws Exception {
+        assertTrue(Cluster.cluster(hf.getId(), 0));
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+
+        assertTrue(usesClusteredScan(stats, "t.c0", Predicate.Op.EQUALS, "5"));
+        assertTrue(usesClusteredScan(stats, "t.c0", Predicate.Op.LESS_THAN, "10"));
+        assertFalse(usesClusteredScan(stats, "t.c1", Predicate.Op.EQUALS, "5"));
+        assertFalse(usesClusteredScan(stats, "t.c0", Predicate.Op.NOT_EQUALS, "5"));
+    }
+
+    private boolean usesClusteredScan(Map<String, TableStats> stats, String field, Predicate.Op op,
+            String value) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter(field, op, value);
+        lp.addProjectField("t.c0", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        while (plan instanceof Operator && !(plan instanceof ClusteredScan))
+            plan = ((Operator) plan).getChildren()[0];
+        return plan instanceof ClusteredScan;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClusterTest.class);
+    }
+}
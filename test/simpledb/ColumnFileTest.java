@@ -0,0 +1,206 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "name", "score" });
+
+    private ColumnFile cf;
+    private String tableName;
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    /**
+     * Writes ROWS rows (i, "name" + i, i % 7) as a column file.
+     */
+    @Before public void createTable() throws Exception {
+        File txt = File.createTempFile("columns", ".txt");
+        txt.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; ++i)
+            bw.write(i + "," + name(i) + "," + (i % 7) + "\n");
+        bw.close();
+        File dat = File.createTempFile("columns", ".dat");
+        dat.deleteOnExit();
+        SystemTestUtil.deleteSidecarsOnExit(dat, TYPES.length);
+        HeapFileEncoder.convertColumns(txt, dat, BufferPool.PAGE_SIZE, TYPES, ',');
+
+        cf = new ColumnFile(dat, TD);
+        tableName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(cf, tableName);
+    }
+
+    private int countColumnPages(BufferPool bp, int column) {
+        int n = 0;
+        for (int i = 0; i < cf.numPages(column); ++i) {
+            if (bp.pageCached(new ColumnPageId(cf.getId(), column, i)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Each column is packed at its own density
+     */
+    @Test public void layout() throws Exception {
+        assertEquals(ROWS, cf.numRows());
+        int intsPerPage = ColumnPage.getNumSlots(Type.INT_TYPE, BufferPool.PAGE_SIZE);
+        int stringsPerPage = ColumnPage.getNumSlots(Type.STRING_TYPE, BufferPool.PAGE_SIZE);
+        assertEquals((ROWS + intsPerPage - 1) / intsPerPage, cf.numPages(0));
+        assertEquals((ROWS + stringsPerPage - 1) / stringsPerPage, cf.numPages(1));
+        assertTrue(cf.numPages(1) > 10 * cf.numPages(0));
+    }
+
+    /**
+     * A full scan returns every row with all of its fields
+     */
+    @Test public void scanAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(count, id);
+            assertEquals(name(id), ((StringField) t.getField(1)).getValue());
+            assertEquals(id % 7, ((IntField) t.getField(2)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * A scan of some columns reads no pages of the others
+     */
+    @Test public void scanColumns() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid, Arrays.asList(2));
+        it.open();
+        int sum = 0;
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            sum += ((IntField) t.getField(2)).getValue();
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+        int expected = 0;
+        for (int i = 0; i < ROWS; ++i)
+            expected += i % 7;
+        assertEquals(expected, sum);
+        assertEquals(0, countColumnPages(bp, 0));
+        assertEquals(0, countColumnPages(bp, 1));
+        assertEquals(cf.numPages(2), countColumnPages(bp, 2));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes update every column and survive a commit; an
+     * aborted insert leaves no trace
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new StringField(name(ROWS), Type.STRING_LEN));
+        t.setField(2, new IntField(100));
+        Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+
+        // delete row 5 through a scan, as the Delete operator would
+        DbFileIterator it = cf.iterator(tid, Arrays.asList(0));
+        it.open();
+        for (int i = 0; i < 5; ++i)
+            it.next();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId tid2 = new TransactionId();
+        Tuple aborted = new Tuple(TD);
+        aborted.setField(0, new IntField(-1));
+        aborted.setField(1, new StringField("aborted", Type.STRING_LEN));
+        aborted.setField(2, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid2, cf.getId(), aborted);
+        Database.getBufferPool().transactionComplete(tid2, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ColumnFile reopened = new ColumnFile(cf.getFile(), TD);
+        assertEquals(ROWS + 1, reopened.numRows());
+        tid = new TransactionId();
+        it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        boolean sawNew = false;
+        while (it.hasNext()) {
+            Tuple r = it.next();
+            int id = ((IntField) r.getField(0)).getValue();
+            assertTrue(id != 5 && id != -1);
+            assertEquals(name(id), ((StringField) r.getField(1)).getValue());
+            if (id == ROWS) {
+                sawNew = true;
+                assertEquals(100, ((IntField) r.getField(2)).getValue());
+            }
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(sawNew);
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Query plans only read the columns the query references
+     */
+    @Test public void planReadsReferencedColumns() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName, new TableStats(cf.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "c");
+        lp.addFilter("c.score", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("c.id", null);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(3, ((IntField) t.getField(0)).getValue() % 7);
+            count++;
+        }
+        plan.close();
+        assertEquals((ROWS + 3) / 7, count);
+        assertEquals(0, countColumnPages(bp, 1));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
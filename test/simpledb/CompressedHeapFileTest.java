@@ -0,0 +1,177 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private File heapFile;
+    private CompressedHeapFile hf;
+
+    private CompressedHeapFile createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        for (int i = 0; i < ROWS; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+        }
+        heapFile = File.createTempFile("table", ".dat");
+        heapFile.deleteOnExit();
+        HeapFileEncoder.convert(tuples, heapFile, BufferPool.PAGE_SIZE, 2);
+
+        File dat = File.createTempFile("compressed", ".dat");
+        dat.deleteOnExit();
+        SystemTestUtil.deleteSidecarsOnExit(dat, 2);
+        CompressedHeapFile.convert(heapFile, dat, BufferPool.PAGE_SIZE);
+        hf = new CompressedHeapFile(dat, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Compressed pages take less room on disk and read back unchanged
+     */
+    @Test public void readPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        createTable(tuples);
+
+        assertEquals(heapFile.length() / BufferPool.PAGE_SIZE, hf.numPages());
+        assertTrue(hf.getFile().length() * 2 < heapFile.length());
+
+        HeapFile plain = new HeapFile(heapFile, Utility.getTupleDesc(2));
+        for (int i = 0; i < hf.numPages(); ++i) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            assertArrayEquals(plain.readPage(pid).getPageData(), hf.readPage(pid).getPageData());
+        }
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Committed inserts are appended and survive reopening the file
+     */
+    @Test public void insertAndReopen() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        createTable(tuples);
+        int pages = hf.numPages();
+
+        // enough tuples to fill the last page and add another
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { ROWS + i, 42 });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages + 1, hf.numPages());
+        hf.close();
+
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(pages + 1, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Pages rewritten again and again reuse the space of their old versions
+     */
+    @Test public void rewritesReuseSpace() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        createTable(tuples);
+        long length = hf.getFile().length();
+
+        for (int round = 0; round < 20; ++round) {
+            // dirty every page, keeping the same tuples
+            TransactionId tid = new TransactionId();
+            ArrayList<Tuple> moved = new ArrayList<Tuple>();
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            int i = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (i++ % 100 == round)
+                    moved.add(t);
+            }
+            it.close();
+            for (Tuple t : moved) {
+                Database.getBufferPool().deleteTuple(tid, t);
+                Database.getBufferPool().insertTuple(tid, hf.getId(),
+                        Utility.getHeapTuple(new int[] { ((IntField) t.getField(0)).getValue(),
+                                ((IntField) t.getField(1)).getValue() }));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertTrue(hf.getFile().length() + " > 3 * " + length, hf.getFile().length() <= 3 * length);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        hf.close();
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Vacuum cuts emptied pages off the index, and their space off the file
+     */
+    @Test public void vacuumShrinks() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        createTable(tuples);
+        int pages = hf.numPages();
+        long length = hf.getFile().length();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() >= ROWS / 4)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.subList(ROWS / 4, ROWS).clear();
+
+        new Vacuum(hf, 0).compact();
+        assertTrue(hf.numPages() < pages);
+        assertTrue(hf.getFile().length() < length);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        hf.close();
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A data file whose index is missing cannot be read
+     */
+    @Test public void missingIndex() throws Exception {
+        createTable(new ArrayList<ArrayList<Integer>>());
+        assertTrue(CompressedHeapFile.indexFileFor(hf.getFile()).delete());
+        CompressedHeapFile broken = new CompressedHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        try {
+            broken.numPages();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,224 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CoveringIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+    /** small enough for a few thousand entries to need several levels */
+    private static final int SMALL_PAGE = 128;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples, "c");
+    }
+
+    /**
+     * Builds an index over field 0 of the table that includes field 1.
+     */
+    private BTreeFile createIndex(int pageSize) throws Exception {
+        int[] included = new int[] { 1 };
+        File f = BTreeFile.indexFileFor(hf.getFile(), 0, included);
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, hf.getId(), 0, Type.INT_TYPE, included,
+                new Type[] { Type.INT_TYPE }, pageSize);
+        index.build(hf);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * @return the first two fields of the tuples an index-only scan returns
+     *         for key op value, checking that the third one is not set
+     */
+    private List<String> lookup(BTreeFile index, Predicate.Op op, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(op, new IntField(value)), true);
+        scan.open();
+        ArrayList<String> result = new ArrayList<String>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(2));
+            assertEquals(hf.getId(), t.getRecordId().getPageId().getTableId());
+            result.add(t.getField(0) + " " + t.getField(1));
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(result);
+        return result;
+    }
+
+    private List<String> expected(Predicate.Op op, int value) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                result.add(t.get(0) + " " + t.get(1));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private void checkLookups(BTreeFile index) throws Exception {
+        for (int v : new int[] { -1, 0, 7, MAX_VALUE / 2, MAX_VALUE }) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                    Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+                assertEquals(op + " " + v, expected(op, v), lookup(index, op, v));
+            }
+        }
+    }
+
+    private int heapPagesCached() {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); ++i) {
+            if (Database.getBufferPool().pageCached(new HeapPageId(hf.getId(), i)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * An index-only scan returns the key and included fields of the
+     * matching tuples without reading the table
+     */
+    @Test public void indexOnlyScan() throws Exception {
+        BTreeFile index = createIndex(SMALL_PAGE);
+        assertTrue(index.height() > 2);
+        assertEquals(4, index.getTupleDesc().numFields());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        checkLookups(index);
+        assertEquals(0, heapPagesCached());
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool keep the included fields
+     * of the entries up to date, and aborts undo them
+     */
+    @Test public void updates() throws Exception {
+        BTreeFile index = createIndex(SMALL_PAGE);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i++ % 3 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+            else
+                kept.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        for (int j = 0; j < 500; j++) {
+            Tuple t = Utility.getHeapTuple(new int[] { 7, j, -j });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            kept.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tuples = kept;
+        checkLookups(index);
+
+        tid = new TransactionId();
+        for (int j = 0; j < 500; j++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { 7, -j, j }));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkLookups(index);
+    }
+
+    /**
+     * The planner only reads the index for queries that read no field it
+     * does not hold
+     */
+    @Test public void planner() throws Exception {
+        createIndex(BufferPool.PAGE_SIZE);
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+        int value = tuples.get(0).get(0);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(plan(stats, value, "t.c1"));
+        assertEquals(0, heapPagesCached());
+        assertTrue(plan(stats, value, "t.c0"));
+        assertFalse(plan(stats, value, "t.c2"));
+        assertFalse(plan(stats, value, "null.*"));
+    }
+
+    /**
+     * Runs SELECT field FROM t WHERE t.c0 = value, checking the number of
+     * tuples returned.
+     *
+     * @return true if the plan is an index-only scan
+     */
+    private boolean plan(Map<String, TableStats> stats, int value, String field) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, Integer.toString(value));
+        lp.addProjectField(field, null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator leaf = plan;
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof IndexScan);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            assertNotNull(plan.next().getField(0));
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected(Predicate.Op.EQUALS, value).size(), count);
+        return leaf instanceof IndexScan && ((IndexScan) leaf).isIndexOnly();
+    }
+
+    /**
+     * The include annotation of the catalog file adds the field to the
+     * indexes of the table
+     */
+    @Test public void catalogAnnotation() throws Exception {
+        File dat = hf.getFile();
+        File indexFile = BTreeFile.indexFileFor(dat, 0, new int[] { 2 });
+        indexFile.deleteOnExit();
+        File schema = new File(dat.getParentFile(), dat.getName().replace(".dat", ".schema"));
+        schema.deleteOnExit();
+        String name = dat.getName().replace(".dat", "");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(schema));
+        bw.write(name + " (a int index, b int, c int include)\n");
+        bw.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        int tableId = Database.getCatalog().getTableId(name);
+        assertTrue(indexFile.exists());
+        assertFalse(BTreeFile.indexFileFor(dat, 0).exists());
+        IndexFile index = Database.getCatalog().getIndexes(tableId).get(0);
+        assertArrayEquals(new int[] { 2 }, index.getIncludedFields());
+        assertTrue(IndexScan.covers(index, Arrays.asList(0, 2)));
+        assertFalse(IndexScan.covers(index, Arrays.asList(1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CoveringIndexTest.class);
+    }
+}
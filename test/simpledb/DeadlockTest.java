@@ -7,6 +7,8 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +213,37 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * A lock a transaction no longer holds must not count as a wait.
+   * t1 and t3 acquire p0.read; t2 acquires p1.write; t2 attempts p0.write,
+   * blocked by both; t1 releases p0, then attempts p1.read. t2 now only
+   * waits for t3, so t1 waits for t2 without a deadlock.
+   */
+  @Test public void testReleasedLockIsNoDeadlock() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid3, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    bp.releasePage(tid1, p0);
+    LockGrabber lg1Read = startGrabber(tid1, p1, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1Read.acquired() || lg2Write.acquired());
+    assertNull(lg1Read.getError());
+    assertNull(lg2Write.getError());
+
+    bp.transactionComplete(tid3);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg2Write.acquired());
+    bp.transactionComplete(tid2);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Read.acquired());
+    assertNull(lg1Read.getError());
+    bp.transactionComplete(tid1);
+  }
+
   /**
    * JUnit suite target
    */
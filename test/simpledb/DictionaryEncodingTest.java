@@ -0,0 +1,187 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+    private static final String[] COLORS = { "red", "green", "blue", "cyan", "magenta" };
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+    private File txt;
+    private File dat;
+    private StringDictionary dict;
+    private HeapFile hf;
+
+    private static TupleDesc tupleDesc(StringDictionary dict) {
+        return new TupleDesc(TYPES, new String[] { "id", "color" }, new StringDictionary[] { null, dict });
+    }
+
+    /**
+     * Writes ROWS rows (i, COLORS[i % 5]) with the color dictionary-encoded.
+     */
+    @Before public void createTable() throws Exception {
+        txt = File.createTempFile("dict", ".txt");
+        txt.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; ++i)
+            bw.write(i + "," + COLORS[i % COLORS.length] + "\n");
+        bw.close();
+        dat = File.createTempFile("dict", ".dat");
+        dat.deleteOnExit();
+        SystemTestUtil.deleteSidecarsOnExit(dat, 2);
+        File sidecar = StringDictionary.sidecarFor(dat, 1);
+
+        dict = new StringDictionary(sidecar);
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, 2, TYPES, ',',
+                new StringDictionary[] { null, dict });
+        hf = new HeapFile(dat, tupleDesc(dict));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Encoded fields take the size of a code, and are read back as shared
+     * DictStringFields
+     */
+    @Test public void readEncoded() throws Exception {
+        assertEquals(COLORS.length, dict.size());
+        assertEquals(8, hf.getTupleDesc().getSize());
+
+        File plain = File.createTempFile("plain", ".dat");
+        plain.deleteOnExit();
+        HeapFileEncoder.convert(txt, plain, BufferPool.PAGE_SIZE, 2, TYPES, ',');
+        assertTrue(dat.length() * 10 < plain.length());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            DictStringField color = (DictStringField) t.getField(1);
+            assertEquals(COLORS[id % COLORS.length], color.getValue());
+            assertSame(dict.decode(color.getCode()), color);
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Encoded fields compare by code against the same dictionary, and like
+     * StringFields against anything else
+     */
+    @Test public void compare() throws Exception {
+        Field red = dict.decode(dict.lookup("red"));
+        Field blue = dict.toField("blue");
+        assertTrue(blue instanceof DictStringField);
+        assertTrue(red.compare(Predicate.Op.EQUALS, dict.toField("red")));
+        assertTrue(red.compare(Predicate.Op.NOT_EQUALS, blue));
+        assertFalse(red.equals(blue));
+        assertTrue(red.compare(Predicate.Op.GREATER_THAN, blue));
+
+        StringField plainRed = new StringField("red", Type.STRING_LEN);
+        assertTrue(red.compare(Predicate.Op.EQUALS, plainRed));
+        assertTrue(plainRed.equals(red));
+        assertTrue(red.equals(plainRed));
+        assertEquals(plainRed.hashCode(), red.hashCode());
+
+        // a string missing from the dictionary stays a plain StringField
+        assertEquals(-1, dict.lookup("black"));
+        assertFalse(dict.toField("black") instanceof DictStringField);
+    }
+
+    /**
+     * New strings get codes when their page is written, and the dictionary
+     * on disk covers every code on disk
+     */
+    @Test public void insertNewString() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new StringField("black", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(COLORS.length + 1, dict.size());
+
+        StringDictionary reread = new StringDictionary(StringDictionary.sidecarFor(dat, 1));
+        assertEquals(COLORS.length + 1, reread.size());
+        HeapFile reopened = new HeapFile(dat, tupleDesc(reread));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int black = 0;
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple r = it.next();
+            if (((StringField) r.getField(1)).getValue().equals("black")) {
+                assertEquals(ROWS, ((IntField) r.getField(0)).getValue());
+                black++;
+            }
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, black);
+        assertEquals(ROWS + 1, count);
+    }
+
+    /**
+     * The dict annotation of the catalog file encodes a field
+     */
+    @Test public void catalogAnnotation() throws Exception {
+        File schema = new File(dat.getParentFile(), dat.getName().replace(".dat", ".schema"));
+        schema.deleteOnExit();
+        String name = dat.getName().replace(".dat", "");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(schema));
+        bw.write(name + " (id int pk, color string dict)\n");
+        bw.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        int tableId = Database.getCatalog().getTableId(name);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        assertNull(td.getDictionary(0));
+        assertEquals(COLORS.length, td.getDictionary(1).size());
+
+        // a filter on the field finds the rows through the dictionary
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableId, 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "d");
+        lp.addFilter("d.color", Predicate.Op.EQUALS, "cyan");
+        lp.addProjectField("d.id", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            assertEquals(3, ((IntField) plan.next().getField(0)).getValue() % COLORS.length);
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS / COLORS.length, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
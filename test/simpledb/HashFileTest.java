@@ -0,0 +1,244 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+    /** small enough for the directory to fill its page */
+    private static final int SMALL_PAGE = 128;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+    }
+
+    private HashFile createIndex(int pageSize) throws Exception {
+        File f = HashFile.indexFileFor(hf.getFile(), 0);
+        HashFile index = new HashFile(f, hf.getId(), 0, Type.INT_TYPE, pageSize);
+        index.build(hf);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private int globalDepth(HashFile index) {
+        return ((HashDirectoryPage) index.readPage(index.directoryId())).getGlobalDepth();
+    }
+
+    /**
+     * @return the number of tuples an IndexScan returns for key = value,
+     *         checking that each has that key
+     */
+    private int lookup(HashFile index, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(value)));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertEquals(value, ((IntField) scan.next().getField(0)).getValue());
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    private int expected(int value) {
+        int count = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == value)
+                count++;
+        }
+        return count;
+    }
+
+    private void checkLookups(HashFile index) throws Exception {
+        for (int v : new int[] { -1, 0, 7, MAX_VALUE / 2, MAX_VALUE - 1, MAX_VALUE }) {
+            assertEquals("= " + v, expected(v), lookup(index, v));
+        }
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * An index built from a table finds the same tuples as a scan of it
+     */
+    @Test public void buildAndLookup() throws Exception {
+        HashFile index = createIndex(BufferPool.PAGE_SIZE);
+        assertTrue(globalDepth(index) > 0);
+        checkLookups(index);
+        assertTrue(index.supports(Predicate.Op.EQUALS));
+        assertFalse(index.supports(Predicate.Op.LESS_THAN));
+    }
+
+    /**
+     * Inserts into an empty index split buckets and double the directory,
+     * and overflow pages take the entries once the directory is full
+     */
+    @Test public void insertWithSplits() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, MAX_VALUE, null, tuples);
+        HashFile index = createIndex(SMALL_PAGE);
+        assertEquals(0, globalDepth(index));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { i % 500, i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(HashDirectoryPage.maxDepth(SMALL_PAGE), globalDepth(index));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        checkLookups(index);
+        for (int v = 0; v < 500; v += 37)
+            assertEquals(6, lookup(index, v));
+    }
+
+    /**
+     * Entries with the same key are chained rather than split
+     */
+    @Test public void duplicateKeys() throws Exception {
+        HashFile index = createIndex(BufferPool.PAGE_SIZE);
+        int depth = globalDepth(index);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { 7, i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(depth, globalDepth(index));
+        checkLookups(index);
+    }
+
+    /**
+     * Deleted tuples are removed from the index
+     */
+    @Test public void delete() throws Exception {
+        HashFile index = createIndex(SMALL_PAGE);
+        int value = tuples.get(0).get(0);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Filter f = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(value)), scan);
+        f.open();
+        while (f.hasNext())
+            Database.getBufferPool().deleteTuple(tid, f.next());
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Iterator<ArrayList<Integer>> it = tuples.iterator();
+        while (it.hasNext()) {
+            if (it.next().get(0) == value)
+                it.remove();
+        }
+        assertEquals(0, lookup(index, value));
+        checkLookups(index);
+    }
+
+    /**
+     * Entries inserted by a transaction that aborts are not found, even
+     * when the inserts split buckets
+     */
+    @Test public void abortedInsert() throws Exception {
+        HashFile index = createIndex(SMALL_PAGE);
+        int depth = globalDepth(index);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { MAX_VALUE + i, i }));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(depth, globalDepth(index));
+        checkLookups(index);
+    }
+
+    /**
+     * The hash annotation of the catalog file builds an index, and the
+     * planner uses it for an equality filter
+     */
+    @Test public void catalogAnnotation() throws Exception {
+        File dat = hf.getFile();
+        File indexFile = HashFile.indexFileFor(dat, 0);
+        indexFile.deleteOnExit();
+        assertFalse(indexFile.exists());
+        File schema = new File(dat.getParentFile(), dat.getName().replace(".dat", ".schema"));
+        schema.deleteOnExit();
+        String name = dat.getName().replace(".dat", "");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(schema));
+        bw.write(name + " (a int hash, b int)\n");
+        bw.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        int tableId = Database.getCatalog().getTableId(name);
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+        assertTrue(indexFile.exists());
+
+        int value = tuples.get(0).get(0);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableId, 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.a", Predicate.Op.EQUALS, Integer.toString(value));
+        lp.addProjectField("t.b", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator leaf = plan;
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof IndexScan);
+        assertTrue(((IndexScan) leaf).getIndex() instanceof HashFile);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected(value), count);
+
+        // a hash index cannot answer a range filter
+        lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.a", Predicate.Op.LESS_THAN, "1");
+        lp.addProjectField("t.b", null);
+        leaf = lp.physicalPlan(tid, stats, false);
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof SeqScan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
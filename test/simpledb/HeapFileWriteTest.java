@@ -43,6 +43,37 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free-space map maintained by HeapFile.insertTuple()
+     * and HeapFile.deleteTuple()
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(503, fsm.getFreeSlots(1));
+        assertEquals(1, fsm.findPage(empty.numPages(), 0));
+
+        // a delete on the full page makes it the first candidate again
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        empty.deleteTuple(tid, t);
+        assertEquals(1, fsm.getFreeSlots(0));
+        assertEquals(0, fsm.findPage(empty.numPages(), 0));
+
+        // and the counts survive being saved and reloaded
+        empty.sync();
+        FreeSpaceMap reloaded = new FreeSpaceMap(FreeSpaceMap.sidecarFor(empty.getFile()));
+        assertEquals(1, reloaded.getFreeSlots(0));
+        assertEquals(503, reloaded.getFreeSlots(1));
+        assertEquals(FreeSpaceMap.UNKNOWN, reloaded.getFreeSlots(2));
+        FreeSpaceMap.sidecarFor(empty.getFile()).delete();
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,53 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple() and HeapPage.getField()
+     */
+    @Test public void getTupleAndField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+            Tuple tup = page.getTuple(i);
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(i, tup.getRecordId().tupleno());
+        }
+        assertEquals(null, page.getTuple(20));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(List)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000));
+        Iterator<Tuple> it = page.iterator(Collections.singletonList(p));
+
+        int expected = 0;
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000)
+                expected++;
+        }
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(p.filter(it.next()));
+            count++;
+        }
+        assertEquals(expected, count);
+    }
+
+    /**
+     * Unit test that a page serializes back to the bytes it was read from
+     * whether or not its tuples were decoded
+     */
+    @Test public void getPageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        page.getTuple(3);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
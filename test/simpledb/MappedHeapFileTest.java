@@ -0,0 +1,86 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private MappedHeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1 << 16,
+                null, tuples);
+        hf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage()
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertEquals(504 - (1000 - 504), page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(0));
+        assertFalse(page.isSlotUsed(503));
+    }
+
+    /**
+     * Pages past the end of the file read as empty pages.
+     */
+    @Test
+    public void readPastEnd() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        assertEquals(504, page.getNumEmptySlots());
+    }
+
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * Inserted tuples must be visible through the mapping once flushed.
+     */
+    @Test
+    public void insertAndReread() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 8 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(7, 8)));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MetadataAggregateTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+    }
+
+    /**
+     * @return the result of the aggregate computed from metadata, or null
+     *         if it returns no tuple
+     */
+    private Integer metadata(TransactionId tid, Aggregator.Op op, int field) throws Exception {
+        return single(new MetadataAggregate(tid, hf, new SeqScan(tid, hf.getId(), "t"), field, op));
+    }
+
+    private Integer metadata(Aggregator.Op op, int field) throws Exception {
+        TransactionId tid = new TransactionId();
+        Integer value = metadata(tid, op, field);
+        Database.getBufferPool().transactionComplete(tid);
+        return value;
+    }
+
+    /**
+     * @return the result of the aggregate computed by scanning the table
+     */
+    private Integer scanned(TransactionId tid, Aggregator.Op op, int field) throws Exception {
+        return single(new Aggregate(new SeqScan(tid, hf.getId(), "t"), field,
+                Aggregator.NO_GROUPING, op));
+    }
+
+    private Integer single(DbIterator it) throws Exception {
+        it.open();
+        Integer value = null;
+        if (it.hasNext())
+            value = ((IntField) it.next().getField(0)).getValue();
+        assertFalse(it.hasNext());
+        it.close();
+        return value;
+    }
+
+    private void checkAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        checkAll(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void checkAll(TransactionId tid) throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.COUNT,
+                Aggregator.Op.MIN, Aggregator.Op.MAX }) {
+            for (int field = 0; field < 2; ++field) {
+                assertEquals(op + " " + field, scanned(tid, op, field), metadata(tid, op, field));
+            }
+        }
+    }
+
+    /**
+     * The aggregates match those of a scan, whether or not the zone map
+     * knows the pages yet; once it does, COUNT reads no pages and MIN and
+     * MAX few
+     */
+    @Test public void matchesScan() throws Exception {
+        assertFalse(hf.getZoneMap().isKnown(0));
+        TransactionId tid = new TransactionId();
+        assertEquals(Integer.valueOf(ROWS), metadata(tid, Aggregator.Op.COUNT, 0));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.getZoneMap().isKnown(hf.numPages() - 1));
+        checkAll();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(Integer.valueOf(ROWS), metadata(tid, Aggregator.Op.COUNT, 1));
+        assertEquals(0, SystemTestUtil.pagesCached(hf));
+        metadata(tid, Aggregator.Op.MAX, 0);
+        assertTrue(SystemTestUtil.pagesCached(hf) < hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The aggregates see the inserts and deletes of the transaction running
+     * them, committed changes, and not rolled back ones
+     */
+    @Test public void updates() throws Exception {
+        checkAll();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { MAX_VALUE + i, -i }));
+        }
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        for (int i = 0; i < 300 && scan.hasNext(); ++i)
+            Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        checkAll(tid);
+        assertEquals(Integer.valueOf(ROWS - 200), metadata(tid, Aggregator.Op.COUNT, 0));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(Integer.valueOf(ROWS), metadata(Aggregator.Op.COUNT, 0));
+        checkAll();
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { -1, MAX_VALUE * 2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        checkAll();
+        assertEquals(Integer.valueOf(-1), metadata(Aggregator.Op.MIN, 0));
+        assertEquals(Integer.valueOf(MAX_VALUE * 2), metadata(Aggregator.Op.MAX, 1));
+    }
+
+    /**
+     * Like Aggregate, an empty table has no result
+     */
+    @Test public void emptyTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, MAX_VALUE, null, tuples);
+        checkAll();
+        assertNull(metadata(Aggregator.Op.COUNT, 0));
+    }
+
+    /**
+     * The planner answers COUNT, MIN and MAX over a whole table from
+     * metadata, and scans for anything else
+     */
+    @Test public void planner() throws Exception {
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+
+        assertTrue(plan(stats, "count", null, null) instanceof MetadataAggregate);
+        assertTrue(plan(stats, "max", null, null) instanceof MetadataAggregate);
+        assertTrue(plan(stats, "sum", null, null) instanceof Aggregate);
+        assertTrue(plan(stats, "min", "t.c1", null) instanceof Aggregate);
+        assertTrue(plan(stats, "count", null, "1") instanceof Aggregate);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = logicalPlan("min", null, null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        int min = Integer.MAX_VALUE;
+        for (ArrayList<Integer> t : tuples)
+            min = Math.min(min, t.get(0));
+        assertEquals(Integer.valueOf(min), single(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private LogicalPlan logicalPlan(String op, String groupBy, String filter) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        if (filter != null)
+            lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, filter);
+        if (groupBy != null)
+            lp.addProjectField(groupBy, null);
+        lp.addProjectField("t.c0", op);
+        lp.addAggregate(op, "t.c0", groupBy);
+        return lp;
+    }
+
+    /**
+     * @return the aggregate operator of the plan
+     */
+    private DbIterator plan(Map<String, TableStats> stats, String op, String groupBy, String filter)
+            throws Exception {
+        DbIterator plan = logicalPlan(op, groupBy, filter).physicalPlan(new TransactionId(), stats, false);
+        while (!(plan instanceof Aggregate || plan instanceof MetadataAggregate))
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MetadataAggregateTest.class);
+    }
+}
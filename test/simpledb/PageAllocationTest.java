@@ -0,0 +1,111 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageAllocationTest extends SimpleDbTestBase {
+    private static final int EXTENT = HeapFile.EXTENT_SIZE / BufferPool.PAGE_SIZE;
+
+    private int perPage;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table of two full pages
+     */
+    @Before public void createTable() throws Exception {
+        perPage = (BufferPool.PAGE_SIZE * 8) / (2 * 4 * 8 + 1);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2 * perPage, null, tuples);
+        assertEquals(2, hf.numPages());
+    }
+
+    private void insert(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The file grows by a whole extent at a time, and the page count only
+     * by the pages in use
+     */
+    @Test public void growByExtents() throws Exception {
+        insert(1);
+        assertEquals(3, hf.numPages());
+        assertEquals((long) (2 + EXTENT) * BufferPool.PAGE_SIZE, hf.getFile().length());
+
+        insert((EXTENT - 1) * perPage);
+        assertEquals(2 + EXTENT, hf.numPages());
+        assertEquals((long) (2 + EXTENT) * BufferPool.PAGE_SIZE, hf.getFile().length());
+
+        insert(perPage);
+        assertEquals(3 + EXTENT, hf.numPages());
+        assertEquals((long) (2 + 2 * EXTENT) * BufferPool.PAGE_SIZE, hf.getFile().length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A reopened file keeps its page count rather than counting the empty
+     * pages of its last extent
+     */
+    @Test public void reopen() throws Exception {
+        insert(1);
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3, reopened.numPages());
+    }
+
+    /**
+     * Metadata that does not match the length of the file is ignored
+     */
+    @Test public void staleMetadata() throws Exception {
+        insert(1);
+        FileOutputStream fos = new FileOutputStream(hf.getFile(), true);
+        fos.write(new byte[BufferPool.PAGE_SIZE]);
+        fos.close();
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3 + EXTENT, reopened.numPages());
+
+        File meta = HeapFile.metaFileFor(hf.getFile());
+        assertTrue(meta.delete());
+        reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3 + EXTENT, reopened.numPages());
+    }
+
+    /**
+     * A page added by a transaction that aborts stays in the file, empty
+     */
+    @Test public void abortedInsert() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(3, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        assertEquals(perPage, p.getNumEmptySlots());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageAllocationTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int BIG_PAGE = 64 * 1024;
+
+    private HeapFile createTable(int rows, int pageSize, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        Random r = new Random();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(r.nextInt(1 << 16));
+            tuples.add(tuple);
+        }
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, pageSize, 2);
+        HeapFile hf = new HeapFile(temp, Utility.getTupleDesc(2), HeapFile.PageFormat.FIXED, pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * A table with large pages is read with its own page size
+     */
+    @Test public void readLargePages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = createTable(20000, BIG_PAGE, tuples);
+
+        int perPage = (BIG_PAGE * 8) / (8 * 8 + 1);
+        assertEquals((20000 + perPage - 1) / perPage, hf.numPages());
+        assertEquals(BIG_PAGE, Database.getCatalog().getPageSize(hf.getId()));
+
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(BIG_PAGE, page.getPageSize());
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(BIG_PAGE, page.getPageData().length);
+
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Inserts into a table with large pages write whole large pages
+     */
+    @Test public void insertLargePages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = createTable(0, BIG_PAGE, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(BIG_PAGE, hf.getFile().length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+        FreeSpaceMap.sidecarFor(hf.getFile()).delete();
+    }
+
+    /**
+     * The buffer pool counts its capacity in bytes, so it holds fewer large
+     * pages than small ones
+     */
+    @Test public void mixedFrameSizes() throws Exception {
+        HeapFile big = createTable(20000, BIG_PAGE, new ArrayList<ArrayList<Integer>>());
+        HeapFile small = createTable(20000, BufferPool.PAGE_SIZE, new ArrayList<ArrayList<Integer>>());
+
+        // room for exactly two large pages, or 32 small ones
+        BufferPool bp = Database.resetBufferPool(2 * BIG_PAGE / BufferPool.PAGE_SIZE);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; ++i)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        for (int i = 0; i < 16; ++i)
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+
+        // the 16 small pages took the room of one large page, so only the
+        // most recently used large page is left
+        int bigCached = 0;
+        for (int i = 0; i < 3; ++i) {
+            if (bp.pageCached(new HeapPageId(big.getId(), i)))
+                bigCached++;
+        }
+        assertEquals(1, bigCached);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        int perPage = (BufferPool.PAGE_SIZE * 8) / (2 * 4 * 8 + 1);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * perPage, null, tuples);
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    private static boolean waitCached(BufferPool bp, PageId pid) throws InterruptedException {
+        for (int i = 0; i < 500 && !bp.pageCached(pid); ++i)
+            Thread.sleep(10);
+        return bp.pageCached(pid);
+    }
+
+    /**
+     * A prefetched page is cached without locking it
+     */
+    @Test public void prefetchPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 7);
+        bp.prefetchPage(pid);
+        assertTrue(waitCached(bp, pid));
+
+        TransactionId tid = new TransactionId();
+        assertFalse(bp.holdsLock(tid, pid));
+        Page p = bp.getPage(tid, pid, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid, pid));
+        assertEquals(pid, p.getId());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With read ahead disabled, nothing is prefetched
+     */
+    @Test public void disabled() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setReadAhead(false);
+        assertEquals(0, bp.maxReadAhead(BufferPool.PAGE_SIZE));
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        bp.prefetchPage(pid);
+        Thread.sleep(100);
+        assertFalse(bp.pageCached(pid));
+    }
+
+    /**
+     * Prefetching never evicts dirty pages
+     */
+    @Test public void fullOfDirtyPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; ++i) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+        HeapPageId pid = new HeapPageId(hf.getId(), 5);
+        bp.prefetchPage(pid);
+        Thread.sleep(100);
+        assertFalse(bp.pageCached(pid));
+        assertTrue(bp.pageCached(new HeapPageId(hf.getId(), 0)));
+        assertTrue(bp.pageCached(new HeapPageId(hf.getId(), 1)));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * A sequential scan reads the following pages ahead and returns every
+     * tuple once
+     */
+    @Test public void scanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, null, true);
+        it.open();
+        assertTrue(it.hasNext());
+        for (int i = 1; i <= HeapFileIterator.INITIAL_WINDOW; ++i)
+            assertTrue(waitCached(bp, new HeapPageId(hf.getId(), i)));
+        it.close();
+
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        SystemTestUtil.matchTuples(scan, tuples);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
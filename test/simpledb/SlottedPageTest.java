@@ -0,0 +1,165 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD =
+            new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for SlottedPage.createPageData() and reading it back
+     */
+    @Test public void readPage() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 100; ++i)
+            tuples.add(tuple(i, name(i)));
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createPageData(tuples, BufferPool.PAGE_SIZE));
+
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(page.isSlotUsed(i));
+            assertEquals(name(i), ((StringField) page.getField(i, 1)).getValue());
+            assertEquals(i, ((IntField) page.getTuple(i).getField(0)).getValue());
+        }
+        assertFalse(page.isSlotUsed(100));
+
+        Iterator<Tuple> it = page.iterator(Collections.singletonList(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField(name(42), Type.STRING_LEN))));
+        assertTrue(it.hasNext());
+        assertEquals(42, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Short strings must take far less room than fixed-size slots
+     */
+    @Test public void density() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, name(n)))) {
+            page.insertTuple(tuple(n, name(n)));
+            n++;
+        }
+        int fixed = (BufferPool.PAGE_SIZE * 8) / (TD.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixed);
+
+        try {
+            page.insertTuple(tuple(n, name(n)));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple(), deleteTuple() and getPageData()
+     */
+    @Test public void insertDeleteRoundTrip() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; ++i)
+            tuples.add(tuple(i, name(i)));
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createPageData(tuples, BufferPool.PAGE_SIZE));
+
+        // delete slot 3 and insert a longer tuple, which reuses the slot
+        page.deleteTuple(page.getTuple(3));
+        assertFalse(page.isSlotUsed(3));
+        Tuple longer = tuple(100, "a much longer name than the others");
+        page.insertTuple(longer);
+        assertEquals(3, longer.getRecordId().tupleno());
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        for (int i = 0; i < 10; ++i) {
+            int expected = i == 3 ? 100 : i;
+            assertEquals(expected, ((IntField) reread.getField(i, 0)).getValue());
+        }
+        assertEquals("a much longer name than the others",
+                ((StringField) reread.getTuple(3).getField(1)).getValue());
+
+        // the before image is the page as it was read
+        SlottedPage before = (SlottedPage) page.getBeforeImage();
+        assertEquals(name(3), ((StringField) before.getField(3, 1)).getValue());
+    }
+
+    /**
+     * Slotted tables written by HeapFileEncoder can be scanned and inserted
+     * into through the buffer pool
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File txt = File.createTempFile("slotted", ".txt");
+        txt.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 1000; ++i)
+            bw.write(i + "," + name(i) + "\n");
+        bw.close();
+        File dat = File.createTempFile("slotted", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertSlotted(txt, dat, BufferPool.PAGE_SIZE, new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',');
+
+        HeapFile hf = new HeapFile(dat, TD, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int fixedPages = (int) Math.ceil(1000.0 / ((BufferPool.PAGE_SIZE * 8) / (TD.getSize() * 8 + 1)));
+        assertTrue(hf.numPages() * 5 < fixedPages);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000, name(1000)));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[1001];
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(name(id), ((StringField) t.getField(1)).getValue());
+            assertFalse(seen[id]);
+            seen[id] = true;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1001, count);
+        FreeSpaceMap.sidecarFor(dat).delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -3,6 +3,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 
+import simpledb.systemtest.SystemTestUtil;
+
 import static org.junit.Assert.*;
 
 public class TestUtil {
@@ -214,6 +216,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void sync() throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -239,6 +245,10 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+        public int getPageSize() {
+            return BufferPool.PAGE_SIZE;
+        }
     }
 
     /**
@@ -379,6 +389,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            SystemTestUtil.deleteSidecarsOnExit(emptyFile, 2);
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,163 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+    }
+
+    /**
+     * Deletes all but every keep-th tuple of the table, and those from the
+     * list of expected tuples
+     */
+    private void deleteMost(int keep) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; scan.hasNext(); ++i) {
+            Tuple t = scan.next();
+            if (keep > 0 && i % keep == 0)
+                kept.add(SystemTestUtil.tupleToList(t));
+            else
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tuples = kept;
+    }
+
+    private Vacuum.Report report() throws Exception {
+        return Vacuum.report(hf);
+    }
+
+    /**
+     * Compacting a table with mostly empty pages moves its tuples to the
+     * front, cuts the rest of the file off and keeps every tuple
+     */
+    @Test public void compact() throws Exception {
+        int pages = hf.numPages();
+        deleteMost(10);
+        Vacuum.Report before = report();
+        assertEquals(pages, before.getNumPages());
+        assertEquals(tuples.size(), before.getNumTuples());
+        assertTrue(before.getFillFactor() < 0.2);
+
+        Vacuum v = new Vacuum(hf, 0);
+        int truncated = v.compact();
+        assertTrue(truncated > 0);
+        assertEquals(truncated, v.getPagesTruncated());
+        assertTrue(v.getPagesMoved() > 0);
+        assertEquals(pages - truncated, hf.numPages());
+        assertEquals((long) hf.numPages() * BufferPool.PAGE_SIZE, hf.getFile().length());
+
+        Vacuum.Report after = report();
+        assertEquals(tuples.size(), after.getNumTuples());
+        assertTrue(after.getNumPages() <= before.getMinPages() + 1);
+        assertTrue(after.getFillFactor() > 0.8);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // the file reopens at its new length
+        hf.close();
+        hf = Utility.openHeapFile(2, hf.getFile());
+        assertEquals(pages - truncated, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * An index of the table points at the tuples' new places
+     */
+    @Test public void indexFollows() throws Exception {
+        File f = BTreeFile.indexFileFor(hf.getFile(), 0);
+        BTreeFile index = new BTreeFile(f, hf.getId(), 0, Type.INT_TYPE);
+        index.build(hf);
+        Database.getCatalog().addIndex(index);
+
+        deleteMost(7);
+        assertTrue(new Vacuum(hf, 0).compact() > 0);
+
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", index,
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE)));
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A table whose tuples are all deleted is cut down to no pages, and
+     * takes inserts again afterwards
+     */
+    @Test public void emptyTable() throws Exception {
+        deleteMost(0);
+        new Vacuum(hf, 0).compact();
+        assertEquals(0, hf.numPages());
+        assertEquals(0, hf.getFile().length());
+        assertEquals(0, report().getNumTuples());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A background vacuum with a rate limit takes at least as long as its
+     * I/O allows, and gets the same result
+     */
+    @Test public void background() throws Exception {
+        deleteMost(10);
+        int pagesPerSecond = 200;
+        long start = System.currentTimeMillis();
+        Vacuum v = new Vacuum(hf, pagesPerSecond);
+        Thread t = v.start();
+        t.join(60000);
+        assertFalse(t.isAlive());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(v.getPagesTruncated() > 0);
+        // every page moved is read and written, as is a page it moves to
+        assertTrue(elapsed >= 1000L * 4 * v.getPagesMoved() / pagesPerSecond);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A report made from metadata agrees with one made by reading pages
+     */
+    @Test public void reportFromMetadata() throws Exception {
+        deleteMost(3);
+        Vacuum.Report read = report();
+        assertTrue(hf.getZoneMap().isKnown(0));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Vacuum.Report known = report();
+        assertEquals(read.toString(), known.toString());
+        for (int i = 0; i < hf.numPages(); ++i)
+            assertFalse(Database.getBufferPool().pageCached(new HeapPageId(hf.getId(), i)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private int perPage;
+    private File dat;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table clustered on its first field, as a table appended to
+     * in time order would be
+     */
+    @Before public void createTable() throws Exception {
+        perPage = (BufferPool.PAGE_SIZE * 8) / (2 * 4 * 8 + 1);
+        dat = createFile(ROWS);
+        hf = Utility.openHeapFile(2, dat);
+    }
+
+    private File createFile(int rows) throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random();
+        for (int i = 0; i < rows; ++i) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, r.nextInt(1000))));
+        }
+        File f = dat != null ? dat : File.createTempFile("zone", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        SystemTestUtil.deleteSidecarsOnExit(f, 2);
+        return f;
+    }
+
+    /**
+     * @return the number of tuples with field 0 op value, scanned in a
+     *         transaction of its own
+     */
+    private int scan(Predicate.Op op, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        int count = scan(tid, op, value);
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    private int scan(TransactionId tid, Predicate.Op op, int value) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Predicate p = new Predicate(0, op, new IntField(value));
+        scan.addPredicate(p);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertTrue(p.filter(scan.next()));
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    private int expected(Predicate.Op op, int value) {
+        Predicate p = new Predicate(0, op, new IntField(value));
+        int count = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) })))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the pages of the table a scan with an empty buffer pool
+     *         reads, checking that it returns the right tuples
+     */
+    private List<Integer> pagesRead(Predicate.Op op, int value) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(op + " " + value, expected(op, value), scan(op, value));
+        ArrayList<Integer> read = new ArrayList<Integer>();
+        for (int i = 0; i < hf.numPages(); ++i) {
+            if (Database.getBufferPool().pageCached(new HeapPageId(hf.getId(), i)))
+                read.add(i);
+        }
+        return read;
+    }
+
+    private void learn() throws Exception {
+        assertEquals(ROWS, scan(Predicate.Op.GREATER_THAN_OR_EQ, 0));
+        for (int i = 0; i < hf.numPages(); ++i)
+            assertTrue(hf.getZoneMap().isKnown(i));
+    }
+
+    /**
+     * Once a scan has read the pages, range and equality filters only read
+     * the pages that can hold matching tuples
+     */
+    @Test public void skipsPages() throws Exception {
+        assertFalse(hf.getZoneMap().isKnown(0));
+        // nothing is known yet, so every page is read
+        assertEquals(hf.numPages(), pagesRead(Predicate.Op.LESS_THAN, 0).size());
+
+        assertEquals(Arrays.asList(0, 1), pagesRead(Predicate.Op.LESS_THAN, 2 * perPage));
+        assertEquals(Arrays.asList(2), pagesRead(Predicate.Op.EQUALS, 2 * perPage));
+        assertEquals(Arrays.asList(hf.numPages() - 1),
+                pagesRead(Predicate.Op.GREATER_THAN, ROWS - 2));
+        assertEquals(Collections.<Integer>emptyList(), pagesRead(Predicate.Op.GREATER_THAN, ROWS));
+        assertEquals(hf.numPages(), pagesRead(Predicate.Op.NOT_EQUALS, 5).size());
+    }
+
+    /**
+     * The ranges survive closing the file, and are ignored if the data
+     * file was rewritten since
+     */
+    @Test public void persistence() throws Exception {
+        learn();
+        hf.close();
+        assertTrue(ZoneMap.sidecarFor(dat).exists());
+
+        hf = Utility.openHeapFile(2, dat);
+        assertTrue(hf.getZoneMap().isKnown(0));
+        assertEquals(Arrays.asList(hf.numPages() - 1),
+                pagesRead(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 1));
+
+        // a different table in the same file
+        createFile(ROWS / 2);
+        hf = Utility.openHeapFile(2, dat);
+        assertFalse(hf.getZoneMap().isKnown(0));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(expected(Predicate.Op.LESS_THAN, 10), scan(Predicate.Op.LESS_THAN, 10));
+    }
+
+    /**
+     * Inserted tuples are found by the transaction that inserted them and
+     * after it commits, and deleted ones are gone
+     */
+    @Test public void insertAndDelete() throws Exception {
+        learn();
+        int page = 3;
+        int value = page * perPage;
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(value)));
+        scan.open();
+        while (scan.hasNext())
+            Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, scan(Predicate.Op.EQUALS, value));
+
+        // the insert goes to the page with the free slot
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { -5, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(page, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, scan(tid, Predicate.Op.EQUALS, -5));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tuples.remove(value);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        assertEquals(Arrays.asList(page), pagesRead(Predicate.Op.LESS_THAN, 0));
+        assertEquals(Arrays.asList(page), pagesRead(Predicate.Op.EQUALS, value + 1));
+    }
+
+    /**
+     * A page gets the range of its before image back when an insert into it
+     * is rolled back
+     */
+    @Test public void abortedInsert() throws Exception {
+        learn();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)));
+        scan.open();
+        Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.remove(0);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { ROWS * 2, 0 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(Collections.<Integer>emptyList(), pagesRead(Predicate.Op.EQUALS, ROWS * 2));
+        assertEquals(expected(Predicate.Op.GREATER_THAN, ROWS - 10),
+                scan(Predicate.Op.GREATER_THAN, ROWS - 10));
+    }
+
+    /**
+     * The sidecar file is deleted while pages are written, and only saved
+     * if no write started since the caller's mark
+     */
+    @Test public void sidecarInvalidation() throws Exception {
+        learn();
+        hf.close();
+        File sidecar = ZoneMap.sidecarFor(dat);
+        assertTrue(sidecar.exists());
+
+        ZoneMap zones = hf.getZoneMap();
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        long mark = zones.mark();
+        zones.beginWrite();
+        assertFalse(sidecar.exists());
+        assertEquals(-1, zones.mark());
+        zones.pageWritten(page);
+        zones.save(mark);
+        assertFalse(sidecar.exists());
+        zones.save(zones.mark());
+        assertTrue(sidecar.exists());
+    }
+
+    /**
+     * String prefixes order like the strings they come from
+     */
+    @Test public void stringPrefixes() {
+        String[] sorted = { "", "a", "ab", "abc", "abd", "b", "\uffff" };
+        for (int i = 1; i < sorted.length; ++i) {
+            assertTrue(sorted[i], ZoneMap.prefixKey(sorted[i - 1]) < ZoneMap.prefixKey(sorted[i]));
+        }
+        assertEquals(ZoneMap.prefixKey("abc"), ZoneMap.prefixKey("abcd"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -81,10 +81,43 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        deleteSidecarsOnExit(temp, columns);
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return temp;
     }
 
+    /**
+     * Has every file the database may keep next to a temporary data file
+     * of the given number of columns deleted on exit, like the data file
+     * itself.
+     */
+    public static void deleteSidecarsOnExit(File dataFile, int columns) {
+        HeapFile.metaFileFor(dataFile).deleteOnExit();
+        FreeSpaceMap.sidecarFor(dataFile).deleteOnExit();
+        ZoneMap.sidecarFor(dataFile).deleteOnExit();
+        Cluster.sidecarFor(dataFile).deleteOnExit();
+        CompressedHeapFile.indexFileFor(dataFile).deleteOnExit();
+        for (int i = 0; i < columns; ++i) {
+            ColumnFile.columnFileFor(dataFile, i).deleteOnExit();
+            StringDictionary.sidecarFor(dataFile, i).deleteOnExit();
+            BTreeFile.indexFileFor(dataFile, i).deleteOnExit();
+            HashFile.indexFileFor(dataFile, i).deleteOnExit();
+            BloomFilter.sidecarFor(dataFile, i).deleteOnExit();
+        }
+    }
+
+    /**
+     * @return the number of pages of f that are in the buffer pool
+     */
+    public static int pagesCached(HeapFile f) {
+        int n = 0;
+        for (int i = 0; i < f.numPages(); ++i) {
+            if (Database.getBufferPool().pageCached(new HeapPageId(f.getId(), i)))
+                n++;
+        }
+        return n;
+    }
+
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {